@@ -0,0 +1,19 @@
+#! /bin/bash
+# Builds and runs the JMH benchmarks against a local PostgreSQL instance.
+#
+# Needs the JMH jars in bench/lib (jmh-core, jmh-generator-annprocess,
+# jopt-simple and commons-math3), e.g. from Maven Central:
+#   org.openjdk.jmh:jmh-core:1.37, org.openjdk.jmh:jmh-generator-annprocess:1.37,
+#   net.sf.jopt-simple:jopt-simple:5.0.4, org.apache.commons:commons-math3:3.6.1
+#
+# Example: ./bench.sh -p scale=1 -p fetchSize=1000 -jvmArgs "-Dbench.db=shop -Dbench.port=5432"
+# Results are written as JSON to bench/results/<timestamp>.json for comparison between builds.
+cd "$(dirname "$0")"
+set -e
+CP="../lib/postgresql-42.1.4.jar:$(ls lib/*.jar | tr '\n' ':')"
+rm -rf target && mkdir -p target/classes results
+javac -cp "$CP" ../src/*.java -d target/classes
+javac -cp "$CP:target/classes" -processor org.openjdk.jmh.generators.BenchmarkProcessor \
+	src/bench/*.java -d target/classes
+java -cp "$CP:target/classes" org.openjdk.jmh.Main \
+	-rf json -rff "results/$(date +%Y%m%d-%H%M%S).json" "$@"
@@ -0,0 +1,140 @@
+package bench;
+
+import java.io.File;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Typed access to the client classes for the benchmarks.  MechanicShop and
+ * its helpers live in the default package, which a JMH benchmark (always in
+ * a named package) cannot import, so calls go through reflection resolved
+ * once at setup.  That costs well under a microsecond per call, against a
+ * database round trip per call.
+ */
+final class Shop {
+	final Object esql;
+
+	private final Class<?> shopClass;
+	private final Class<?> handlerClass;
+	private final Method executeUpdate, executeQuery, executeQueryAndReturnResult,
+		executeQueryAndPrintResult, executeQueryAndStream, renderReport, addCustomer, addMechanic, addCar,
+		insertServiceRequest, closeServiceRequest, setFetchSize, cleanup, rowGetString;
+
+	Shop(String db, String port, String user) throws Exception {
+		Class.forName("org.postgresql.Driver");
+		this.shopClass = Class.forName("MechanicShop");
+		this.handlerClass = Class.forName("RowHandler");
+		Constructor<?> ctor = this.shopClass.getConstructor(String.class, String.class, String.class, String.class);
+		this.esql = ctor.newInstance(db, port, user, "");
+
+		this.executeUpdate = method("executeUpdate", String.class, Object[].class);
+		this.executeQuery = method("executeQuery", String.class, Object[].class);
+		this.executeQueryAndReturnResult = method("executeQueryAndReturnResult", String.class, Object[].class);
+		this.executeQueryAndPrintResult = method("executeQueryAndPrintResult", String.class, Object[].class);
+		this.executeQueryAndStream = method("executeQueryAndStream", String.class, this.handlerClass, Object[].class);
+		this.renderReport = method("renderReport", int.class, int.class);
+		this.addCustomer = method("addCustomer", String.class, String.class, String.class, String.class);
+		this.addMechanic = method("addMechanic", String.class, String.class, int.class);
+		this.addCar = method("addCar", int.class, String.class, String.class, String.class, int.class);
+		this.insertServiceRequest = method("insertServiceRequest", int.class, String.class, Timestamp.class, int.class, String.class);
+		this.closeServiceRequest = method("closeServiceRequest", int.class, int.class, Timestamp.class, String.class, int.class);
+		this.setFetchSize = method("setFetchSize", int.class);
+		this.cleanup = method("cleanup");
+		this.rowGetString = Class.forName("Row").getMethod("getString", int.class);
+	}
+
+	void load(File dir, int threads) throws Exception {
+		Class<?> loader = Class.forName("BulkLoader");
+		Object l = loader.getConstructor(this.shopClass, File.class, int.class).newInstance(this.esql, dir, threads);
+		call(loader.getMethod("load"), l);
+	}
+
+	void executeUpdate(String sql, Object... params) throws Exception {
+		call(this.executeUpdate, this.esql, sql, params);
+	}
+
+	int executeQuery(String sql, Object... params) throws Exception {
+		return (Integer) call(this.executeQuery, this.esql, sql, params);
+	}
+
+	@SuppressWarnings("unchecked")
+	List<List<String>> executeQueryAndReturnResult(String sql, Object... params) throws Exception {
+		return (List<List<String>>) call(this.executeQueryAndReturnResult, this.esql, sql, params);
+	}
+
+	int executeQueryAndPrintResult(String sql, Object... params) throws Exception {
+		return (Integer) call(this.executeQueryAndPrintResult, this.esql, sql, params);
+	}
+
+	/**
+	 * Streams a query, handing the first column of every row to the sink.
+	 */
+	long executeQueryAndStream(String sql, final RowSink sink, Object... params) throws Exception {
+		Object handler = Proxy.newProxyInstance(this.handlerClass.getClassLoader(), new Class<?>[] { this.handlerClass },
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					if (!method.getName().equals("handle"))
+						return method.invoke(this, args);
+					sink.accept(rowGetString.invoke(args[0], 1));
+					return null;
+				}
+			});
+		return (Long) call(this.executeQueryAndStream, this.esql, sql, handler, params);
+	}
+
+	long renderReport(int report, int k) throws Exception {
+		return (Long) call(this.renderReport, this.esql, report, k);
+	}
+
+	int addCustomer(String fname, String lname, String phone, String address) throws Exception {
+		return (Integer) call(this.addCustomer, this.esql, fname, lname, phone, address);
+	}
+
+	int addMechanic(String fname, String lname, int experience) throws Exception {
+		return (Integer) call(this.addMechanic, this.esql, fname, lname, experience);
+	}
+
+	int addCar(int customerId, String vin, String make, String model, int year) throws Exception {
+		return (Integer) call(this.addCar, this.esql, customerId, vin, make, model, year);
+	}
+
+	int insertServiceRequest(int customerId, String vin, Timestamp date, int odometer, String complain) throws Exception {
+		return (Integer) call(this.insertServiceRequest, this.esql, customerId, vin, date, odometer, complain);
+	}
+
+	int closeServiceRequest(int rid, int mid, Timestamp date, String comment, int bill) throws Exception {
+		return (Integer) call(this.closeServiceRequest, this.esql, rid, mid, date, comment, bill);
+	}
+
+	void setFetchSize(int fetchSize) throws Exception {
+		call(this.setFetchSize, this.esql, fetchSize);
+	}
+
+	void cleanup() throws Exception {
+		call(this.cleanup, this.esql);
+	}
+
+	interface RowSink {
+		void accept(Object value);
+	}
+
+	private static Object call(Method m, Object target, Object... args) throws Exception {
+		try {
+			return m.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}
+	}
+
+	private Method method(String name, Class<?>... params) throws Exception {
+		return this.shopClass.getMethod(name, params);
+	}
+}
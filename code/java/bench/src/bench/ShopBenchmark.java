@@ -0,0 +1,165 @@
+package bench;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Latency of the client's query helpers, the five insert operations and the
+ * five reports (options 6-10), against a local PostgreSQL instance.
+ *
+ * The inserts call the client methods behind the menu operations, minus
+ * the console prompts.  A trial that ran any of them marks the data set dirty,
+ * and the next trial reloads it, so every trial starts from the same rows.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShopBenchmark {
+
+	/**
+	 * Open service requests for the closes of one iteration, created before
+	 * it starts so that no insert is timed along with a close.  The pool
+	 * size comes from -Dbench.close.pool (default 20000) and must cover the
+	 * closes one thread runs in an iteration.
+	 */
+	@State(Scope.Thread)
+	public static class OpenRequest {
+		int[] rids;
+		int next;
+
+		@Setup(Level.Iteration)
+		public void open(ShopState s) throws Exception {
+			Shop shop = s.shop;
+			s.dirty = true;
+			this.rids = new int[Integer.getInteger("bench.close.pool", 20000)];
+			Timestamp now = new Timestamp(System.currentTimeMillis());
+			for (int i = 0; i < this.rids.length; ++i)
+				this.rids[i] = shop.insertServiceRequest(s.someCustomer, s.someVin, now, 1000, "bench");
+			this.next = 0;
+		}
+
+		int take() {
+			if (this.next >= this.rids.length)
+				throw new IllegalStateException("All " + this.rids.length + " open requests were closed; raise -Dbench.close.pool");
+			return this.rids[this.next++];
+		}
+	}
+
+	@Param({ "10" })
+	public int k;
+
+	private static int vinCounter = 0;
+
+	//---- query helpers ------------------------------------------------
+
+	@Benchmark
+	public void executeUpdate(ShopState s) throws Exception {
+		s.shop.executeUpdate("UPDATE Mechanic SET experience = experience WHERE id = ?", s.someMechanic);
+	}
+
+	@Benchmark
+	public int executeQuery(ShopState s) throws Exception {
+		return s.shop.executeQuery("SELECT c.id FROM Customer c WHERE c.id = ?", s.someCustomer);
+	}
+
+	@Benchmark
+	public List<List<String>> executeQueryAndReturnResult(ShopState s) throws Exception {
+		return s.shop.executeQueryAndReturnResult("SELECT * FROM Service_Request sr WHERE sr.customer_id = ?", s.someCustomer);
+	}
+
+	@Benchmark
+	public int executeQueryAndPrintResult(ShopState s) throws Exception {
+		//no rows, so only the statement and renderer overhead reach the terminal
+		return s.shop.executeQueryAndPrintResult("SELECT c.id FROM Customer c WHERE c.id = ?", -1);
+	}
+
+	@Benchmark
+	public long executeQueryAndStream(ShopState s, final Blackhole bh) throws Exception {
+		return s.shop.executeQueryAndStream("SELECT sr.car_vin FROM Service_Request sr", new Shop.RowSink() {
+			public void accept(Object value) {
+				bh.consume(value);
+			}
+		});
+	}
+
+	//---- inserts (options 1-5) ----------------------------------------
+
+	@Benchmark
+	public void addCustomer(ShopState s) throws Exception {
+		s.dirty = true;
+		s.shop.addCustomer("Bench", "Mark", "(000)000-0000", "1 Bench St");
+	}
+
+	@Benchmark
+	public void addMechanic(ShopState s) throws Exception {
+		s.dirty = true;
+		s.shop.addMechanic("Bench", "Mark", 5);
+	}
+
+	@Benchmark
+	public void addCar(ShopState s) throws Exception {
+		Shop shop = s.shop;
+		s.dirty = true;
+		String vin;
+		synchronized (ShopBenchmark.class) {
+			vin = String.format("BENCH%011d", (System.nanoTime() / 1000 + vinCounter++) % 100000000000L);
+		}
+		//the Car and Owns rows in one round trip, as option 3 does
+		shop.addCar(s.someCustomer, vin, "Bench", "Mark", 2000);
+	}
+
+	@Benchmark
+	public void insertServiceRequest(ShopState s) throws Exception {
+		s.dirty = true;
+		s.shop.insertServiceRequest(s.someCustomer, s.someVin, new Timestamp(System.currentTimeMillis()), 1000, "bench");
+	}
+
+	@Benchmark
+	public void closeServiceRequest(ShopState s, OpenRequest open) throws Exception {
+		s.shop.closeServiceRequest(open.take(), s.someMechanic, new Timestamp(System.currentTimeMillis()), "bench", 50);
+	}
+
+	//---- reports (options 6-10) ---------------------------------------
+
+	@Benchmark
+	public long report6BillLessThan100(ShopState s) throws Exception {
+		return s.shop.renderReport(6, 0);
+	}
+
+	@Benchmark
+	public long report7MoreThan20Cars(ShopState s) throws Exception {
+		return s.shop.renderReport(7, 0);
+	}
+
+	@Benchmark
+	public long report8CarsBefore1995(ShopState s) throws Exception {
+		return s.shop.renderReport(8, 0);
+	}
+
+	@Benchmark
+	public long report9KMostServiced(ShopState s) throws Exception {
+		return s.shop.renderReport(9, this.k);
+	}
+
+	@Benchmark
+	public long report10TotalBill(ShopState s) throws Exception {
+		return s.shop.renderReport(10, 0);
+	}
+}
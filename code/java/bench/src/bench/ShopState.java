@@ -0,0 +1,83 @@
+package bench;
+
+import java.io.File;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Connected client shared by the benchmarks of one trial.
+ *
+ * The database comes from -Dbench.db, -Dbench.port and -Dbench.user (default
+ * mechanicshop, 5432 and the current user).  Scale 1 is the code/data set;
+ * scale N is read from ${bench.data}/sfN, e.g. written by the synthetic data
+ * generator.  The data set is reloaded when the scale changes, which is
+ * tracked in the bench_dataset table, and after a trial that wrote to it.
+ */
+@State(Scope.Benchmark)
+public class ShopState {
+	@Param({ "1" })
+	public int scale;
+
+	@Param({ "100", "1000", "10000" })
+	public int fetchSize;
+
+	Shop shop;
+
+	//a few keys of the loaded data, for point lookups and new rows; the
+	//customer owns the car, so requests for the pair pass the client's checks
+	int someCustomer;
+	int someMechanic;
+	String someVin;
+
+	//set by the benchmarks that add rows
+	volatile boolean dirty = false;
+
+	@Setup(Level.Trial)
+	public void connect() throws Exception {
+		//reports render into the void instead of the terminal
+		System.setProperty("mechanicshop.output", "/dev/null");
+		System.setProperty("mechanicshop.page.size", "0");
+
+		this.shop = new Shop(
+			System.getProperty("bench.db", "mechanicshop"),
+			System.getProperty("bench.port", "5432"),
+			System.getProperty("bench.user", System.getProperty("user.name")));
+		this.shop.setFetchSize(this.fetchSize);
+		loadIfNeeded();
+
+		this.someCustomer = Integer.parseInt(first("SELECT MIN(customer_id) FROM Owns"));
+		this.someMechanic = Integer.parseInt(first("SELECT MIN(id) FROM Mechanic"));
+		this.someVin = first("SELECT MIN(car_vin) FROM Owns WHERE customer_id = ?", this.someCustomer);
+	}
+
+	@TearDown(Level.Trial)
+	public void disconnect() throws Exception {
+		//the next trial reloads rather than measure on top of this one's rows
+		if (this.dirty)
+			this.shop.executeUpdate("DELETE FROM bench_dataset");
+		this.shop.cleanup();
+	}
+
+	private void loadIfNeeded() throws Exception {
+		this.shop.executeUpdate("CREATE TABLE IF NOT EXISTS bench_dataset (scale INTEGER NOT NULL)");
+		List<List<String>> loaded = this.shop.executeQueryAndReturnResult("SELECT scale FROM bench_dataset");
+		if (!loaded.isEmpty() && Integer.parseInt(loaded.get(0).get(0)) == this.scale)
+			return;
+		File dir = this.scale == 1
+			? new File(System.getProperty("bench.data.sf1", "../data"))
+			: new File(System.getProperty("bench.data", "../data/scaled"), "sf" + this.scale);
+		this.shop.load(dir, Integer.getInteger("mechanicshop.load.threads", 3));
+		this.shop.executeUpdate("DELETE FROM bench_dataset");
+		this.shop.executeUpdate("INSERT INTO bench_dataset VALUES (?)", this.scale);
+	}
+
+	private String first(String sql, Object... params) throws Exception {
+		return this.shop.executeQueryAndReturnResult(sql, params).get(0).get(0);
+	}
+}
@@ -0,0 +1,441 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Headless driver for high-volume intake.  Reads one operation per line,
+ * either a JSON object or a CSV record whose first field is the operation:
+ *
+ *   add-customer,fname,lname,phone,address
+ *   add-mechanic,fname,lname,experience
+ *   add-car,customer_id,vin,make,model,year
+ *   insert-request,customer_id,vin,odometer,complain[,date]
+ *   close-request,rid,mid,bill,comment[,date]
+ *   report,number[,k]
+ *
+ * JSON records use the same field names plus "op", e.g.
+ * {"op":"close-request","rid":17,"mid":3,"bill":120,"comment":"done"}.
+ *
+ * Writes are grouped into transactions of batchSize records and sent with
+ * addBatch/executeBatch, one batch per statement template.  When a batch
+ * fails it is rolled back and replayed record by record, and the records
+ * that still fail go to the reject file with their error.  Reports flush the
+ * pending batch and then render to standard out.
+ *
+ * As with option 4, a service request is rejected unless its customer owns
+ * the car, either already or through an add-car earlier in the same batch.
+ * Every batch is timed as the "batch" operation of the client's metrics.
+ *
+ */
+public class BatchRunner {
+
+	/*
+	 * Templates in the order their batches are executed, parents first, so a
+	 * record may refer to rows created earlier in the same batch.
+	 */
+	static final String[] ORDER = {
+		MechanicShop.INSERT_CUSTOMER,
+		MechanicShop.INSERT_MECHANIC,
+		MechanicShop.INSERT_CAR,
+		MechanicShop.INSERT_OWNS,
+		MechanicShop.INSERT_SERVICE_REQUEST,
+		MechanicShop.INSERT_CLOSED_RID,
+		MechanicShop.INSERT_CLOSED_REQUEST,
+		BillingAggregate.ADD_TO_SUMMARY,
+		BillingAggregate.ADD_LOW_BILL,
+	};
+
+	static final String CLOSED_AMONG = "SELECT cr.rid FROM Closed_Rid cr WHERE cr.rid = ANY (?)";
+
+	/*
+	 * One parsed input line and the statements it turns into.
+	 */
+	static final class Record {
+		final String line;
+		final String op;
+		final Map<String, Object[]> steps = new LinkedHashMap<String, Object[]>();
+		String serviceVin;
+		//customer and car of an add-car, for the key cache
+		int ownerId = -1;
+		String ownedVin;
+		int openRid = -1;
+		int closeRid = -1;
+		int report;
+		int k;
+
+		Record(String line, String op) {
+			this.line = line;
+			this.op = op;
+		}
+	}
+
+	private final MechanicShop esql;
+	private final int batchSize;
+	private final PrintWriter rejects;
+	private final List<Record> pending = new ArrayList<Record>();
+	//"customer:vin" of the add-car records in pending
+	private final Set<String> pendingCars = new HashSet<String>();
+	private long accepted = 0;
+	private long rejected = 0;
+	private long batches = 0;
+
+	public BatchRunner(MechanicShop esql, int batchSize, PrintWriter rejects) {
+		this.esql = esql;
+		this.batchSize = batchSize;
+		this.rejects = rejects;
+	}
+
+	/**
+	 * Method to run a batch file, or standard in when path is "-".
+	 *
+	 * @param path the input file
+	 * @param rejectPath where rejected records are written
+	 * @param batchSize records per transaction
+	 * @throws Exception when the input or reject file cannot be opened
+	 */
+	public static void run(MechanicShop esql, String path, String rejectPath, int batchSize) throws Exception {
+		InputStream is = path.equals("-") ? System.in : new FileInputStream(path);
+		BufferedReader input = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+		PrintWriter rejects = new PrintWriter(new OutputStreamWriter(new FileOutputStream(rejectPath), StandardCharsets.UTF_8));
+		try {
+			new BatchRunner(esql, batchSize, rejects).run(input);
+		} finally {
+			rejects.close();
+			if (is != System.in)
+				input.close();
+		}
+	}
+
+	public void run(BufferedReader input) throws Exception {
+		long start = System.nanoTime();
+		String line;
+		while ((line = input.readLine()) != null) {
+			if (line.trim().isEmpty() || line.startsWith("#"))
+				continue;
+			Record r;
+			try {
+				r = parse(line);
+			} catch (Exception e) {
+				reject(line, e);
+				continue;
+			}
+			if (r.op.equals("report")) {
+				flush();
+				try {
+					this.esql.renderReport(r.report, r.k);
+					++this.accepted;
+				} catch (Exception e) {
+					reject(line, e);
+				}
+				continue;
+			}
+			this.pending.add(r);
+			if (this.pending.size() >= this.batchSize)
+				flush();
+		}//end while
+		flush();
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.err.printf("%d records applied, %d rejected, %d batches in %.2f s (%.0f records/s)%n",
+			this.accepted, this.rejected, this.batches, secs, (this.accepted + this.rejected) / Math.max(secs, 1e-9));
+	}
+
+	/*
+	 * Sends the pending records as one transaction, falling back to one
+	 * transaction per record when the batch as a whole fails.
+	 */
+	private void flush() throws SQLException {
+		if (this.pending.isEmpty())
+			return;
+		List<Record> batch = new ArrayList<Record>(this.pending);
+		this.pending.clear();
+		this.pendingCars.clear();
+		++this.batches;
+		try (Metrics.Span span = this.esql.getMetrics().operation("batch")) {
+			long before = this.accepted;
+			rejectAlreadyClosed(batch);
+			if (batch.isEmpty()) {
+				span.done(0);
+				return;
+			}
+			try {
+				execute(batch);
+				applied(batch);
+				span.done(batch.size());
+				return;
+			} catch (SQLException e) {
+				// replayed one by one below to find the offending records.
+			}
+			for (Record r : batch) {
+				List<Record> one = new ArrayList<Record>(1);
+				one.add(r);
+				try {
+					execute(one);
+					applied(one);
+				} catch (SQLException e) {
+					reject(r.line, e);
+				}
+			}
+			span.done(this.accepted - before);
+		}
+	}
+
+	private void execute(final List<Record> batch) throws SQLException {
+		this.esql.executeTransaction(new MechanicShop.Transaction<Void>() {
+			public Void run(PooledConnection conn) throws SQLException {
+				for (String sql : ORDER) {
+					PreparedStatement stmt = null;
+					for (Record r : batch) {
+						Object[] params = r.steps.get(sql);
+						if (params == null)
+							continue;
+						if (stmt == null)
+							stmt = conn.prepare(sql);
+						MechanicShop.bind(stmt, params);
+						stmt.addBatch();
+					}
+					if (stmt != null)
+						conn.executeBatch(stmt);
+				}
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * One round trip per batch finds the requests that are already closed,
+	 * or that are closed twice within the batch.  Requests that neither the
+	 * bitmap nor an earlier record of the batch knows are rejected as well,
+	 * since the partitioned Closed_Request has no foreign key to check rid.
+	 */
+	private void rejectAlreadyClosed(List<Record> batch) throws SQLException {
+		List<Integer> rids = new ArrayList<Integer>();
+		for (Record r : batch)
+			if (r.closeRid >= 0)
+				rids.add(r.closeRid);
+		if (rids.isEmpty())
+			return;
+		final Set<Integer> closed = new HashSet<Integer>();
+		try (PooledConnection conn = this.esql.getPool().acquire()) {
+			PreparedStatement stmt = conn.prepare(CLOSED_AMONG);
+			Array array = conn.getConnection().createArrayOf("integer", rids.toArray());
+			stmt.setArray(1, array);
+			ResultSet rs = conn.executeQuery(stmt);
+			while (rs.next())
+				closed.add(rs.getInt(1));
+			rs.close();
+		}
+		Set<Integer> opened = new HashSet<Integer>();
+		for (int i = 0; i < batch.size(); ++i) {
+			Record r = batch.get(i);
+			if (r.openRid >= 0)
+				opened.add(r.openRid);
+			if (r.closeRid >= 0 && !opened.contains(r.closeRid) &&
+				this.esql.getRequestBitmap().state(r.closeRid) == RequestBitmap.State.UNKNOWN) {
+				reject(r.line, new SQLException("No service request " + r.closeRid, "23503"));
+				batch.remove(i--);
+			} else if (r.closeRid >= 0 && !closed.add(r.closeRid)) {
+				reject(r.line, new Exception("Already closed..."));
+				batch.remove(i--);
+			}
+		}
+	}
+
+	private void applied(List<Record> batch) throws SQLException {
+		this.accepted += batch.size();
+		for (Record r : batch) {
+			if (r.ownedVin != null)
+				this.esql.getKeyCache().addCar(r.ownerId, r.ownedVin);
+			if (r.serviceVin != null)
+				this.esql.getServiceCounter().recordService(r.serviceVin);
+			if (r.openRid >= 0)
+				this.esql.getRequestBitmap().opened(r.openRid);
+			if (r.closeRid >= 0)
+				this.esql.getRequestBitmap().closed(r.closeRid);
+		}
+	}
+
+	private void reject(String line, Exception e) {
+		++this.rejected;
+		this.rejects.println(line + "\t# " + e.getMessage());
+	}
+
+	/*
+	 * Turns a line into the parameter lists of its statements.  Ids are
+	 * allocated here, so a record that is later rejected leaves a gap.
+	 */
+	Record parse(String line) throws Exception {
+		Fields f = line.trim().startsWith("{") ? Fields.json(line) : Fields.csv(line);
+		Record r = new Record(line, f.op());
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		if (r.op.equals("add-customer")) {
+			int id = this.esql.nextId(IdAllocator.Table.CUSTOMER);
+			r.steps.put(MechanicShop.INSERT_CUSTOMER, new Object[] {
+				id, f.text("fname", 1), f.text("lname", 2), f.text("phone", 3), f.text("address", 4) });
+		} else if (r.op.equals("add-mechanic")) {
+			int id = this.esql.nextId(IdAllocator.Table.MECHANIC);
+			r.steps.put(MechanicShop.INSERT_MECHANIC, new Object[] {
+				id, f.text("fname", 1), f.text("lname", 2), f.integer("experience", 3) });
+		} else if (r.op.equals("add-car")) {
+			int cid = f.integer("customer_id", 1);
+			String vin = f.text("vin", 2);
+			r.steps.put(MechanicShop.INSERT_CAR, new Object[] {
+				vin, f.text("make", 3), f.text("model", 4), f.integer("year", 5) });
+			r.steps.put(MechanicShop.INSERT_OWNS, new Object[] {
+				this.esql.nextId(IdAllocator.Table.OWNS), cid, vin });
+			r.ownerId = cid;
+			r.ownedVin = vin;
+			this.pendingCars.add(cid + ":" + vin);
+		} else if (r.op.equals("insert-request")) {
+			int cid = f.integer("customer_id", 1);
+			String vin = f.text("vin", 2);
+			int odometer = f.integer("odometer", 3);
+			String complain = f.text("complain", 4);
+			if (!this.pendingCars.contains(cid + ":" + vin) && !this.esql.getKeyCache().owns(cid, vin))
+				throw new SQLException("Customer " + cid + " does not own car " + vin, "23503");
+			int rid = this.esql.nextId(IdAllocator.Table.SERVICE_REQUEST);
+			r.steps.put(MechanicShop.INSERT_SERVICE_REQUEST, new Object[] {
+				rid, cid, vin, f.date("date", 5, now), odometer, complain });
+			r.serviceVin = vin;
+			r.openRid = rid;
+		} else if (r.op.equals("close-request")) {
+			int rid = f.integer("rid", 1);
+			int mid = f.integer("mid", 2);
+			int bill = f.integer("bill", 3);
+			String comment = f.text("comment", 4);
+			int wid = this.esql.nextId(IdAllocator.Table.CLOSED_REQUEST);
+			r.steps.put(MechanicShop.INSERT_CLOSED_RID, new Object[] { rid, wid });
+			r.steps.put(MechanicShop.INSERT_CLOSED_REQUEST, new Object[] {
+				wid, rid, mid, f.date("date", 5, now), comment, bill });
+			r.steps.put(BillingAggregate.ADD_TO_SUMMARY, new Object[] { bill, rid });
+			if (bill < BillingAggregate.LOW_BILL)
+				r.steps.put(BillingAggregate.ADD_LOW_BILL, new Object[] { wid, bill, rid });
+			r.closeRid = rid;
+		} else if (r.op.equals("report")) {
+			r.report = f.integer("number", 1);
+			r.k = r.report == 9 ? f.integer("k", 2) : 0;
+		} else {
+			throw new Exception("Unknown operation " + r.op);
+		}
+		return r;
+	}
+
+	/*
+	 * Field access shared by the JSON and CSV record forms: JSON fields are
+	 * found by name, CSV fields by position.
+	 */
+	static final class Fields {
+		private final Map<String, Object> named;
+		private final List<String> positional;
+
+		private Fields(Map<String, Object> named, List<String> positional) {
+			this.named = named;
+			this.positional = positional;
+		}
+
+		static Fields json(String line) {
+			return new Fields(Json.parseObject(line), null);
+		}
+
+		static Fields csv(String line) {
+			return new Fields(null, splitCsv(line));
+		}
+
+		String op() throws Exception {
+			return text("op", 0);
+		}
+
+		String text(String name, int index) throws Exception {
+			String v = optional(name, index, null);
+			if (v == null)
+				throw new Exception("Missing field " + name);
+			return v;
+		}
+
+		int integer(String name, int index) throws Exception {
+			String v = text(name, index).trim();
+			try {
+				return Integer.parseInt(v);
+			} catch (NumberFormatException e) {
+				throw new Exception("Field " + name + " is not an integer: " + v);
+			}
+		}
+
+		String optional(String name, int index, String dflt) {
+			Object v;
+			if (this.named != null)
+				v = this.named.get(name);
+			else
+				v = index < this.positional.size() ? this.positional.get(index) : null;
+			return v == null ? dflt : v.toString();
+		}
+
+		Timestamp date(String name, int index, Timestamp dflt) {
+			String v = optional(name, index, null);
+			return v == null || v.trim().isEmpty() ? dflt : MechanicShop.parseTimestamp(v);
+		}
+	}
+
+	/**
+	 * Method to split one CSV line, honouring RFC 4180 double quotes.
+	 *
+	 * @param line the record
+	 * @return its fields
+	 */
+	static List<String> splitCsv(String line) {
+		List<String> fields = new ArrayList<String>();
+		StringBuilder cur = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); ++i) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					cur.append('"');
+					++i;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					cur.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(cur.toString());
+				cur.setLength(0);
+			} else {
+				cur.append(c);
+			}
+		}
+		fields.add(cur.toString());
+		return fields;
+	}
+}
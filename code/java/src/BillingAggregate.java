@@ -0,0 +1,137 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Keeps the billing reports independent of the length of the service
+ * history.  Two tables are maintained by CloseServiceRequest in the same
+ * transaction as its Closed_Request insert:
+ *
+ *   Customer_Bill_Summary  one row per billed customer: total and count of
+ *                          closed requests (report 10)
+ *   Customer_Low_Bill      one row per closed request billed under 100,
+ *                          tagged with its customer (report 6)
+ *
+ * Both can be rebuilt from Service_Request and Closed_Request at any time,
+ * e.g. after a bulk load or after rows were written by another tool.
+ * Customers never span shards, so each shard keeps the aggregates of its
+ * own customers.
+ *
+ */
+public class BillingAggregate {
+	//bills below this amount are listed by report 6
+	static final int LOW_BILL = 100;
+
+	static final String CREATE_SUMMARY =
+		"CREATE TABLE IF NOT EXISTS Customer_Bill_Summary (" +
+		"customer_id INTEGER PRIMARY KEY, " +
+		"total_bill BIGINT NOT NULL, " +
+		"closed_count INTEGER NOT NULL)";
+	static final String CREATE_LOW_BILL =
+		"CREATE TABLE IF NOT EXISTS Customer_Low_Bill (" +
+		"wid INTEGER PRIMARY KEY, " +
+		"customer_id INTEGER NOT NULL, " +
+		"bill INTEGER NOT NULL)";
+	static final String CREATE_LOW_BILL_INDEX =
+		"CREATE INDEX IF NOT EXISTS customer_low_bill_bill_idx ON Customer_Low_Bill (bill DESC)";
+
+	static final String ADD_TO_SUMMARY =
+		"INSERT INTO Customer_Bill_Summary AS s (customer_id, total_bill, closed_count) " +
+		"SELECT sr.customer_id, ?, 1 FROM Service_Request sr WHERE sr.rid = ? " +
+		"ON CONFLICT (customer_id) DO UPDATE SET total_bill = s.total_bill + EXCLUDED.total_bill, " +
+		"closed_count = s.closed_count + 1";
+	static final String ADD_LOW_BILL =
+		"INSERT INTO Customer_Low_Bill (wid, customer_id, bill) " +
+		"SELECT ?, sr.customer_id, ? FROM Service_Request sr WHERE sr.rid = ?";
+
+	static final String REBUILD_SUMMARY =
+		"INSERT INTO Customer_Bill_Summary (customer_id, total_bill, closed_count) " +
+		"SELECT sr.customer_id, SUM(cr.bill), COUNT(*) FROM Service_Request sr, Closed_Request cr " +
+		"WHERE sr.rid = cr.rid GROUP BY sr.customer_id";
+	static final String REBUILD_LOW_BILL =
+		"INSERT INTO Customer_Low_Bill (wid, customer_id, bill) " +
+		"SELECT cr.wid, sr.customer_id, cr.bill FROM Service_Request sr, Closed_Request cr " +
+		"WHERE sr.rid = cr.rid AND cr.bill < " + LOW_BILL;
+
+	private final ShardRouter shards;
+
+	public BillingAggregate(ShardRouter shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * Method to create the aggregate tables on every shard if they are
+	 * missing.  Freshly created tables are filled from the existing service
+	 * history.
+	 *
+	 * @throws java.sql.SQLException when the tables cannot be created
+	 */
+	public void ensureSchema() throws SQLException {
+		for (ConnectionPool pool : this.shards.all())
+			ensureSchema(pool);
+	}
+
+	private void ensureSchema(ConnectionPool pool) throws SQLException {
+		boolean created;
+		boolean haveHistory;
+		try (PooledConnection conn = pool.acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(
+					"SELECT to_regclass('customer_bill_summary') IS NULL, to_regclass('closed_request') IS NOT NULL");
+				rs.next();
+				created = rs.getBoolean(1);
+				haveHistory = rs.getBoolean(2);
+				rs.close();
+				stmt.execute(CREATE_SUMMARY);
+				stmt.execute(CREATE_LOW_BILL);
+				stmt.execute(CREATE_LOW_BILL_INDEX);
+			} finally {
+				stmt.close();
+			}
+		}
+		if (created && haveHistory)
+			rebuild(pool);
+	}
+
+	/**
+	 * Method to recompute both aggregate tables from scratch, in a single
+	 * transaction per shard.
+	 *
+	 * @throws java.sql.SQLException when the rebuild fails
+	 */
+	public void rebuild() throws SQLException {
+		for (ConnectionPool pool : this.shards.all())
+			rebuild(pool);
+	}
+
+	private void rebuild(ConnectionPool pool) throws SQLException {
+		try (PooledConnection conn = pool.acquire()) {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			Statement stmt = c.createStatement();
+			try {
+				stmt.execute("TRUNCATE Customer_Bill_Summary, Customer_Low_Bill");
+				stmt.execute(REBUILD_SUMMARY);
+				stmt.execute(REBUILD_LOW_BILL);
+				c.commit();
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,291 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * Reloads the shop tables from the CSV files in code/data by streaming each
+ * file through the driver's CopyManager.  Tables without parents load in
+ * parallel, each on its own pooled connection; Owns, Service_Request and
+ * Closed_Request start once the tables they reference are in.
+ *
+ * Foreign keys, primary/unique constraints and secondary indexes of the six
+ * tables are dropped before the load and rebuilt afterwards, which is far
+ * cheaper than maintaining them row by row.  Before the rebuild, the months
+ * the loaded requests fall in get their partitions, so the history does not
+ * stay in the default partitions.
+ *
+ */
+public class BulkLoader {
+
+	/*
+	 * One CSV file and the table it fills.  The column lists follow the
+	 * layout of the files in code/data.
+	 */
+	static final class TableFile {
+		final String table;
+		final String file;
+		final String columns;
+		final String[] parents;
+
+		TableFile(String table, String file, String columns, String... parents) {
+			this.table = table;
+			this.file = file;
+			this.columns = columns;
+			this.parents = parents;
+		}
+	}
+
+	//the month partitioned tables, see V5
+	static final String[] PARTITIONED = { "service_request", "closed_request" };
+
+	static final String FILL_CLOSED_RID = "INSERT INTO Closed_Rid (rid, wid) SELECT rid, wid FROM Closed_Request";
+
+	static final TableFile[] TABLES = {
+		new TableFile("Customer", "customer.csv", "id, fname, lname, phone, address"),
+		new TableFile("Car", "car.csv", "vin, make, model, year"),
+		new TableFile("Mechanic", "mechanic.csv", "id, fname, lname, experience"),
+		new TableFile("Owns", "owns.csv", "ownership_id, customer_id, car_vin", "Customer", "Car"),
+		new TableFile("Service_Request", "service_request.csv", "rid, customer_id, car_vin, date, odometer, complain", "Customer", "Car"),
+		new TableFile("Closed_Request", "closed_request.csv", "wid, rid, mid, date, comment, bill", "Service_Request", "Mechanic"),
+	};
+
+	private final MechanicShop esql;
+	private final File dir;
+	private final int threads;
+
+	public BulkLoader(MechanicShop esql, File dir, int threads) {
+		this.esql = esql;
+		this.dir = dir;
+		this.threads = threads;
+	}
+
+	/**
+	 * Method to truncate the shop tables and reload them from the CSV files.
+	 *
+	 * @throws Exception when a file is missing or any table fails to load
+	 */
+	public void load() throws Exception {
+		for (TableFile t : TABLES) {
+			File f = new File(this.dir, t.file);
+			if (!f.canRead())
+				throw new Exception("Cannot read " + f.getPath());
+		}//end for
+
+		long start = System.nanoTime();
+		List<String> rebuild = dropConstraintsAndIndexes();
+		execute("TRUNCATE " + tableList());
+
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		try {
+			Map<String, CompletableFuture<Void>> done = new HashMap<String, CompletableFuture<Void>>();
+			for (final TableFile t : TABLES) {
+				CompletableFuture<?>[] parents = new CompletableFuture<?>[t.parents.length];
+				for (int i = 0; i < parents.length; ++i)
+					parents[i] = done.get(t.parents[i]);
+				done.put(t.table, CompletableFuture.allOf(parents).thenRunAsync(new Runnable() {
+					public void run() {
+						try {
+							copy(t);
+						} catch (Exception e) {
+							throw new CompletionException(e);
+						}
+					}
+				}, pool));
+			}//end for
+			try {
+				CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0])).join();
+			} catch (CompletionException e) {
+				throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		long partitionStart = System.nanoTime();
+		int partitions = partitionLoadedMonths();
+		System.out.printf("%d month partitions created in %.2f s%n", partitions, (System.nanoTime() - partitionStart) / 1e9);
+
+		long indexStart = System.nanoTime();
+		for (String ddl : rebuild)
+			execute(ddl);
+		//one guard row per closed rid, see V5
+		execute("TRUNCATE Closed_Rid");
+		execute(FILL_CLOSED_RID);
+		execute("ANALYZE " + tableList() + ", Closed_Rid");
+		System.out.printf("constraints and indexes rebuilt in %.2f s%n", (System.nanoTime() - indexStart) / 1e9);
+
+		this.esql.getIdAllocator().reseed();
+		this.esql.getBillingAggregate().rebuild();
+		this.esql.getServiceCounter().reseed();
+		this.esql.getKeyCache().clear();
+		this.esql.getRequestBitmap().rebuild();
+		System.out.printf("load finished in %.2f s%n", (System.nanoTime() - start) / 1e9);
+	}
+
+	private void copy(TableFile t) throws Exception {
+		File f = new File(this.dir, t.file);
+		try (PooledConnection conn = this.esql.getPool().acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			//the CSV dates are written month first, e.g. 10/22/2016 00:00
+			stmt.execute("SET DateStyle = 'ISO, MDY'");
+			stmt.close();
+
+			CopyManager copy = conn.getConnection().unwrap(PGConnection.class).getCopyAPI();
+			long start = System.nanoTime();
+			long rows;
+			InputStream is = new BufferedInputStream(new FileInputStream(f), 1 << 16);
+			try {
+				rows = copy.copyIn("COPY " + t.table + " (" + t.columns + ") FROM STDIN WITH (FORMAT csv)", is, 1 << 16);
+			} finally {
+				is.close();
+			}
+			double secs = (System.nanoTime() - start) / 1e9;
+			System.out.printf("%-16s %10d rows %8.2f s %12.0f rows/s%n", t.table, rows, secs, rows / Math.max(secs, 1e-9));
+
+			stmt = conn.getConnection().createStatement();
+			stmt.execute("RESET DateStyle");
+			stmt.close();
+		}
+	}
+
+	/*
+	 * Drops foreign keys, then primary/unique constraints, then the remaining
+	 * indexes of the shop tables.  Returns the DDL that recreates them in the
+	 * opposite order.
+	 */
+	private List<String> dropConstraintsAndIndexes() throws SQLException {
+		List<String> keys = new ArrayList<String>();
+		List<String> foreign = new ArrayList<String>();
+		List<String> indexes = new ArrayList<String>();
+		List<String> drops = new ArrayList<String>();
+		String relids = "(" + regclassList() + ")";
+
+		try (PooledConnection conn = this.esql.getPool().acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(
+					"SELECT conrelid::regclass::text, conname, contype, pg_get_constraintdef(oid) FROM pg_constraint" +
+					" WHERE conrelid IN " + relids + " AND contype IN ('p', 'u', 'f')" +
+					" ORDER BY contype = 'f' DESC");
+				while (rs.next()) {
+					String alter = "ALTER TABLE " + rs.getString(1);
+					String name = quoteIdent(rs.getString(2));
+					drops.add(alter + " DROP CONSTRAINT " + name);
+					String add = alter + " ADD CONSTRAINT " + name + " " + rs.getString(4);
+					if ("f".equals(rs.getString(3)))
+						foreign.add(add);
+					else
+						keys.add(add);
+				}//end while
+				rs.close();
+
+				rs = stmt.executeQuery(
+					"SELECT i.indexrelid::regclass::text, pg_get_indexdef(i.indexrelid) FROM pg_index i" +
+					" WHERE i.indrelid IN " + relids +
+					" AND NOT EXISTS (SELECT 1 FROM pg_constraint c WHERE c.conindid = i.indexrelid)");
+				while (rs.next()) {
+					drops.add("DROP INDEX " + rs.getString(1));
+					indexes.add(rs.getString(2));
+				}//end while
+				rs.close();
+
+				for (String ddl : drops)
+					stmt.execute(ddl);
+			} finally {
+				stmt.close();
+			}
+		}
+
+		List<String> rebuild = new ArrayList<String>(keys);
+		rebuild.addAll(indexes);
+		rebuild.addAll(foreign);
+		return rebuild;
+	}
+
+	/*
+	 * Creates the month partitions of every loaded row still in a default
+	 * partition; create_month_partitions moves the rows into them (V6).
+	 * Returns the number of partitions created.
+	 */
+	private int partitionLoadedMonths() throws SQLException {
+		int created = 0;
+		try (PooledConnection conn = this.esql.getPool().acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				for (String table : PARTITIONED) {
+					ResultSet rs = stmt.executeQuery("SELECT create_month_partitions('" + table +
+						"', min(date)::date, max(date)::date) FROM " + table + "_default HAVING count(*) > 0");
+					if (rs.next())
+						created += rs.getInt(1);
+					rs.close();
+				}//end for
+			} finally {
+				stmt.close();
+			}
+		}
+		return created;
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (PooledConnection conn = this.esql.getPool().acquire()) {
+			Connection c = conn.getConnection();
+			Statement stmt = c.createStatement();
+			try {
+				stmt.execute(sql);
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	private static String tableList() {
+		StringBuilder sb = new StringBuilder();
+		for (TableFile t : TABLES) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append(t.table);
+		}
+		return sb.toString();
+	}
+
+	private static String regclassList() {
+		StringBuilder sb = new StringBuilder();
+		for (TableFile t : TABLES) {
+			if (sb.length() > 0) sb.append(", ");
+			sb.append("'").append(t.table.toLowerCase()).append("'::regclass");
+		}
+		return sb.toString();
+	}
+
+	private static String quoteIdent(String name) {
+		return "\"" + name.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,662 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Offline, in-memory copy of the shop data for what-if analysis.  Reports
+ * 6-10 are answered from it without a database connection.
+ *
+ * Every table is stored by column: numbers in int arrays, strings as codes
+ * into a dictionary that keeps each distinct value once.  Customer ids and
+ * request rids have open-addressing hash indexes; VINs share one dictionary
+ * across Car, Owns and Service_Request, so the VIN code indexes straight into
+ * carByVin.  The reports scan and join these arrays as fork-join tasks that
+ * split the rows among the common pool.
+ *
+ * The snapshot is read from a directory of CSV files in the layout of
+ * code/data, through memory-mapped windows.  An export of the live tables,
+ * in the same layout, is written by export() with COPY ... TO STDOUT.
+ *
+ *   java -cp lib/*:bin/ ColumnarSnapshot <csv dir> <report> [k]
+ *
+ */
+public class ColumnarSnapshot {
+	//width of the CHAR(32) name columns, padded on output as PostgreSQL does
+	static final int NAME_WIDTH = 32;
+	static final String[] FILES = { "customer.csv", "car.csv", "owns.csv", "service_request.csv", "closed_request.csv" };
+
+	/**
+	 * Distinct strings of one or more columns, numbered in order of first use.
+	 */
+	static final class Dictionary {
+		private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+		private String[] values = new String[1024];
+		private int size = 0;
+
+		int encode(String s) {
+			Integer code = this.codes.get(s);
+			if (code != null)
+				return code;
+			if (this.size == this.values.length)
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			this.values[this.size] = s;
+			this.codes.put(s, this.size);
+			return this.size++;
+		}
+
+		int lookup(String s) {
+			Integer code = this.codes.get(s);
+			return code == null ? -1 : code;
+		}
+
+		String decode(int code) {
+			return this.values[code];
+		}
+
+		int size() {
+			return this.size;
+		}
+	}
+
+	/**
+	 * Growable int array used while loading.
+	 */
+	static final class IntColumn {
+		private int[] a = new int[1024];
+		private int n = 0;
+
+		void add(int v) {
+			if (this.n == this.a.length)
+				this.a = Arrays.copyOf(this.a, this.n * 2);
+			this.a[this.n++] = v;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(this.a, this.n);
+		}
+	}
+
+	/**
+	 * Growable long array for scan results, merged by concatenation.
+	 */
+	static final class LongList {
+		long[] a = new long[16];
+		int n = 0;
+
+		void add(long v) {
+			if (this.n == this.a.length)
+				this.a = Arrays.copyOf(this.a, this.n * 2);
+			this.a[this.n++] = v;
+		}
+
+		LongList addAll(LongList other) {
+			if (this.n + other.n > this.a.length)
+				this.a = Arrays.copyOf(this.a, Math.max(this.a.length * 2, this.n + other.n));
+			System.arraycopy(other.a, 0, this.a, this.n, other.n);
+			this.n += other.n;
+			return this;
+		}
+
+		long[] sorted() {
+			long[] s = Arrays.copyOf(this.a, this.n);
+			Arrays.sort(s);
+			return s;
+		}
+	}
+
+	/**
+	 * Open-addressing hash index from a non-negative int key to the first
+	 * row holding it.
+	 */
+	static final class IntIndex {
+		private final int[] keys;
+		private final int[] rows;
+		private final int mask;
+
+		IntIndex(int[] column) {
+			int capacity = Integer.highestOneBit(Math.max(2, column.length * 2) - 1) << 1;
+			this.keys = new int[capacity];
+			this.rows = new int[capacity];
+			this.mask = capacity - 1;
+			Arrays.fill(this.keys, -1);
+			for (int row = 0; row < column.length; ++row) {
+				int slot = slot(column[row]);
+				while (this.keys[slot] != -1 && this.keys[slot] != column[row])
+					slot = (slot + 1) & this.mask;
+				if (this.keys[slot] == -1) {
+					this.keys[slot] = column[row];
+					this.rows[slot] = row;
+				}
+			}
+		}
+
+		/**
+		 * @return the row with this key, or -1
+		 */
+		int get(int key) {
+			for (int slot = slot(key); this.keys[slot] != -1; slot = (slot + 1) & this.mask)
+				if (this.keys[slot] == key)
+					return this.rows[slot];
+			return -1;
+		}
+
+		private int slot(int key) {
+			int h = key * 0x9E3779B9;
+			return (h ^ (h >>> 16)) & this.mask;
+		}
+	}
+
+	/**
+	 * Work over a range of rows, split in halves until small enough.
+	 */
+	interface Partition<R> {
+		R scan(int from, int to);
+
+		R merge(R left, R right);
+	}
+
+	static final class Scan<R> extends RecursiveTask<R> {
+		private static final long serialVersionUID = 1L;
+		private final Partition<R> p;
+		private final int from;
+		private final int to;
+		private final int grain;
+
+		Scan(Partition<R> p, int from, int to, int grain) {
+			this.p = p;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		protected R compute() {
+			if (this.to - this.from <= this.grain)
+				return this.p.scan(this.from, this.to);
+			int mid = (this.from + this.to) >>> 1;
+			Scan<R> left = new Scan<R>(this.p, this.from, mid, this.grain);
+			left.fork();
+			R right = new Scan<R>(this.p, mid, this.to, this.grain).compute();
+			return this.p.merge(left.join(), right);
+		}
+	}
+
+	//strings: first and last names; VINs; everything else
+	final Dictionary names = new Dictionary();
+	final Dictionary vins = new Dictionary();
+	final Dictionary text = new Dictionary();
+
+	int[] customerId, customerFname, customerLname, customerPhone, customerAddress;
+	IntIndex customerById;
+
+	int[] carVin, carMake, carModel, carYear;
+	//car row by VIN code, -1 for VINs without a Car row
+	int[] carByVin;
+
+	int[] ownsId, ownsCustomer, ownsVin;
+
+	int[] requestRid, requestCustomer, requestVin, requestDate, requestOdometer, requestComplain;
+	IntIndex requestByRid;
+
+	int[] closedWid, closedRid, closedMid, closedDate, closedComment, closedBill;
+
+	private ColumnarSnapshot() {
+	}
+
+	/**
+	 * Method to load a snapshot from CSV files laid out as in code/data.
+	 *
+	 * @param dir the directory holding the five CSV files
+	 * @return the snapshot
+	 * @throws java.io.IOException when a file cannot be read or parsed
+	 */
+	public static ColumnarSnapshot load(File dir) throws IOException {
+		final ColumnarSnapshot s = new ColumnarSnapshot();
+		final IntColumn[] c = columns(5);
+		MappedCsv.read(new File(dir, "customer.csv"), new MappedCsv.Sink() {
+			public void record(MappedCsv r) throws IOException {
+				c[0].add(r.getInt(0));
+				c[1].add(s.names.encode(r.getChar(1)));
+				c[2].add(s.names.encode(r.getChar(2)));
+				c[3].add(s.text.encode(r.getChar(3)));
+				c[4].add(s.text.encode(r.getChar(4)));
+			}
+		});
+		s.customerId = c[0].toArray();
+		s.customerFname = c[1].toArray();
+		s.customerLname = c[2].toArray();
+		s.customerPhone = c[3].toArray();
+		s.customerAddress = c[4].toArray();
+		s.customerById = new IntIndex(s.customerId);
+
+		final IntColumn[] car = columns(4);
+		MappedCsv.read(new File(dir, "car.csv"), new MappedCsv.Sink() {
+			public void record(MappedCsv r) throws IOException {
+				car[0].add(s.vins.encode(r.getString(0)));
+				car[1].add(s.text.encode(r.getString(1)));
+				car[2].add(s.text.encode(r.getString(2)));
+				car[3].add(r.getInt(3));
+			}
+		});
+		s.carVin = car[0].toArray();
+		s.carMake = car[1].toArray();
+		s.carModel = car[2].toArray();
+		s.carYear = car[3].toArray();
+
+		final IntColumn[] owns = columns(3);
+		MappedCsv.read(new File(dir, "owns.csv"), new MappedCsv.Sink() {
+			public void record(MappedCsv r) throws IOException {
+				owns[0].add(r.getInt(0));
+				owns[1].add(r.getInt(1));
+				owns[2].add(s.vins.encode(r.getString(2)));
+			}
+		});
+		s.ownsId = owns[0].toArray();
+		s.ownsCustomer = owns[1].toArray();
+		s.ownsVin = owns[2].toArray();
+
+		final IntColumn[] sr = columns(6);
+		MappedCsv.read(new File(dir, "service_request.csv"), new MappedCsv.Sink() {
+			public void record(MappedCsv r) throws IOException {
+				sr[0].add(r.getInt(0));
+				sr[1].add(r.getInt(1));
+				sr[2].add(s.vins.encode(r.getString(2)));
+				sr[3].add(r.getDate(3));
+				sr[4].add(r.getInt(4));
+				sr[5].add(s.text.encode(r.getString(5)));
+			}
+		});
+		s.requestRid = sr[0].toArray();
+		s.requestCustomer = sr[1].toArray();
+		s.requestVin = sr[2].toArray();
+		s.requestDate = sr[3].toArray();
+		s.requestOdometer = sr[4].toArray();
+		s.requestComplain = sr[5].toArray();
+		s.requestByRid = new IntIndex(s.requestRid);
+
+		final IntColumn[] cr = columns(6);
+		MappedCsv.read(new File(dir, "closed_request.csv"), new MappedCsv.Sink() {
+			public void record(MappedCsv r) throws IOException {
+				cr[0].add(r.getInt(0));
+				cr[1].add(r.getInt(1));
+				cr[2].add(r.getInt(2));
+				cr[3].add(r.getDate(3));
+				cr[4].add(s.text.encode(r.getString(4)));
+				cr[5].add(r.getInt(5));
+			}
+		});
+		s.closedWid = cr[0].toArray();
+		s.closedRid = cr[1].toArray();
+		s.closedMid = cr[2].toArray();
+		s.closedDate = cr[3].toArray();
+		s.closedComment = cr[4].toArray();
+		s.closedBill = cr[5].toArray();
+
+		//VINs seen only in Owns or Service_Request have no car row
+		s.carByVin = new int[s.vins.size()];
+		Arrays.fill(s.carByVin, -1);
+		for (int row = s.carVin.length - 1; row >= 0; --row)
+			s.carByVin[s.carVin[row]] = row;
+		return s;
+	}
+
+	private static IntColumn[] columns(int n) {
+		IntColumn[] c = new IntColumn[n];
+		for (int i = 0; i < n; ++i)
+			c[i] = new IntColumn();
+		return c;
+	}
+
+	/**
+	 * Method to export the five tables as CSV files that load() reads, with
+	 * COPY ... TO STDOUT.
+	 *
+	 * @param pool the pool of the live database
+	 * @param dir the directory to write, created if needed
+	 * @throws Exception when a table cannot be exported
+	 */
+	public static void export(ConnectionPool pool, File dir) throws Exception {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir.getPath());
+		try (PooledConnection conn = pool.acquire()) {
+			//one snapshot for all five tables, dates written month first like code/data
+			conn.getConnection().setAutoCommit(false);
+			Statement stmt = conn.getConnection().createStatement();
+			stmt.execute("SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+			stmt.execute("SET LOCAL DateStyle = 'ISO, MDY'");
+			stmt.close();
+			for (BulkLoader.TableFile t : BulkLoader.TABLES) {
+				if (!Arrays.asList(FILES).contains(t.file))
+					continue;
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, t.file)), 1 << 16);
+				try {
+					long rows = conn.getConnection().unwrap(PGConnection.class).getCopyAPI()
+						.copyOut("COPY " + t.table + " (" + t.columns + ") TO STDOUT WITH (FORMAT csv)", out);
+					System.out.printf("%-16s %10d rows%n", t.table, rows);
+				} finally {
+					out.close();
+				}
+			}
+			conn.commit();
+		}
+	}
+
+	/**
+	 * Method to compare every report with its SQL version on a live
+	 * database.  Rows are compared as multisets, since ties may be ordered
+	 * differently; report 9 compares the counts at each rank.
+	 *
+	 * @param esql the client to run the SQL reports on
+	 * @param k how many cars to compare for report 9
+	 * @return null when all agree, otherwise a description of the first mismatch
+	 * @throws Exception when a report fails
+	 */
+	public String verify(MechanicShop esql, int k) throws Exception {
+		for (int report : ReportRunner.REPORTS) {
+			List<List<String>> expected = report == 9
+				? esql.executeQueryAndReturnResult(MechanicShop.reportQuery(report), k)
+				: esql.executeQueryAndReturnResult(MechanicShop.reportQuery(report));
+			final List<List<String>> actual = new ArrayList<List<String>>();
+			report(report, k, new RowHandler() {
+				public void handle(Row row) throws SQLException {
+					List<String> cells = new ArrayList<String>();
+					for (int i = 1; i <= row.getColumnCount(); ++i)
+						cells.add(row.getString(i));
+					actual.add(cells);
+				}
+			});
+			if (expected.size() != actual.size())
+				return "report " + report + ": SQL returned " + expected.size() + " rows, snapshot " + actual.size();
+			if (report == 9) {
+				for (int i = 0; i < actual.size(); ++i)
+					if (!expected.get(i).get(4).equals(actual.get(i).get(4)))
+						return "report 9 rank " + (i + 1) + ": SQL count " + expected.get(i).get(4) + ", snapshot " + actual.get(i).get(4);
+				continue;
+			}
+			List<String> want = new ArrayList<String>();
+			for (List<String> r : expected)
+				want.add(String.join("\t", r));
+			List<String> got = new ArrayList<String>();
+			for (List<String> r : actual)
+				got.add(String.join("\t", r));
+			Collections.sort(want);
+			Collections.sort(got);
+			for (int i = 0; i < want.size(); ++i)
+				if (!want.get(i).equals(got.get(i)))
+					return "report " + report + ": SQL has [" + want.get(i) + "], snapshot [" + got.get(i) + "]";
+		}
+		return null;
+	}
+
+	/**
+	 * Offline entry point: loads a CSV directory and renders one report with
+	 * the mechanicshop.format, .output and .page.size settings.
+	 *
+	 * @param args the CSV directory, the report number and k for report 9
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: java [-classpath <classpath>] ColumnarSnapshot <csv dir> <6-10> [<k>]");
+			return;
+		}
+		long start = System.nanoTime();
+		ColumnarSnapshot s = load(new File(args[0]));
+		long loaded = System.nanoTime();
+		ResultRenderer renderer = MechanicShop.createRenderer();
+		long rows;
+		try {
+			rows = s.report(Integer.parseInt(args[1]), args.length > 2 ? Integer.parseInt(args[2]) : 10, renderer);
+		} catch (ResultRenderer.Stopped e) {
+			rows = -1;
+		} finally {
+			renderer.finish();
+		}
+		System.err.printf("%d rows; loaded in %.1f ms, answered in %.1f ms%n",
+			rows, (loaded - start) / 1e6, (System.nanoTime() - loaded) / 1e6);
+	}
+
+	private <R> R scan(int rows, Partition<R> p) {
+		int grain = Math.max(4096, rows / (4 * ForkJoinPool.getCommonPoolParallelism()) + 1);
+		return ForkJoinPool.commonPool().invoke(new Scan<R>(p, 0, rows, grain));
+	}
+
+	private static String pad(String s) {
+		if (s.length() >= NAME_WIDTH)
+			return s;
+		StringBuilder sb = new StringBuilder(NAME_WIDTH).append(s);
+		while (sb.length() < NAME_WIDTH)
+			sb.append(' ');
+		return sb.toString();
+	}
+
+	/**
+	 * Method to answer one of the menu reports (options 6-10) with the same
+	 * columns and order as the SQL version.  Ties may come out in a different
+	 * order.
+	 *
+	 * @param report the menu number of the report
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @param handler receives every row, in order
+	 * @return the number of rows handed over
+	 * @throws Exception when the handler fails
+	 */
+	public long report(int report, int k, RowHandler handler) throws Exception {
+		switch (report) {
+			case 6: return lowBills(handler);
+			case 7: return manyCars(handler);
+			case 8: return oldCarsHighMileage(handler);
+			case 9: return mostServiced(k, handler);
+			case 10: return totalBills(handler);
+			default:
+				throw new IllegalArgumentException("No report " + report);
+		}
+	}
+
+	/*
+	 * Report 6: closed requests billed under 100 and their customer, highest
+	 * bill first.  Matches are packed as bill << 32 | customer row.
+	 */
+	private long lowBills(RowHandler handler) throws Exception {
+		LongList found = scan(this.closedBill.length, new Partition<LongList>() {
+			public LongList scan(int from, int to) {
+				LongList out = new LongList();
+				for (int i = from; i < to; ++i) {
+					if (closedBill[i] >= BillingAggregate.LOW_BILL)
+						continue;
+					int sr = requestByRid.get(closedRid[i]);
+					int cust = sr < 0 ? -1 : customerById.get(requestCustomer[sr]);
+					if (cust >= 0)
+						out.add((long) closedBill[i] << 32 | cust);
+				}
+				return out;
+			}
+
+			public LongList merge(LongList left, LongList right) {
+				return left.addAll(right);
+			}
+		});
+		long[] sorted = found.sorted();
+		Row row = new Row("id", "fname", "lname", "bill");
+		for (int i = sorted.length - 1; i >= 0; --i) {
+			int cust = (int) sorted[i];
+			handler.handle(row.next(this.customerId[cust], pad(this.names.decode(this.customerFname[cust])),
+				pad(this.names.decode(this.customerLname[cust])), (int) (sorted[i] >>> 32)));
+		}
+		return sorted.length;
+	}
+
+	/*
+	 * Report 7: customers owning more than 20 cars.  Each leaf counts into
+	 * its own array of customer rows; the arrays are summed on merge.
+	 */
+	private long manyCars(RowHandler handler) throws Exception {
+		final int customers = this.customerId.length;
+		int[] owned = scan(this.ownsCustomer.length, new Partition<int[]>() {
+			public int[] scan(int from, int to) {
+				int[] count = new int[customers];
+				for (int i = from; i < to; ++i) {
+					int cust = customerById.get(ownsCustomer[i]);
+					if (cust >= 0)
+						++count[cust];
+				}
+				return count;
+			}
+
+			public int[] merge(int[] left, int[] right) {
+				for (int i = 0; i < left.length; ++i)
+					left[i] += right[i];
+				return left;
+			}
+		});
+		Row row = new Row("id", "fname", "lname", "count");
+		long n = 0;
+		for (int cust = 0; cust < customers; ++cust) {
+			if (owned[cust] <= 20)
+				continue;
+			handler.handle(row.next(this.customerId[cust], pad(this.names.decode(this.customerFname[cust])),
+				pad(this.names.decode(this.customerLname[cust])), (long) owned[cust]));
+			++n;
+		}
+		return n;
+	}
+
+	/*
+	 * Report 8: requests past 50000 miles on cars built before 1995, highest
+	 * odometer first.  Matches are packed as odometer << 32 | request row.
+	 */
+	private long oldCarsHighMileage(RowHandler handler) throws Exception {
+		LongList found = scan(this.requestOdometer.length, new Partition<LongList>() {
+			public LongList scan(int from, int to) {
+				LongList out = new LongList();
+				for (int i = from; i < to; ++i) {
+					if (requestOdometer[i] <= 50000)
+						continue;
+					int car = carByVin[requestVin[i]];
+					if (car >= 0 && carYear[car] < 1995)
+						out.add((long) requestOdometer[i] << 32 | i);
+				}
+				return out;
+			}
+
+			public LongList merge(LongList left, LongList right) {
+				return left.addAll(right);
+			}
+		});
+		long[] sorted = found.sorted();
+		Row row = new Row("vin", "year", "make", "model", "odometer");
+		for (int i = sorted.length - 1; i >= 0; --i) {
+			int car = this.carByVin[this.requestVin[(int) sorted[i]]];
+			handler.handle(row.next(this.vins.decode(this.carVin[car]), this.carYear[car],
+				this.text.decode(this.carMake[car]), this.text.decode(this.carModel[car]), (int) (sorted[i] >>> 32)));
+		}
+		return sorted.length;
+	}
+
+	/*
+	 * Report 9: the k cars with the most requests.  Requests are counted per
+	 * VIN code, then the cars are ranked by count << 32 | car row.
+	 */
+	private long mostServiced(int k, RowHandler handler) throws Exception {
+		final int vinCount = this.vins.size();
+		int[] serviced = scan(this.requestVin.length, new Partition<int[]>() {
+			public int[] scan(int from, int to) {
+				int[] count = new int[vinCount];
+				for (int i = from; i < to; ++i)
+					++count[requestVin[i]];
+				return count;
+			}
+
+			public int[] merge(int[] left, int[] right) {
+				for (int i = 0; i < left.length; ++i)
+					left[i] += right[i];
+				return left;
+			}
+		});
+		LongList ranked = new LongList();
+		for (int car = 0; car < this.carVin.length; ++car) {
+			//a VIN listed twice in Car joins each of its rows, as in SQL; count it once here
+			if (this.carByVin[this.carVin[car]] != car)
+				continue;
+			int count = serviced[this.carVin[car]];
+			if (count > 0)
+				ranked.add((long) count << 32 | car);
+		}
+		long[] sorted = ranked.sorted();
+		Row row = new Row("car_vin", "year", "make", "model", "count");
+		long n = 0;
+		for (int i = sorted.length - 1; i >= 0 && n < k; --i, ++n) {
+			int car = (int) sorted[i];
+			handler.handle(row.next(this.vins.decode(this.carVin[car]), this.carYear[car],
+				this.text.decode(this.carMake[car]), this.text.decode(this.carModel[car]), sorted[i] >>> 32));
+		}
+		return n;
+	}
+
+	/*
+	 * Report 10: total bill per customer, highest first.  Leaves sum into
+	 * arrays of customer rows that are added up on merge.
+	 */
+	private long totalBills(RowHandler handler) throws Exception {
+		final int customers = this.customerId.length;
+		final long[] total = scan(this.closedBill.length, new Partition<long[]>() {
+			public long[] scan(int from, int to) {
+				long[] sum = new long[customers];
+				for (int i = from; i < to; ++i) {
+					int sr = requestByRid.get(closedRid[i]);
+					int cust = sr < 0 ? -1 : customerById.get(requestCustomer[sr]);
+					if (cust >= 0)
+						sum[cust] += closedBill[i];
+				}
+				return sum;
+			}
+
+			public long[] merge(long[] left, long[] right) {
+				for (int i = 0; i < left.length; ++i)
+					left[i] += right[i];
+				return left;
+			}
+		});
+		//bills are positive, so a zero total means no closed request
+		List<Integer> order = new ArrayList<Integer>();
+		for (int cust = 0; cust < customers; ++cust)
+			if (total[cust] != 0)
+				order.add(cust);
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Long.compare(total[b], total[a]);
+			}
+		});
+		Row row = new Row("fname", "lname", "sum");
+		for (int cust : order)
+			handler.handle(row.next(pad(this.names.decode(this.customerFname[cust])),
+				pad(this.names.decode(this.customerLname[cust])), total[cust]));
+		return order.size();
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical PostgreSQL connections.  At most maxSize
+ * connections are ever open; callers that find the pool exhausted wait up to
+ * the acquire timeout for one to be handed back.  Idle connections are reused
+ * most-recently-released first so the hot ones keep their statement caches.
+ *
+ */
+public class ConnectionPool {
+	private final String url;
+	private final String user;
+	private final String passwd;
+	private final int maxSize;
+	private final int statementCacheSize;
+	private final long acquireTimeoutMillis;
+
+	//one permit per connection that may be leased out
+	private final Semaphore permits;
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+	private volatile boolean closed = false;
+
+	//pool counters: a hit reuses an idle connection, a miss opens a new one
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	//statement cache counters, summed over every connection of the pool
+	final AtomicLong statementHits = new AtomicLong();
+	final AtomicLong statementMisses = new AtomicLong();
+	final AtomicLong statementEvictions = new AtomicLong();
+
+	public ConnectionPool(String url, String user, String passwd, int maxSize, int statementCacheSize, long acquireTimeoutMillis) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("pool size must be at least 1");
+		this.url = url;
+		this.user = user;
+		this.passwd = passwd;
+		this.maxSize = maxSize;
+		this.statementCacheSize = statementCacheSize;
+		this.acquireTimeoutMillis = acquireTimeoutMillis;
+		this.permits = new Semaphore(maxSize, true);
+	}
+
+	/**
+	 * Method to lease a connection from the pool.  The caller must close the
+	 * returned connection, which hands it back to the pool.
+	 *
+	 * @return a leased connection
+	 * @throws java.sql.SQLException when the pool is closed, exhausted past the
+	 *         timeout, or a new physical connection cannot be opened
+	 */
+	public PooledConnection acquire() throws SQLException {
+		if (this.closed)
+			throw new SQLException("Connection pool is closed");
+		if (!this.permits.tryAcquire()) {
+			this.waits.incrementAndGet();
+			boolean granted;
+			try {
+				granted = this.permits.tryAcquire(this.acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted waiting for a pooled connection", e);
+			}
+			if (!granted) {
+				this.timeouts.incrementAndGet();
+				//SQLSTATE 53300 (too_many_connections), so callers can tell saturation from failure
+				throw new SQLException("Timed out after " + this.acquireTimeoutMillis + " ms waiting for a pooled connection", "53300");
+			}
+		}//end if
+
+		PooledConnection conn;
+		while ((conn = this.idle.pollFirst()) != null) {
+			if (conn.isUsable()) {
+				this.hits.incrementAndGet();
+				conn.lease();
+				return conn;
+			}
+			conn.closePhysical();
+		}//end while
+
+		try {
+			Connection physical = DriverManager.getConnection(this.url, this.user, this.passwd);
+			this.misses.incrementAndGet();
+			conn = new PooledConnection(this, physical, this.statementCacheSize);
+			conn.lease();
+			return conn;
+		} catch (SQLException e) {
+			this.permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Called by PooledConnection.close() to return a leased connection.
+	 */
+	void release(PooledConnection conn) {
+		if (this.closed || !conn.isUsable())
+			conn.closePhysical();
+		else
+			this.idle.offerFirst(conn);
+		this.permits.release();
+	}
+
+	public String getUrl() {
+		return this.url;
+	}
+
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	public int getActiveCount() {
+		return this.maxSize - this.permits.availablePermits();
+	}
+
+	public int getIdleCount() {
+		return this.idle.size();
+	}
+
+	public long getHits() { return this.hits.get(); }
+	public long getMisses() { return this.misses.get(); }
+	public long getWaits() { return this.waits.get(); }
+	public long getTimeouts() { return this.timeouts.get(); }
+	public long getStatementHits() { return this.statementHits.get(); }
+	public long getStatementMisses() { return this.statementMisses.get(); }
+	public long getStatementEvictions() { return this.statementEvictions.get(); }
+
+	/**
+	 * @return a one-line summary of the pool and statement cache counters
+	 */
+	public String stats() {
+		return "pool[size=" + this.maxSize +
+			", active=" + getActiveCount() +
+			", idle=" + getIdleCount() +
+			", hits=" + getHits() +
+			", misses=" + getMisses() +
+			", waits=" + getWaits() +
+			", timeouts=" + getTimeouts() +
+			"] statements[hits=" + getStatementHits() +
+			", misses=" + getStatementMisses() +
+			", evictions=" + getStatementEvictions() + "]";
+	}
+
+	/**
+	 * Method to close every idle connection.  Connections still leased are
+	 * closed as they are handed back.
+	 */
+	public void close() {
+		this.closed = true;
+		PooledConnection conn;
+		while ((conn = this.idle.pollFirst()) != null)
+			conn.closePhysical();
+	}
+}
@@ -0,0 +1,410 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a synthetic data set in the CSV layout of code/data, scaled up by
+ * an integer factor: scale N has 500N customers, 250N mechanics, 5000N cars
+ * and ownerships and 30000N service requests, e.g. scale 334 for about
+ * 10 million requests.  The output goes to <out dir>/sf<N>, where the
+ * benchmarks look for it.
+ *
+ * Every value of a row is drawn from a random generator seeded with the
+ * data set seed, the table and the row number, so a row does not depend on
+ * the rows before it.  That makes the output identical for a given seed and
+ * settings however many threads write it: each file is cut into chunks of
+ * rows, the chunks are formatted in parallel, and they are appended in order
+ * through a bounded window, so memory stays at a few chunks per thread.
+ *
+ * Skew is set with system properties (defaults resemble code/data):
+ *
+ *   mechanicshop.gen.seed          166   data set seed
+ *   mechanicshop.gen.threads       all cores
+ *   mechanicshop.gen.fleet.share   0.022 share of customers owning a fleet
+ *   mechanicshop.gen.fleet.min     21    cars per fleet, at least
+ *   mechanicshop.gen.fleet.max     50    cars per fleet, at most
+ *   mechanicshop.gen.hot.cars      0.01  share of cars that are hot
+ *   mechanicshop.gen.hot.share     0.10  share of requests for hot cars
+ *   mechanicshop.gen.low.bills     0.05  share of bills under 100
+ *   mechanicshop.gen.old.cars      0.16  share of cars built before 1995
+ *   mechanicshop.gen.closed.share  1.0   share of requests that are closed
+ *   mechanicshop.gen.months        12    months of requests from January 2016
+ *
+ * Fleet customers take the lowest ids; the cars left over are shared evenly
+ * among the other customers.  Every request is for a car its customer owns,
+ * and a closed request has wid = rid and closes 0-30 days after it opened.
+ *
+ *   java -cp lib/*:bin/ DataGenerator <scale> [<out dir>]
+ *
+ */
+public class DataGenerator {
+	//rows per table at scale 1, as in code/data
+	static final int CUSTOMERS = 500;
+	static final int MECHANICS = 250;
+	static final int CARS = 5000;
+	static final int REQUESTS = 30000;
+	//rows formatted per task
+	static final int CHUNK = 8192;
+	static final LocalDate FIRST_DAY = LocalDate.of(2016, 1, 1);
+
+	static final String[] FIRST_NAMES = {
+		"Aaron", "Abbey", "Adele", "Alberto", "Alexandria", "Allan", "Amalia", "Annette", "Antoine", "Armand",
+		"Blythe", "Bruno", "Carmen", "Cedric", "Delia", "Dorian", "Elena", "Emmett", "Farah", "Floyd",
+		"Gail", "Hector", "Imelda", "Jasper", "Kathe", "Lionel", "Marta", "Nolan", "Odette", "Rory",
+		"Selma", "Tobias", "Ursula", "Vernon", "Wyatt", "Yolanda" };
+	static final String[] LAST_NAMES = {
+		"Accardo", "Agbayani", "Allard", "Alves", "Archuleta", "Armstrong", "Bachman", "Barbosa", "Benedetti", "Berner",
+		"Bernal", "Blum", "Cuyler", "Dollison", "Enderle", "Fairbanks", "Gaines", "Holcomb", "Ingram", "Jessup",
+		"Kowalski", "Lindqvist", "Mayfield", "Nakamura", "Okafor", "Pruitt", "Quintero", "Ruoff", "Santacruz", "Scarlett",
+		"Thibodeaux", "Umstead", "Villalobos", "Whitcomb", "Yarbrough", "Zelinski" };
+	static final String[] STREETS = {
+		"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Young Avenue", "East Warren St.", "Spruce Dr.",
+		"Golf Ave.", "Shub Farm St.", "W. Greystone Dr.", "Edgewood Ave.", "Berkshire Street", "Rose St.",
+		"Court Lane", "Lake Dr.", "Brickyard Ave.", "Second Rd.", "Strawberry Drive", "3rd St." };
+	static final String[] CITIES = {
+		"Melbourne", "Baton Rouge", "Cockeysville", "Oak Forest", "New Brunswick", "Lanham", "Rocky Mount",
+		"Appleton", "Jamaica", "Newtown", "Fishers", "Brentwood", "Hendersonville", "Zeeland", "Flemington",
+		"Glendora", "Neenah", "Dublin", "Latrobe", "Greenfield" };
+	static final String[] MAKES = {
+		"Superformance", "Morgan", "Campagna", "Saturn", "Marcos", "MB Roadcars", "Caerham", "Alpina", "Volvo",
+		"Toyota", "TVR", "Smart", "Skoda", "Shelby", "Proton", "Pagani", "Mini", "Humer", "Cadillac", "Ariel",
+		"Westfield", "Vauxhal", "Suzuki", "Ssangyong", "Seat", "Saab", "Jaguar", "Lamborghini", "Ford" };
+	static final String[] MODELS = {
+		"Impreza", "C1", "C2", "C3", "C4", "C5", "Elentra", "Sunny", "DB8", "Prius", "Summer", "RX5", "M1", "M2",
+		"M5", "Jimny", "Polo", "Passat", "Cooper", "Corolla" };
+	static final String[] COMPLAINTS = {
+		"I cannot hear the horn", "Change oil", "Replace windows", "I cannot hear the radio",
+		"Passenger side is always empty", "The wheel does not turn right",
+		"It came back from space and it makes a funny noise", "Burns too much gas", "It is not fast enough",
+		"No brakes", "Needs new parachute", "Add rockets", "It smells funny", "The wings do not work" };
+	static final String[] COMMENTS = {
+		"Needs new Tires", "Breaks", "Made it faster", "We changed the color", "Change Roof", "I do not know",
+		"Buy a new Car", "We lost your car", "Changed Oil", "You are missing an engine", "This is a bicycle",
+		"Good Luck", "Fixed!!!", "Breaks are ok" };
+
+	/*
+	 * One output file.  row() appends row i, or nothing for a row the table
+	 * leaves out, and returns whether it wrote one.
+	 */
+	abstract static class Table {
+		final String file;
+		final long rows;
+
+		Table(String file, long rows) {
+			this.file = file;
+			this.rows = rows;
+		}
+
+		abstract boolean row(long i, StringBuilder sb);
+	}
+
+	private final int scale;
+	private final long seed;
+	private final int threads;
+	private final double hotShare;
+	private final double lowBills;
+	private final double oldCars;
+	private final double closedShare;
+	private final int days;
+
+	private final int customers;
+	private final int mechanics;
+	private final int cars;
+	private final int requests;
+	//fleetEnd[f] is one past the last car of fleet customer f
+	private final int[] fleetEnd;
+	private final int fleetCars;
+	private final int hotCars;
+
+	public DataGenerator(int scale) {
+		if (scale < 1)
+			throw new IllegalArgumentException("The scale factor must be at least 1");
+		this.scale = scale;
+		this.seed = Long.getLong("mechanicshop.gen.seed", 166L);
+		this.threads = Integer.getInteger("mechanicshop.gen.threads", Runtime.getRuntime().availableProcessors());
+		this.hotShare = share("mechanicshop.gen.hot.share", 0.10);
+		this.lowBills = share("mechanicshop.gen.low.bills", 0.05);
+		this.oldCars = share("mechanicshop.gen.old.cars", 0.16);
+		this.closedShare = share("mechanicshop.gen.closed.share", 1.0);
+		this.days = (int) (FIRST_DAY.plusMonths(Integer.getInteger("mechanicshop.gen.months", 12)).toEpochDay() - FIRST_DAY.toEpochDay());
+
+		this.customers = CUSTOMERS * scale;
+		this.mechanics = MECHANICS * scale;
+		this.cars = CARS * scale;
+		this.requests = REQUESTS * scale;
+
+		int fleetMin = Integer.getInteger("mechanicshop.gen.fleet.min", 21);
+		int fleetMax = Math.max(fleetMin, Integer.getInteger("mechanicshop.gen.fleet.max", 50));
+		int fleets = (int) Math.round(this.customers * share("mechanicshop.gen.fleet.share", 0.022));
+		this.fleetEnd = new int[Math.min(fleets, this.customers - 1)];
+		long end = 0;
+		for (int f = 0; f < this.fleetEnd.length; ++f) {
+			end += fleetMin + random(7, f).nextInt(fleetMax - fleetMin + 1);
+			if (end > this.cars / 2)
+				throw new IllegalArgumentException("Fleets would own more than half of the " + this.cars + " cars");
+			this.fleetEnd[f] = (int) end;
+		}
+		this.fleetCars = (int) end;
+		this.hotCars = Math.max(1, (int) Math.round(this.cars * share("mechanicshop.gen.hot.cars", 0.01)));
+	}
+
+	/**
+	 * Method to write the six CSV files into dir/sf<scale>, replacing any
+	 * written before.
+	 *
+	 * @param dir the parent of the scale directory
+	 * @return the directory written
+	 * @throws Exception when a file cannot be written
+	 */
+	public File generate(File dir) throws Exception {
+		File out = new File(dir, "sf" + this.scale);
+		if (!out.isDirectory() && !out.mkdirs())
+			throw new IOException("Cannot create " + out.getPath());
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		try {
+			for (Table t : tables()) {
+				long start = System.nanoTime();
+				long rows = write(pool, new File(out, t.file), t);
+				System.out.printf("%-20s %,12d rows in %.2f s%n", t.file, rows, (System.nanoTime() - start) / 1e9);
+			}
+		} finally {
+			pool.shutdown();
+		}
+		PrintWriter settings = new PrintWriter(new File(out, "generator.txt"), "UTF-8");
+		try {
+			settings.println(describe());
+		} finally {
+			settings.close();
+		}
+		return out;
+	}
+
+	/**
+	 * @return the scale, seed and skew settings, one per line
+	 */
+	public String describe() {
+		return "scale=" + this.scale + "\nseed=" + this.seed +
+			"\ncustomers=" + this.customers + "\nmechanics=" + this.mechanics +
+			"\ncars=" + this.cars + "\nrequests=" + this.requests +
+			"\nfleets=" + this.fleetEnd.length + "\nfleet.cars=" + this.fleetCars +
+			"\nhot.cars=" + this.hotCars + "\nhot.share=" + this.hotShare +
+			"\nlow.bills=" + this.lowBills + "\nold.cars=" + this.oldCars +
+			"\nclosed.share=" + this.closedShare + "\ndays=" + this.days;
+	}
+
+	/*
+	 * Formats the table chunk by chunk on the pool and appends the chunks in
+	 * row order.  At most two chunks per thread are in flight.
+	 */
+	private long write(ExecutorService pool, File file, final Table t) throws Exception {
+		ArrayDeque<Future<byte[]>> window = new ArrayDeque<Future<byte[]>>();
+		final long[] written = new long[(int) ((t.rows + CHUNK - 1) / CHUNK)];
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+		try {
+			long next = 0;
+			while (next < t.rows || !window.isEmpty()) {
+				while (next < t.rows && window.size() < 2 * this.threads) {
+					final long from = next;
+					final long to = Math.min(t.rows, from + CHUNK);
+					window.add(pool.submit(new Callable<byte[]>() {
+						public byte[] call() {
+							StringBuilder sb = new StringBuilder((int) (to - from) * 64);
+							long n = 0;
+							for (long i = from; i < to; ++i)
+								if (t.row(i, sb)) {
+									sb.append("\r\n");
+									++n;
+								}
+							written[(int) (from / CHUNK)] = n;
+							return sb.toString().getBytes(StandardCharsets.UTF_8);
+						}
+					}));
+					next = to;
+				}
+				out.write(window.poll().get());
+			}
+		} finally {
+			for (Future<byte[]> f : window)
+				f.cancel(true);
+			out.close();
+		}
+		long rows = 0;
+		for (long n : written)
+			rows += n;
+		return rows;
+	}
+
+	private Table[] tables() {
+		return new Table[] {
+			new Table("customer.csv", this.customers) {
+				boolean row(long i, StringBuilder sb) {
+					SplittableRandom r = random(1, i);
+					sb.append(i).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES));
+					sb.append(",(").append(100 + r.nextInt(900)).append(')').append(100 + r.nextInt(900))
+						.append('-').append(1000 + r.nextInt(9000));
+					sb.append(',').append(1 + r.nextInt(9999)).append(' ').append(pick(r, STREETS))
+						.append(' ').append(pick(r, CITIES));
+					return true;
+				}
+			},
+			new Table("mechanic.csv", this.mechanics) {
+				boolean row(long i, StringBuilder sb) {
+					SplittableRandom r = random(2, i);
+					sb.append(i).append(',').append(pick(r, FIRST_NAMES)).append(',').append(pick(r, LAST_NAMES))
+						.append(',').append(r.nextInt(11));
+					return true;
+				}
+			},
+			new Table("car.csv", this.cars) {
+				boolean row(long i, StringBuilder sb) {
+					SplittableRandom r = random(3, i);
+					appendVin(sb, (int) i);
+					sb.append(',').append(pick(r, MAKES)).append(',').append(pick(r, MODELS)).append(',');
+					sb.append(r.nextDouble() < oldCars ? 1990 + r.nextInt(5) : 1995 + r.nextInt(24));
+					return true;
+				}
+			},
+			new Table("owns.csv", this.cars) {
+				boolean row(long i, StringBuilder sb) {
+					sb.append(i).append(',').append(owner((int) i)).append(',');
+					appendVin(sb, (int) i);
+					return true;
+				}
+			},
+			new Table("service_request.csv", this.requests) {
+				boolean row(long i, StringBuilder sb) {
+					SplittableRandom r = random(5, i);
+					int car = requestCar(r);
+					int day = r.nextInt(days);
+					sb.append(i).append(',').append(owner(car)).append(',');
+					appendVin(sb, car);
+					sb.append(',');
+					appendDate(sb, day);
+					sb.append(',').append(25000 + r.nextInt(205000)).append(',').append(pick(r, COMPLAINTS));
+					return true;
+				}
+			},
+			new Table("closed_request.csv", this.requests) {
+				boolean row(long i, StringBuilder sb) {
+					SplittableRandom r = random(6, i);
+					if (r.nextDouble() >= closedShare)
+						return false;
+					//replays the request's draws for its date
+					SplittableRandom opened = random(5, i);
+					requestCar(opened);
+					int day = opened.nextInt(days) + r.nextInt(31);
+					sb.append(i).append(',').append(i).append(',').append(r.nextInt(mechanics)).append(',');
+					appendDate(sb, day);
+					sb.append(',').append(pick(r, COMMENTS)).append(',');
+					sb.append(r.nextDouble() < lowBills ? 50 + r.nextInt(50) : 100 + r.nextInt(901));
+					return true;
+				}
+			},
+		};
+	}
+
+	/*
+	 * Customer owning car i: fleets own the first fleetCars cars in runs,
+	 * the rest go round robin to the customers after the fleets.
+	 */
+	int owner(int car) {
+		if (car < this.fleetCars) {
+			int f = Arrays.binarySearch(this.fleetEnd, car + 1);
+			return f >= 0 ? f : -f - 1;
+		}
+		int fleets = this.fleetEnd.length;
+		return fleets + (car - this.fleetCars) % (this.customers - fleets);
+	}
+
+	/*
+	 * Hot cars are spread evenly over the car ids.
+	 */
+	private int requestCar(SplittableRandom r) {
+		if (r.nextDouble() < this.hotShare)
+			return (int) ((long) r.nextInt(this.hotCars) * this.cars / this.hotCars);
+		return r.nextInt(this.cars);
+	}
+
+	/*
+	 * Six letters derived from the car id and ten digits that are a
+	 * permutation of it, so VINs are unique without being remembered.
+	 */
+	private void appendVin(StringBuilder sb, int car) {
+		SplittableRandom r = random(4, car);
+		for (int k = 0; k < 6; ++k)
+			sb.append((char) ('A' + r.nextInt(26)));
+		//the multiplier is coprime to 10^10, so this permutes the ten digit numbers
+		long digits = Math.floorMod(car * 3_141_592_653L + this.seed, 10_000_000_000L);
+		String s = Long.toString(digits);
+		for (int k = s.length(); k < 10; ++k)
+			sb.append('0');
+		sb.append(s);
+	}
+
+	private static void appendDate(StringBuilder sb, int day) {
+		LocalDate d = FIRST_DAY.plusDays(day);
+		sb.append(d.getMonthValue()).append('/').append(d.getDayOfMonth()).append('/').append(d.getYear()).append(" 00:00");
+	}
+
+	private static String pick(SplittableRandom r, String[] values) {
+		return values[r.nextInt(values.length)];
+	}
+
+	/*
+	 * A generator for one row of one table, independent of every other row.
+	 */
+	private SplittableRandom random(int table, long row) {
+		return new SplittableRandom(mix(this.seed ^ mix(((long) table << 56) ^ row)));
+	}
+
+	//the 64-bit finalizer of MurmurHash3
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	private static double share(String property, double dflt) {
+		String v = System.getProperty(property);
+		double d = v == null ? dflt : Double.parseDouble(v);
+		if (d < 0 || d > 1)
+			throw new IllegalArgumentException(property + " must be between 0 and 1");
+		return d;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: java [-classpath <classpath>] DataGenerator <scale> [<out dir>]");
+			return;
+		}
+		long start = System.nanoTime();
+		DataGenerator g = new DataGenerator(Integer.parseInt(args[0]));
+		File out = g.generate(new File(args.length > 1 ? args[1] : "../data/scaled"));
+		System.out.printf("%s written in %.2f s%n", out.getPath(), (System.nanoTime() - start) / 1e9);
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Hands out primary keys for the tables the client inserts into, using one
+ * database sequence per table in hi-lo fashion: every nextval() reserves a
+ * block of blockSize consecutive ids, and the ids inside a block are handed
+ * out from memory.  Only one insert in blockSize pays for a round trip.
+ *
+ * Each sequence steps by the block size, so every client sharing a database
+ * must run with the same mechanicshop.id.blocksize.  Ids reserved but never
+ * used (e.g. when the client exits) are simply skipped.
+ *
+ * With several shards the sequences live on shard 0 only, and seeding
+ * looks at the rows of every shard.
+ *
+ */
+public class IdAllocator {
+
+	/**
+	 * The tables whose keys are allocated by the client.
+	 */
+	public enum Table {
+		CUSTOMER("Customer", "id", "customer_id_seq"),
+		MECHANIC("Mechanic", "id", "mechanic_id_seq"),
+		OWNS("Owns", "ownership_id", "owns_ownership_id_seq"),
+		SERVICE_REQUEST("Service_Request", "rid", "service_request_rid_seq"),
+		CLOSED_REQUEST("Closed_Request", "wid", "closed_request_wid_seq");
+
+		final String table;
+		final String column;
+		final String sequence;
+
+		Table(String table, String column, String sequence) {
+			this.table = table;
+			this.column = column;
+			this.sequence = sequence;
+		}
+	}
+
+	private final ShardRouter shards;
+	private final ConnectionPool pool;
+	private final int blockSize;
+
+	//per table: the next id to hand out and the end (exclusive) of its block
+	private final long[] next = new long[Table.values().length];
+	private final long[] limit = new long[Table.values().length];
+	private final boolean[] seeded = new boolean[Table.values().length];
+
+	public IdAllocator(ShardRouter shards, int blockSize) {
+		if (blockSize < 1)
+			throw new IllegalArgumentException("id block size must be at least 1");
+		this.shards = shards;
+		this.pool = shards.get(0);
+		this.blockSize = blockSize;
+	}
+
+	public int getBlockSize() {
+		return this.blockSize;
+	}
+
+	/**
+	 * Method to allocate the next primary key of a table.
+	 *
+	 * @param t the table to allocate for
+	 * @return an id no other client of the sequence will receive
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public int next(Table t) throws SQLException {
+		int i = t.ordinal();
+		synchronized (this) {
+			if (this.next[i] < this.limit[i])
+				return (int) this.next[i]++;
+		}
+		//reserve outside the lock so one slow table does not stall the others
+		long hi = reserveBlock(t);
+		synchronized (this) {
+			if (this.next[i] >= this.limit[i]) {
+				this.next[i] = hi;
+				this.limit[i] = hi + this.blockSize;
+			}//else another thread refilled first and this block is skipped
+			return (int) this.next[i]++;
+		}
+	}
+
+	/**
+	 * Method to bring every sequence up to date with the rows already in its
+	 * table, e.g. after a bulk load.  Blocks held in memory are dropped.
+	 *
+	 * @throws java.sql.SQLException when a sequence cannot be created or moved
+	 */
+	public void reseed() throws SQLException {
+		for (Table t : Table.values()) {
+			seed(t);
+			synchronized (this) {
+				this.next[t.ordinal()] = this.limit[t.ordinal()] = 0;
+			}
+		}
+	}
+
+	private long reserveBlock(Table t) throws SQLException {
+		boolean mustSeed;
+		synchronized (this) {
+			mustSeed = !this.seeded[t.ordinal()];
+		}
+		if (mustSeed)
+			seed(t);
+		try (PooledConnection conn = this.pool.acquire()) {
+			PreparedStatement stmt = conn.prepare("SELECT nextval(?)");
+			stmt.setString(1, t.sequence);
+			ResultSet rs = conn.executeQuery(stmt);
+			try {
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				rs.close();
+			}
+		}
+	}
+
+	/*
+	 * Creates the sequence if needed and moves it forward, never backward,
+	 * past the largest key already stored in the table.  The seed rows come
+	 * from whatever is loaded, e.g. the code/data CSV files, on any shard.
+	 */
+	private void seed(Table t) throws SQLException {
+		long floor = 0;
+		for (int shard = 1; shard < this.shards.count(); ++shard)
+			floor = Math.max(floor, nextAfterMax(this.shards.get(shard), t));
+		try (PooledConnection conn = this.pool.acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				stmt.execute("CREATE SEQUENCE IF NOT EXISTS " + t.sequence +
+					" MINVALUE 0 START WITH 0 INCREMENT BY " + this.blockSize);
+				stmt.execute("ALTER SEQUENCE " + t.sequence + " INCREMENT BY " + this.blockSize);
+				stmt.executeQuery(
+					"SELECT setval('" + t.sequence + "', m.next_id, false)" +
+					" FROM (SELECT GREATEST(COALESCE(MAX(" + t.column + "), -1) + 1, " + floor + ") AS next_id FROM " + t.table + ") m, " + t.sequence + " s" +
+					" WHERE m.next_id > s.last_value + CASE WHEN s.is_called THEN " + this.blockSize + " ELSE 0 END").close();
+			} finally {
+				stmt.close();
+			}
+		}
+		synchronized (this) {
+			this.seeded[t.ordinal()] = true;
+		}
+	}
+
+	private static long nextAfterMax(ConnectionPool pool, Table t) throws SQLException {
+		try (PooledConnection conn = pool.acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(" + t.column + "), -1) + 1 FROM " + t.table);
+				rs.next();
+				return rs.getLong(1);
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,719 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind log of new service requests.  InsertServiceRequest appends
+ * the request to a local file and returns once the file is fsync'd; a
+ * background thread then inserts the logged requests into the database,
+ * as many as are waiting, up to batchSize, per transaction.  Appenders that
+ * arrive while an fsync is running share the next one, and the flusher
+ * commits whatever queued up during the previous commit, so both costs are
+ * paid once per group rather than once per request.  The flusher only takes
+ * records that are already fsync'd, in file order; a request whose fsync
+ * fails is withdrawn, so it is never inserted under a rid its caller was
+ * told had failed.
+ *
+ * The file starts with a header holding the offset up to which every
+ * record is known to be committed.  On open, the records after it are
+ * inserted again before the client serves anything; the insert skips rows
+ * that already exist, so a record committed just before a crash, but not
+ * yet marked, is harmless.  A torn record at the end of the file is cut
+ * off.  Once the flusher is idle and the file has grown past TRUNCATE_AT,
+ * the file is cut back to its header.
+ *
+ * Records that the database refuses for good (e.g. a foreign key) are
+ * written to <journal>.rejects as --batch records with the error.  The
+ * listener hears of every appended request once it is committed, and never
+ * of a rejected one, so in-memory state built on it matches the database.
+ *
+ * Metrics: journal-append and journal-fsync time the intake side,
+ * journal-flush each group commit, journal-commit-lag the time from append
+ * to commit of every request, and the journal-queue-depth gauge the
+ * requests waiting for the flusher.
+ *
+ */
+public class IntakeJournal implements AutoCloseable {
+	static final long MAGIC = 0x4d534a524e4c3031L;
+	//magic and committed offset
+	static final int HEADER = 16;
+	static final long TRUNCATE_AT = 1L << 20;
+	//records longer than this are taken for garbage
+	static final int MAX_RECORD = 1 << 20;
+	//rid of a record whose append failed
+	static final int WITHDRAWN = -1;
+
+	static final String REPLAY_SERVICE_REQUEST = MechanicShop.INSERT_SERVICE_REQUEST + " ON CONFLICT DO NOTHING";
+
+	/**
+	 * Hears of appended requests as they are committed, on the flusher
+	 * thread and before a close waiting on the request is woken.  Requests
+	 * replayed on open are not reported; they are in the database before
+	 * the client loads its state from it.
+	 */
+	public interface Listener {
+		void committed(int rid, int customerId, String vin) throws Exception;
+	}
+
+	/*
+	 * One logged service request and the file offset just past its record.
+	 */
+	static final class Entry {
+		final int rid;
+		final int customerId;
+		final String vin;
+		final Timestamp date;
+		final int odometer;
+		final String complain;
+		final long appendedMillis;
+		final long appendedNanos;
+		long end;
+		//refused by the database and written to the rejects file
+		boolean rejected = false;
+		//its fsync failed; passed over by the flusher, set under syncLock
+		volatile boolean withdrawn = false;
+
+		Entry(int rid, int customerId, String vin, Timestamp date, int odometer, String complain, long appendedMillis) {
+			this.rid = rid;
+			this.customerId = customerId;
+			this.vin = vin;
+			this.date = date;
+			this.odometer = odometer;
+			this.complain = complain;
+			this.appendedMillis = appendedMillis;
+			//replayed entries carry their age across the restart
+			this.appendedNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(
+				Math.max(0, System.currentTimeMillis() - appendedMillis));
+		}
+	}
+
+	private final File file;
+	private final FileChannel channel;
+	private final ShardRouter shards;
+	private final Metrics metrics;
+	private final Listener listener;
+	private final int batchSize;
+	private final long commitTimeoutMillis;
+	private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<Entry>();
+	//rids appended but not yet committed
+	private final ConcurrentHashMap<Integer, Entry> pending = new ConcurrentHashMap<Integer, Entry>();
+	private final Object syncLock = new Object();
+	private final Object commitLock = new Object();
+	private final Thread flusher;
+	//end of the file, moved under the journal's lock
+	private volatile long end;
+	//offset up to which the file is fsync'd, moved under syncLock
+	private volatile long synced;
+	//offset up to which every record is committed
+	private volatile long committed;
+	private volatile boolean stopping = false;
+	private volatile SQLException lastFailure = null;
+	private List<Entry> recovered;
+	private PrintWriter rejects = null;
+
+	private final AtomicLong appended = new AtomicLong();
+	private final AtomicLong flushed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong maxDepth = new AtomicLong();
+
+	/**
+	 * @param file the journal, created when missing
+	 * @param shards where the requests are committed
+	 * @param metrics receives the journal timings and gauge
+	 * @param listener hears of every appended request once it is committed
+	 * @param batchSize most requests committed per transaction
+	 * @param commitTimeoutMillis how long a close waits for its request to be committed
+	 * @throws java.io.IOException when the file cannot be opened or is not a journal
+	 */
+	public IntakeJournal(File file, ShardRouter shards, Metrics metrics, Listener listener, int batchSize,
+			long commitTimeoutMillis) throws IOException {
+		if (batchSize < 1)
+			throw new IllegalArgumentException("journal batch size must be at least 1");
+		this.file = file;
+		this.shards = shards;
+		this.metrics = metrics;
+		this.listener = listener;
+		this.batchSize = batchSize;
+		this.commitTimeoutMillis = commitTimeoutMillis;
+		this.channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			this.committed = readHeader();
+			this.recovered = scan();
+		} catch (IOException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.synced = this.end;
+		this.flusher = new Thread("journal-flusher") {
+			public void run() {
+				flushLoop();
+			}
+		};
+		this.flusher.setDaemon(true);
+		this.metrics.gauge("journal-queue-depth", new LongSupplier() {
+			public long getAsLong() {
+				return IntakeJournal.this.queue.size();
+			}
+		});
+	}
+
+	/**
+	 * Method to open a journal, commit whatever it holds from the last run
+	 * and start the flusher.
+	 *
+	 * @return the running journal
+	 * @throws java.io.IOException when the file cannot be opened or is not a journal
+	 * @throws java.sql.SQLException when the logged requests cannot be committed
+	 */
+	public static IntakeJournal open(File file, ShardRouter shards, Metrics metrics, Listener listener, int batchSize,
+			long commitTimeoutMillis) throws IOException, SQLException {
+		IntakeJournal journal = new IntakeJournal(file, shards, metrics, listener, batchSize, commitTimeoutMillis);
+		journal.start();
+		return journal;
+	}
+
+	/*
+	 * Commits the records left from the last run, then starts the flusher;
+	 * the file is closed when the replay fails.
+	 */
+	void start() throws IOException, SQLException {
+		try {
+			replay();
+		} catch (SQLException e) {
+			this.channel.close();
+			throw e;
+		}
+		this.flusher.start();
+	}
+
+	/**
+	 * @return the number of requests found in the journal on open
+	 */
+	public int getRecovered() {
+		return this.recovered.size();
+	}
+
+	/**
+	 * Method to log a new service request.  Returns once the record is on
+	 * disk; the database insert follows in the background.
+	 *
+	 * @throws java.io.IOException when the record cannot be written or the journal is closed
+	 */
+	public void append(int rid, int customerId, String vin, Timestamp date, int odometer, String complain) throws IOException {
+		try (Metrics.Span span = this.metrics.operation("journal-append")) {
+			Entry e = new Entry(rid, customerId, vin, date, odometer, complain, System.currentTimeMillis());
+			ByteBuffer record = encode(e);
+			synchronized (this) {
+				if (this.stopping)
+					throw new IOException("The intake journal is closed");
+				long pos = this.end;
+				while (record.hasRemaining())
+					pos += this.channel.write(record, pos);
+				e.end = this.end = pos;
+				this.pending.put(rid, e);
+				this.queue.add(e);
+			}
+			long depth = this.queue.size();
+			for (long max = this.maxDepth.get(); depth > max && !this.maxDepth.compareAndSet(max, depth); )
+				max = this.maxDepth.get();
+			try {
+				sync(e.end);
+			} catch (IOException x) {
+				if (withdraw(e, record))
+					throw x;
+			}
+			this.appended.incrementAndGet();
+			span.done(1);
+		}
+	}
+
+	/**
+	 * Method to wait until a logged request is in the database, or was
+	 * rejected, e.g. before it is closed.  Returns at once for requests that
+	 * are not pending.
+	 *
+	 * @param rid the service request
+	 * @throws java.sql.SQLException when it is not committed in time (SQLSTATE 53000)
+	 */
+	public void awaitCommitted(int rid) throws SQLException {
+		if (!this.pending.containsKey(rid))
+			return;
+		long deadline = System.currentTimeMillis() + this.commitTimeoutMillis;
+		synchronized (this.commitLock) {
+			while (this.pending.containsKey(rid)) {
+				long left = deadline - System.currentTimeMillis();
+				if (left <= 0) {
+					SQLException cause = this.lastFailure;
+					throw new SQLException("Service request " + rid + " is not committed yet" +
+						(cause != null ? ": " + cause.getMessage() : ""), "53000");
+				}
+				try {
+					this.commitLock.wait(left);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new SQLException("Interrupted waiting for service request " + rid, "57014");
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the queue and throughput counters
+	 */
+	public String stats() {
+		return "journal[depth=" + this.queue.size() + ", max.depth=" + this.maxDepth.get() +
+			", appended=" + this.appended.get() + ", committed=" + this.flushed.get() +
+			", rejected=" + this.rejected.get() + ", bytes=" + this.end + "]";
+	}
+
+	/**
+	 * Method to stop taking requests, commit those still queued and close
+	 * the file.  Requests the database does not take in time stay in the
+	 * journal for the next open.
+	 */
+	public void close() {
+		synchronized (this) {
+			this.stopping = true;
+		}
+		try {
+			this.flusher.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			// nothing left to write.
+		}
+		synchronized (this) {
+			if (this.rejects != null)
+				this.rejects.close();
+		}
+	}
+
+	/*
+	 * Shares one fsync among every appender waiting at the time.
+	 */
+	private void sync(long upTo) throws IOException {
+		if (this.synced >= upTo)
+			return;
+		synchronized (this.syncLock) {
+			if (this.synced >= upTo)
+				return;
+			long target = this.end;
+			try (Metrics.Span span = this.metrics.operation("journal-fsync")) {
+				force();
+				span.done(1);
+			}
+			this.synced = target;
+			this.syncLock.notifyAll();
+		}
+	}
+
+	void force() throws IOException {
+		this.channel.force(false);
+	}
+
+	/*
+	 * After a failed fsync, takes a request back unless a later fsync has
+	 * covered it in the meantime.  The flusher has not seen a record that is
+	 * not synced, and sees the mark before any later fsync covers it.  The
+	 * record is rewritten with rid WITHDRAWN, which scan() passes over, in
+	 * case it reaches the disk after all.
+	 */
+	private boolean withdraw(Entry e, ByteBuffer record) {
+		synchronized (this.syncLock) {
+			if (this.synced >= e.end)
+				return false;
+			e.withdrawn = true;
+			this.pending.remove(e.rid);
+			this.syncLock.notifyAll();
+			int length = record.limit() - 8;
+			record.putInt(8, WITHDRAWN);
+			CRC32 crc = new CRC32();
+			crc.update(record.array(), 8, length);
+			record.putInt(4, (int) crc.getValue());
+			record.rewind();
+			try {
+				for (long pos = e.end - record.limit(); record.hasRemaining(); )
+					pos += this.channel.write(record, pos);
+			} catch (IOException x) {
+				System.err.println("Could not mark withdrawn service request " + e.rid + " in the intake journal: " + x.getMessage());
+			}
+			return true;
+		}
+	}
+
+	/*
+	 * Whether the flusher may take a record: it is fsync'd, or withdrawn.
+	 */
+	private boolean ready(Entry e) {
+		return e.end <= this.synced || e.withdrawn;
+	}
+
+	private void flushLoop() {
+		List<Entry> batch = new ArrayList<Entry>(this.batchSize);
+		while (true) {
+			Entry first;
+			try {
+				first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (first == null) {
+				if (this.stopping)
+					return;
+				continue;
+			}
+			synchronized (this.syncLock) {
+				while (!ready(first)) {
+					try {
+						this.syncLock.wait(100);
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+			batch.clear();
+			batch.add(first);
+			//only the flusher takes from the queue, and the file order holds
+			for (Entry next = this.queue.peek(); next != null && batch.size() < this.batchSize && ready(next);
+					next = this.queue.peek())
+				batch.add(this.queue.poll());
+			long backoff = 100;
+			while (true) {
+				try {
+					flush(batch);
+					this.lastFailure = null;
+					break;
+				} catch (SQLException e) {
+					this.lastFailure = e;
+					//left in the file for the next open
+					if (this.stopping)
+						return;
+					System.err.println("Intake journal flush failed, retrying: " + e.getMessage());
+					try {
+						Thread.sleep(backoff);
+					} catch (InterruptedException ie) {
+						return;
+					}
+					backoff = Math.min(backoff * 2, 5000);
+				}
+			}
+			try {
+				committed(batch);
+			} catch (IOException e) {
+				System.err.println("Could not update the intake journal header: " + e.getMessage());
+			}
+		}
+	}
+
+	/*
+	 * Commits the requests of one group, one transaction per shard.
+	 */
+	private void flush(List<Entry> batch) throws SQLException {
+		try (Metrics.Span span = this.metrics.operation("journal-flush")) {
+			List<List<Entry>> byShard = new ArrayList<List<Entry>>(this.shards.count());
+			for (int i = 0; i < this.shards.count(); ++i)
+				byShard.add(new ArrayList<Entry>());
+			for (Entry e : batch)
+				if (!e.withdrawn)
+					byShard.get(this.shards.shardOf(e.customerId)).add(e);
+			for (int shard = 0; shard < byShard.size(); ++shard) {
+				List<Entry> entries = byShard.get(shard);
+				if (entries.isEmpty())
+					continue;
+				try {
+					insert(shard, entries);
+				} catch (SQLException e) {
+					if (!isIntegrity(e))
+						throw e;
+					//find the refused requests one at a time
+					for (Entry one : entries) {
+						List<Entry> single = new ArrayList<Entry>(1);
+						single.add(one);
+						try {
+							insert(shard, single);
+						} catch (SQLException x) {
+							if (!isIntegrity(x))
+								throw x;
+							reject(one, x);
+						}
+					}
+				}
+			}
+			span.done(batch.size());
+		}
+	}
+
+	/*
+	 * Inserts some requests of one shard in one transaction.
+	 */
+	void insert(int shard, List<Entry> entries) throws SQLException {
+		try (PooledConnection conn = this.shards.get(shard).acquire()) {
+			conn.getConnection().setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare(REPLAY_SERVICE_REQUEST);
+			for (Entry e : entries) {
+				MechanicShop.bind(stmt, e.rid, e.customerId, e.vin, e.date, e.odometer, e.complain);
+				stmt.addBatch();
+			}
+			conn.executeBatch(stmt);
+			conn.commit();
+		}//closing the lease rolls back anything left uncommitted
+	}
+
+	private static boolean isIntegrity(SQLException e) {
+		for (SQLException x = e; x != null; x = x.getNextException())
+			if (x.getSQLState() != null && x.getSQLState().startsWith("23"))
+				return true;
+		return false;
+	}
+
+	/*
+	 * Marks a committed group in the header, tells the listener and wakes
+	 * the closes waiting on it.  The header write is not fsync'd: losing it
+	 * only means the group is inserted, and skipped, again on the next open.
+	 */
+	private void committed(List<Entry> batch) throws IOException {
+		long now = System.nanoTime();
+		for (Entry e : batch) {
+			if (e.withdrawn)
+				continue;
+			this.metrics.record("journal-commit-lag", now - e.appendedNanos);
+			//only the flusher removes, so a pending entry is one appended in this run
+			if (!e.rejected && this.pending.containsKey(e.rid)) {
+				try {
+					this.listener.committed(e.rid, e.customerId, e.vin);
+				} catch (Exception x) {
+					System.err.println("Intake journal listener failed on service request " + e.rid + ": " + x);
+				}
+			}
+			this.pending.remove(e.rid);
+		}
+		this.flushed.addAndGet(batch.size());
+		synchronized (this.commitLock) {
+			this.commitLock.notifyAll();
+		}
+		this.committed = batch.get(batch.size() - 1).end;
+		writeCommitted(this.committed);
+		if (this.committed >= TRUNCATE_AT && this.queue.isEmpty()) {
+			synchronized (this.syncLock) {
+				synchronized (this) {
+					if (this.end != this.committed)
+						return;
+					//a crash between the two steps replays, and skips, every record
+					writeCommitted(HEADER);
+					this.channel.truncate(HEADER);
+					this.channel.force(false);
+					this.end = this.synced = this.committed = HEADER;
+				}
+			}
+		}
+	}
+
+	private void writeCommitted(long offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(8);
+		buf.putLong(0, offset);
+		while (buf.hasRemaining())
+			this.channel.write(buf, 8 + buf.position());
+	}
+
+	private synchronized void reject(Entry e, SQLException error) {
+		e.rejected = true;
+		this.rejected.incrementAndGet();
+		try {
+			if (this.rejects == null)
+				this.rejects = new PrintWriter(new OutputStreamWriter(
+					new FileOutputStream(this.file.getPath() + ".rejects", true), StandardCharsets.UTF_8), true);
+			this.rejects.println("{\"op\":\"insert-request\",\"customer_id\":" + e.customerId +
+				",\"vin\":" + quote(e.vin) + ",\"odometer\":" + e.odometer + ",\"complain\":" + quote(e.complain) +
+				",\"date\":" + quote(e.date.toString()) + "}\t# rid " + e.rid + ": " + error.getMessage());
+		} catch (IOException x) {
+			System.err.println("Rejected service request " + e.rid + " could not be saved: " + error.getMessage());
+		}
+	}
+
+	private static String quote(String s) throws IOException {
+		if (s == null)
+			return "null";
+		StringWriter w = new StringWriter();
+		ResultRenderer.writeString(w, s);
+		return w.toString();
+	}
+
+	/*
+	 * Writes the header of a new file, or checks it and returns the committed
+	 * offset, clamped to the file.
+	 */
+	private long readHeader() throws IOException {
+		long size = this.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		if (size == 0) {
+			header.putLong(MAGIC).putLong(HEADER).flip();
+			while (header.hasRemaining())
+				this.channel.write(header, header.position());
+			this.channel.force(true);
+			return HEADER;
+		}
+		while (header.hasRemaining())
+			if (this.channel.read(header, header.position()) < 0)
+				break;
+		if (header.hasRemaining() || header.getLong(0) != MAGIC)
+			throw new IOException(this.file.getPath() + " is not an intake journal");
+		return Math.max(HEADER, Math.min(header.getLong(8), size));
+	}
+
+	/*
+	 * Reads the records after the committed offset and cuts off a torn or
+	 * corrupt tail.
+	 */
+	private List<Entry> scan() throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		long good = this.committed;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+			Channels.newInputStream(this.channel.position(good)), 1 << 16));
+		CRC32 crc = new CRC32();
+		try {
+			while (true) {
+				int length = in.readInt();
+				int sum = in.readInt();
+				if (length <= 0 || length > MAX_RECORD)
+					break;
+				byte[] payload = new byte[length];
+				in.readFully(payload);
+				crc.reset();
+				crc.update(payload, 0, length);
+				if ((int) crc.getValue() != sum)
+					break;
+				Entry e = decode(payload);
+				good += 8 + length;
+				e.end = good;
+				if (e.rid != WITHDRAWN)
+					entries.add(e);
+			}
+		} catch (EOFException e) {
+			// the last record was torn, or there is none.
+		}
+		if (good < this.channel.size()) {
+			this.channel.truncate(good);
+			this.channel.force(false);
+		}
+		this.end = good;
+		return entries;
+	}
+
+	/*
+	 * Commits the records found by scan(), before any new request is taken.
+	 */
+	private void replay() throws SQLException {
+		for (int from = 0; from < this.recovered.size(); from += this.batchSize) {
+			List<Entry> batch = this.recovered.subList(from, Math.min(from + this.batchSize, this.recovered.size()));
+			flush(batch);
+			try {
+				committed(batch);
+			} catch (IOException e) {
+				throw new SQLException(e);
+			}
+		}
+	}
+
+	/*
+	 * Record layout: payload length, CRC32 of the payload, payload.
+	 */
+	private static ByteBuffer encode(Entry e) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeInt(0);
+		out.writeInt(e.rid);
+		out.writeInt(e.customerId);
+		writeString(out, e.vin);
+		out.writeLong(e.date.getTime());
+		out.writeInt(e.date.getNanos());
+		out.writeInt(e.odometer);
+		writeString(out, e.complain);
+		out.writeLong(e.appendedMillis);
+		out.flush();
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		int length = record.limit() - 8;
+		if (length > MAX_RECORD)
+			throw new IOException("Service request " + e.rid + " is too large for the journal");
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 8, length);
+		record.putInt(0, length);
+		record.putInt(4, (int) crc.getValue());
+		return record;
+	}
+
+	private static Entry decode(byte[] payload) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		int rid = in.readInt();
+		int customerId = in.readInt();
+		String vin = readString(in);
+		Timestamp date = new Timestamp(in.readLong());
+		date.setNanos(in.readInt());
+		int odometer = in.readInt();
+		String complain = readString(in);
+		return new Entry(rid, customerId, vin, date, odometer, complain, in.readLong());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0)
+			return null;
+		if (length > MAX_RECORD)
+			throw new IOException("corrupt journal record");
+		byte[] b = new byte[length];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON reader for operation records.  Objects become
+ * LinkedHashMap, arrays ArrayList, numbers Long or Double, and true, false
+ * and null their Java counterparts.
+ *
+ */
+public final class Json {
+	private final String s;
+	private int pos = 0;
+
+	private Json(String s) {
+		this.s = s;
+	}
+
+	/**
+	 * Method to parse a JSON document.
+	 *
+	 * @param text the document
+	 * @return the parsed value
+	 * @throws IllegalArgumentException when the text is not valid JSON
+	 */
+	public static Object parse(String text) {
+		Json p = new Json(text);
+		Object v = p.value();
+		p.skipSpace();
+		if (p.pos != p.s.length())
+			throw p.error("trailing characters");
+		return v;
+	}
+
+	/**
+	 * Method to parse a JSON object.
+	 *
+	 * @param text the document
+	 * @return the object's members, in document order
+	 * @throws IllegalArgumentException when the text is not a JSON object
+	 */
+	@SuppressWarnings("unchecked")
+	public static Map<String, Object> parseObject(String text) {
+		Object v = parse(text);
+		if (!(v instanceof Map))
+			throw new IllegalArgumentException("expected a JSON object");
+		return (Map<String, Object>) v;
+	}
+
+	private Object value() {
+		skipSpace();
+		if (this.pos >= this.s.length())
+			throw error("unexpected end of input");
+		char c = this.s.charAt(this.pos);
+		switch (c) {
+			case '{': return object();
+			case '[': return array();
+			case '"': return string();
+			case 't': return literal("true", Boolean.TRUE);
+			case 'f': return literal("false", Boolean.FALSE);
+			case 'n': return literal("null", null);
+			default:
+				if (c == '-' || (c >= '0' && c <= '9'))
+					return number();
+				throw error("unexpected character '" + c + "'");
+		}
+	}
+
+	private Map<String, Object> object() {
+		Map<String, Object> map = new LinkedHashMap<String, Object>();
+		++this.pos;
+		skipSpace();
+		if (peek() == '}') {
+			++this.pos;
+			return map;
+		}
+		while (true) {
+			skipSpace();
+			if (peek() != '"')
+				throw error("expected a member name");
+			String key = string();
+			skipSpace();
+			expect(':');
+			map.put(key, value());
+			skipSpace();
+			char c = next();
+			if (c == '}')
+				return map;
+			if (c != ',')
+				throw error("expected ',' or '}'");
+		}
+	}
+
+	private List<Object> array() {
+		List<Object> list = new ArrayList<Object>();
+		++this.pos;
+		skipSpace();
+		if (peek() == ']') {
+			++this.pos;
+			return list;
+		}
+		while (true) {
+			list.add(value());
+			skipSpace();
+			char c = next();
+			if (c == ']')
+				return list;
+			if (c != ',')
+				throw error("expected ',' or ']'");
+		}
+	}
+
+	private String string() {
+		++this.pos;
+		StringBuilder sb = null;
+		int from = this.pos;
+		while (true) {
+			if (this.pos >= this.s.length())
+				throw error("unterminated string");
+			char c = this.s.charAt(this.pos);
+			if (c == '"') {
+				String tail = this.s.substring(from, this.pos++);
+				return sb == null ? tail : sb.append(tail).toString();
+			}
+			if (c != '\\') {
+				++this.pos;
+				continue;
+			}
+			if (sb == null)
+				sb = new StringBuilder();
+			sb.append(this.s, from, this.pos);
+			++this.pos;
+			char e = next();
+			switch (e) {
+				case '"': case '\\': case '/': sb.append(e); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'u':
+					if (this.pos + 4 > this.s.length())
+						throw error("bad unicode escape");
+					sb.append((char) Integer.parseInt(this.s.substring(this.pos, this.pos + 4), 16));
+					this.pos += 4;
+					break;
+				default:
+					throw error("bad escape '\\" + e + "'");
+			}
+			from = this.pos;
+		}
+	}
+
+	private Object number() {
+		int start = this.pos;
+		boolean fraction = false;
+		while (this.pos < this.s.length()) {
+			char c = this.s.charAt(this.pos);
+			if (c == '.' || c == 'e' || c == 'E')
+				fraction = true;
+			else if (c != '-' && c != '+' && (c < '0' || c > '9'))
+				break;
+			++this.pos;
+		}
+		String text = this.s.substring(start, this.pos);
+		try {
+			return fraction ? (Object) Double.valueOf(text) : (Object) Long.valueOf(text);
+		} catch (NumberFormatException e) {
+			throw error("bad number " + text);
+		}
+	}
+
+	private Object literal(String word, Object value) {
+		if (!this.s.startsWith(word, this.pos))
+			throw error("unexpected token");
+		this.pos += word.length();
+		return value;
+	}
+
+	private void skipSpace() {
+		while (this.pos < this.s.length() && Character.isWhitespace(this.s.charAt(this.pos)))
+			++this.pos;
+	}
+
+	private char peek() {
+		if (this.pos >= this.s.length())
+			throw error("unexpected end of input");
+		return this.s.charAt(this.pos);
+	}
+
+	private char next() {
+		char c = peek();
+		++this.pos;
+		return c;
+	}
+
+	private void expect(char c) {
+		if (next() != c)
+			throw error("expected '" + c + "'");
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException("JSON " + message + " at offset " + this.pos);
+	}
+}
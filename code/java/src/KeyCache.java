@@ -0,0 +1,154 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU read-through cache of the keys intake validates against:
+ * customer ids, mechanic ids, VINs and (customer, VIN) ownerships.  A lookup
+ * that misses asks the database once and remembers a key that exists.
+ *
+ * Only existing keys are cached.  The shop never deletes these rows, so a
+ * cached key stays true; a missing key is looked up again every time, which
+ * picks up rows added by other clients.  Rows written by this client are
+ * added as they are inserted, and clear() forgets everything, e.g. after a
+ * bulk load truncated the tables.
+ *
+ * Customers and ownerships are looked up on the customer's shard, mechanics
+ * and cars, which every shard holds, on shard 0.
+ *
+ */
+public class KeyCache {
+	static final String CUSTOMER_EXISTS = "SELECT 1 FROM Customer c WHERE c.id = ?";
+	static final String MECHANIC_EXISTS = "SELECT 1 FROM Mechanic m WHERE m.id = ?";
+	static final String CAR_EXISTS = "SELECT 1 FROM Car c WHERE c.vin = ?";
+	static final String OWNS_EXISTS = "SELECT 1 FROM Owns o WHERE o.customer_id = ? AND o.car_vin = ?";
+
+	private final ShardRouter shards;
+	//access-ordered, so the eldest entry is the least recently used key
+	private final LinkedHashMap<String, Boolean> keys;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public KeyCache(ShardRouter shards, final int maxSize) {
+		this.shards = shards;
+		this.keys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+				if (size() <= maxSize)
+					return false;
+				KeyCache.this.evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	public boolean customerExists(int id) throws SQLException {
+		return exists("c:" + id, this.shards.forCustomer(id), CUSTOMER_EXISTS, id);
+	}
+
+	public boolean mechanicExists(int id) throws SQLException {
+		return exists("m:" + id, this.shards.get(0), MECHANIC_EXISTS, id);
+	}
+
+	public boolean carExists(String vin) throws SQLException {
+		return exists("v:" + vin, this.shards.get(0), CAR_EXISTS, vin);
+	}
+
+	/**
+	 * @return true when the Owns table links this customer to this car
+	 */
+	public boolean owns(int customerId, String vin) throws SQLException {
+		return exists("o:" + customerId + ":" + vin, this.shards.forCustomer(customerId), OWNS_EXISTS, customerId, vin);
+	}
+
+	/**
+	 * Methods to record keys this client has just inserted.
+	 */
+	public void addCustomer(int id) {
+		put("c:" + id);
+	}
+
+	public void addMechanic(int id) {
+		put("m:" + id);
+	}
+
+	public void addCar(int customerId, String vin) {
+		put("v:" + vin);
+		put("o:" + customerId + ":" + vin);
+	}
+
+	/**
+	 * Method to forget every cached key.
+	 */
+	public synchronized void clear() {
+		this.keys.clear();
+	}
+
+	public long getHits() { return this.hits.get(); }
+	public long getMisses() { return this.misses.get(); }
+	public long getEvictions() { return this.evictions.get(); }
+
+	public synchronized int getSize() {
+		return this.keys.size();
+	}
+
+	/**
+	 * @return the cache counters, in the style of ConnectionPool.stats()
+	 */
+	public String stats() {
+		long h = getHits();
+		long lookups = h + getMisses();
+		return "keys[size=" + getSize() +
+			", hits=" + h +
+			", misses=" + getMisses() +
+			", hitrate=" + (lookups == 0 ? "-" : String.format("%.1f%%", 100.0 * h / lookups)) +
+			", evictions=" + getEvictions() + "]";
+	}
+
+	private boolean exists(String key, ConnectionPool pool, String sql, Object... params) throws SQLException {
+		synchronized (this) {
+			if (this.keys.get(key) != null) {
+				this.hits.incrementAndGet();
+				return true;
+			}
+		}
+		this.misses.incrementAndGet();
+		boolean found;
+		try (PooledConnection conn = pool.acquire()) {
+			PreparedStatement stmt = conn.prepare(sql);
+			MechanicShop.bind(stmt, params);
+			ResultSet rs = conn.executeQuery(stmt);
+			try {
+				found = rs.next();
+			} finally {
+				rs.close();
+			}
+		}
+		if (found)
+			put(key);
+		return found;
+	}
+
+	private synchronized void put(String key) {
+		this.keys.put(key, Boolean.TRUE);
+	}
+}
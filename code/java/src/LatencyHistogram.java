@@ -0,0 +1,120 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram in the style of HdrHistogram.  Values (in
+ * nanoseconds) are counted in log-linear buckets: every power of two is split
+ * into 32 equal sub-buckets, so any recorded value is reproduced within about
+ * 3% and the whole range of a long fits in under 2000 counters.
+ *
+ * Recording costs one index computation and a few atomic adds; percentiles
+ * are read from a copy of the counters, never blocking recorders.
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BITS) * SUB_COUNT);
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Method to count one value.
+	 *
+	 * @param nanos the latency; negative values count as 0
+	 */
+	public void record(long nanos) {
+		if (nanos < 0)
+			nanos = 0;
+		this.counts.incrementAndGet(index(nanos));
+		this.total.incrementAndGet();
+		this.sum.addAndGet(nanos);
+		long m;
+		while (nanos > (m = this.max.get()) && !this.max.compareAndSet(m, nanos))
+			;
+	}
+
+	public long getCount() {
+		return this.total.get();
+	}
+
+	public long getMax() {
+		return this.max.get();
+	}
+
+	public double getMean() {
+		long n = this.total.get();
+		return n == 0 ? 0 : (double) this.sum.get() / n;
+	}
+
+	/**
+	 * Method to estimate a percentile from the counters.
+	 *
+	 * @param percentile between 0 and 100
+	 * @return the value at or below which that share of the values fall, 0 when empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		int n = this.counts.length();
+		long[] copy = new long[n];
+		long count = 0;
+		for (int i = 0; i < n; ++i)
+			count += copy[i] = this.counts.get(i);
+		if (count == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+		long seen = 0;
+		for (int i = 0; i < n; ++i) {
+			seen += copy[i];
+			if (seen >= rank)
+				return Math.min(highestEquivalent(i), this.max.get());
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Method to clear every counter.  Values recorded concurrently may be
+	 * partly lost.
+	 */
+	public void reset() {
+		for (int i = 0; i < this.counts.length(); ++i)
+			this.counts.set(i, 0);
+		this.total.set(0);
+		this.sum.set(0);
+		this.max.set(0);
+	}
+
+	/*
+	 * Values below SUB_COUNT map to themselves; above, the top SUB_BITS + 1
+	 * bits select the bucket (the power of two) and the sub-bucket within it.
+	 */
+	static int index(long value) {
+		if (value < SUB_COUNT)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) - SUB_COUNT);
+	}
+
+	static long highestEquivalent(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = (index >>> SUB_BITS) - 1;
+		long lowest = (SUB_COUNT + (long) (index & (SUB_COUNT - 1))) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
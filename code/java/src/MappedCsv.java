@@ -0,0 +1,254 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.Arrays;
+
+/**
+ * CSV reader over a memory-mapped file.  The file is mapped in windows of
+ * up to 256 MB; records are split in place and each one is handed to a sink
+ * as field offsets into the window, so numbers are parsed straight from the
+ * mapped bytes and only string fields are decoded.
+ *
+ * Fields may be quoted as in RFC 4180, including line breaks inside quotes.
+ * Empty lines are skipped.
+ *
+ */
+public final class MappedCsv {
+	static final long WINDOW = 1L << 28;
+
+	/**
+	 * Receives each record while it is current.
+	 */
+	public interface Sink {
+		void record(MappedCsv record) throws IOException;
+	}
+
+	private MappedByteBuffer buf;
+	private int[] start = new int[16];
+	private int[] end = new int[16];
+	private int fields = 0;
+	private byte[] scratch = new byte[256];
+	private long line = 0;
+	private final File file;
+
+	private MappedCsv(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Method to read every record of a file.
+	 *
+	 * @param file the CSV file
+	 * @param sink called once per record
+	 * @return the number of records read
+	 * @throws java.io.IOException when the file cannot be read, or a record
+	 *         is malformed or longer than a window
+	 */
+	public static long read(File file, Sink sink) throws IOException {
+		MappedCsv csv = new MappedCsv(file);
+		long records = 0;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel ch = raf.getChannel();
+			long size = ch.size();
+			long pos = 0;
+			while (pos < size) {
+				long len = Math.min(WINDOW, size - pos);
+				boolean last = pos + len == size;
+				csv.buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, len);
+				int limit = (int) len;
+				int p = 0;
+				while (p < limit) {
+					int next = csv.split(p, limit, last);
+					if (next < 0)
+						break;
+					if (csv.fields > 1 || csv.end[0] > csv.start[0]) {
+						sink.record(csv);
+						++records;
+					}
+					++csv.line;
+					p = next;
+				}
+				if (p == 0 && !last)
+					throw csv.error("record longer than " + WINDOW + " bytes");
+				pos += p;
+			}
+		} finally {
+			raf.close();
+		}
+		return records;
+	}
+
+	/*
+	 * Splits the record starting at p into fields.  Returns the start of the
+	 * next record, or -1 when the record runs past the window and more of
+	 * the file follows.
+	 */
+	private int split(int p, int limit, boolean last) throws IOException {
+		this.fields = 0;
+		while (true) {
+			int s = p;
+			if (p < limit && this.buf.get(p) == '"') {
+				++p;
+				while (true) {
+					if (p >= limit) {
+						if (last)
+							throw error("unterminated quote");
+						return -1;
+					}
+					if (this.buf.get(p) == '"') {
+						if (p + 1 < limit && this.buf.get(p + 1) == '"') {
+							p += 2;
+							continue;
+						}
+						if (p + 1 >= limit && !last)
+							return -1;
+						++p;
+						break;
+					}
+					++p;
+				}
+			}
+			while (p < limit && this.buf.get(p) != ',' && this.buf.get(p) != '\n')
+				++p;
+			if (p >= limit && !last)
+				return -1;
+			int e = p;
+			if (e > s && this.buf.get(e - 1) == '\r')
+				--e;
+			addField(s, e);
+			if (p >= limit)
+				return limit;
+			if (this.buf.get(p) == '\n')
+				return p + 1;
+			++p;
+		}
+	}
+
+	private void addField(int s, int e) {
+		if (this.fields == this.start.length) {
+			this.start = Arrays.copyOf(this.start, this.fields * 2);
+			this.end = Arrays.copyOf(this.end, this.fields * 2);
+		}
+		this.start[this.fields] = s;
+		this.end[this.fields] = e;
+		++this.fields;
+	}
+
+	public int getFieldCount() {
+		return this.fields;
+	}
+
+	/**
+	 * @return the field as an int, parsed from the mapped bytes
+	 */
+	public int getInt(int field) throws IOException {
+		check(field);
+		int p = this.start[field];
+		int e = this.end[field];
+		while (p < e && this.buf.get(p) == ' ')
+			++p;
+		boolean negative = p < e && this.buf.get(p) == '-';
+		if (negative)
+			++p;
+		if (p >= e)
+			throw error("empty number in field " + (field + 1));
+		long v = 0;
+		for (; p < e; ++p) {
+			byte b = this.buf.get(p);
+			if (b == ' ')
+				break;
+			if (b < '0' || b > '9' || v > Integer.MAX_VALUE)
+				throw error("bad number in field " + (field + 1));
+			v = v * 10 + (b - '0');
+		}
+		return (int) (negative ? -v : v);
+	}
+
+	/**
+	 * @return the field as a string, unquoted, or null when it is empty
+	 */
+	public String getString(int field) throws IOException {
+		check(field);
+		int s = this.start[field];
+		int e = this.end[field];
+		if (s == e)
+			return null;
+		boolean quoted = this.buf.get(s) == '"';
+		if (quoted) {
+			++s;
+			--e;
+		}
+		int n = 0;
+		if (this.scratch.length < e - s)
+			this.scratch = new byte[Math.max(e - s, this.scratch.length * 2)];
+		for (int p = s; p < e; ++p) {
+			byte b = this.buf.get(p);
+			this.scratch[n++] = b;
+			if (quoted && b == '"')
+				++p;//the second quote of an escaped pair
+		}
+		return new String(this.scratch, 0, n, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the field without trailing blanks, as PostgreSQL compares CHAR(n)
+	 */
+	public String getChar(int field) throws IOException {
+		String v = getString(field);
+		if (v == null)
+			return null;
+		int n = v.length();
+		while (n > 0 && v.charAt(n - 1) == ' ')
+			--n;
+		return v.substring(0, n);
+	}
+
+	/**
+	 * @return the field as days since 1970-01-01; accepts M/D/YYYY, with an
+	 *         optional time that is ignored, or YYYY-MM-DD
+	 */
+	public int getDate(int field) throws IOException {
+		String v = getString(field);
+		if (v == null)
+			throw error("empty date in field " + (field + 1));
+		try {
+			int space = v.indexOf(' ');
+			String d = space < 0 ? v : v.substring(0, space);
+			String[] parts = d.split("[/-]");
+			LocalDate date = d.indexOf('-') > 0
+				? LocalDate.of(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]))
+				: LocalDate.of(Integer.parseInt(parts[2]), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+			return (int) date.toEpochDay();
+		} catch (RuntimeException e) {
+			throw error("bad date '" + v + "' in field " + (field + 1));
+		}
+	}
+
+	private void check(int field) throws IOException {
+		if (field >= this.fields)
+			throw error("missing field " + (field + 1));
+	}
+
+	private IOException error(String message) {
+		return new IOException(this.file.getName() + " record " + (this.line + 1) + ": " + message);
+	}
+}
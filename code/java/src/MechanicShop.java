@@ -11,20 +11,20 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Scanner;
-import java.util.Date;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -33,86 +33,233 @@ import java.util.Date;
  */
 
 public class MechanicShop{
-	//reference to physical database connection
-	private Connection _connection = null;
+	//SQL templates for the menu operations; each is prepared once per pooled connection
+	static final String INSERT_CUSTOMER = "INSERT INTO Customer VALUES (?, ?, ?, ?, ?)";
+	static final String INSERT_MECHANIC = "INSERT INTO Mechanic VALUES (?, ?, ?, ?)";
+	static final String INSERT_CAR = "INSERT INTO Car VALUES (?, ?, ?, ?)";
+	//Mechanic and Car are copied to every shard; the copies skip rows already there
+	static final String REPLICATE_MECHANIC = INSERT_MECHANIC + " ON CONFLICT (id) DO NOTHING";
+	static final String REPLICATE_CAR = INSERT_CAR + " ON CONFLICT (vin) DO NOTHING";
+	static final String INSERT_OWNS = "INSERT INTO Owns VALUES (?, ?, ?)";
+	//dates are bound as java.sql.Timestamp, so the partition key arrives typed
+	static final String INSERT_SERVICE_REQUEST = "INSERT INTO Service_Request VALUES (?, ?, ?, ?, ?, ?)";
+	static final String INSERT_CLOSED_RID = "INSERT INTO Closed_Rid VALUES (?, ?)";
+	static final String INSERT_CLOSED_REQUEST = "INSERT INTO Closed_Request VALUES (?, ?, ?, ?, ?, ?)";
+	//options 3 and 5 each write several tables in one statement, so one round trip and atomic
+	static final String ADD_CAR =
+		"WITH car AS (INSERT INTO Car VALUES (?, ?, ?, ?) RETURNING vin) " +
+		"INSERT INTO Owns SELECT ?, ?, car.vin FROM car";
+	//returns one row: the new wid, NULL when nothing was inserted, and whether the
+	//request exists, so a missing request is told apart from one that was already
+	//closed; the V5 Closed_Rid key stands in for a unique rid on the partitioned table
+	static final String CLOSE_SERVICE_REQUEST =
+		"WITH request AS (SELECT sr.rid, sr.customer_id FROM Service_Request sr WHERE sr.rid = ?), " +
+		"guard AS (INSERT INTO Closed_Rid (rid, wid) SELECT rid, ? FROM request ON CONFLICT (rid) DO NOTHING " +
+		"RETURNING rid, wid), " +
+		"closed AS (INSERT INTO Closed_Request SELECT guard.wid, guard.rid, ?, ?, ?, ? FROM guard " +
+		"RETURNING wid, rid, bill), " +
+		"billed AS (SELECT closed.wid, request.customer_id, closed.bill FROM closed, request), " +
+		"summary AS (INSERT INTO Customer_Bill_Summary AS s (customer_id, total_bill, closed_count) " +
+		"SELECT customer_id, bill, 1 FROM billed " +
+		"ON CONFLICT (customer_id) DO UPDATE SET total_bill = s.total_bill + EXCLUDED.total_bill, " +
+		"closed_count = s.closed_count + 1), " +
+		"low AS (INSERT INTO Customer_Low_Bill (wid, customer_id, bill) " +
+		"SELECT wid, customer_id, bill FROM billed WHERE bill < " + BillingAggregate.LOW_BILL + ") " +
+		"SELECT (SELECT wid FROM closed), EXISTS (SELECT 1 FROM request)";
+	//reports 6 and 10 read the aggregates kept by BillingAggregate rather than the full history
+	static final String REPORT_BILL_LESS_THAN_100 = "SELECT c.id, c.fname, c.lname, l.bill FROM Customer c, Customer_Low_Bill l WHERE c.id = l.customer_id ORDER BY l.bill DESC";
+	static final String REPORT_MORE_THAN_20_CARS = "SELECT c.id, c.fname, c.lname, count(o.customer_id) FROM Customer c JOIN Owns o ON c.id = o.customer_id GROUP BY c.id HAVING COUNT(o.customer_id) > 20";
+	static final String REPORT_CARS_BEFORE_1995 = "SELECT c.vin, c.year, c.make, c.model, sr.odometer FROM Car c, Service_Request sr WHERE c.vin = sr.car_vin AND c.year < 1995 AND sr.odometer > 50000 ORDER BY sr.odometer DESC";
+	static final String REPORT_K_MOST_SERVICED = "SELECT sr.car_vin, c.year, c.make, c.model, COUNT(sr.car_vin) FROM Service_Request sr, Car c WHERE c.vin = sr.car_vin GROUP BY sr.car_vin, c.year, c.make, c.model ORDER BY COUNT(sr.car_vin) DESC LIMIT ?";
+	static final String REPORT_TOTAL_BILL = "SELECT c.fname, c.lname, s.total_bill AS sum FROM Customer c, Customer_Bill_Summary s WHERE c.id = s.customer_id ORDER BY s.total_bill DESC";
+	//date-range variants of reports 6, 9 and 10 over [from, to); the bounds on
+	//the partition key let the planner skip every month outside the range, and
+	//a request is never opened after it was closed, so sr.date < to as well
+	static final String REPORT_BILL_LESS_THAN_100_BETWEEN = "SELECT c.id, c.fname, c.lname, cr.bill FROM Customer c, Service_Request sr, Closed_Request cr WHERE cr.date >= ? AND cr.date < ? AND cr.bill < " + BillingAggregate.LOW_BILL + " AND sr.rid = cr.rid AND sr.date < ? AND c.id = sr.customer_id ORDER BY cr.bill DESC";
+	static final String REPORT_K_MOST_SERVICED_BETWEEN = "SELECT sr.car_vin, c.year, c.make, c.model, COUNT(sr.car_vin) FROM Service_Request sr, Car c WHERE sr.date >= ? AND sr.date < ? AND c.vin = sr.car_vin GROUP BY sr.car_vin, c.year, c.make, c.model ORDER BY COUNT(sr.car_vin) DESC LIMIT ?";
+	static final String REPORT_TOTAL_BILL_BETWEEN = "SELECT c.fname, c.lname, SUM(cr.bill) AS sum FROM Customer c, Service_Request sr, Closed_Request cr WHERE cr.date >= ? AND cr.date < ? AND sr.rid = cr.rid AND sr.date < ? AND c.id = sr.customer_id GROUP BY c.id, c.fname, c.lname ORDER BY sum DESC";
+
+	//reference to the pool of physical database connections
+	private ConnectionPool _pool = null;
+	//the databases customers are spread over; _pool is shard 0
+	private ShardRouter _shards = null;
+	//scatter-gather runner of the reports when there are several shards
+	private ShardedReports _sharded = null;
+	//block allocator for the primary keys this client inserts
+	private IdAllocator _ids = null;
+	//per-customer bill totals maintained alongside Closed_Request
+	private BillingAggregate _billing = null;
+	//per-VIN service counts answering report 9 in memory
+	private ServiceCounter _services = null;
+	//known customer, mechanic, car and ownership keys for intake validation
+	private KeyCache _keys = null;
+	//which rids exist and which are closed, for instant close checks
+	private RequestBitmap _requests = null;
+	//write-behind log of new service requests, when mechanicshop.journal is set
+	private IntakeJournal _journal = null;
+	//replicas the reports are read from, falling back to _pool
+	private ReplicaRouter _router = null;
+	//lowest schema version over the shards, 0 when none has shop tables yet
+	private int _schemaVersion = 0;
+	//rows fetched per round trip by the streaming query API
+	private int _fetchSize = Integer.getInteger("mechanicshop.fetch.size", 1000);
+	//latency, row and error counts per operation and per SQL template
+	private final Metrics _metrics = Metrics.fromProperties();
 	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
 	
 	public MechanicShop(String dbname, String dbport, String user, String passwd) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// constructs the connection URL of the primary, unless given in full
+			String url = System.getProperty("mechanicshop.url", "jdbc:postgresql://localhost:" + dbport + "/" + dbname);
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
-	        System.out.println("Done");
+			// sizes the pool and statement cache from -Dmechanicshop.* properties
+			this._pool = new ConnectionPool(url, user, passwd,
+				Integer.getInteger("mechanicshop.pool.size", 4),
+				Integer.getInteger("mechanicshop.stmtcache.size", 64),
+				Long.getLong("mechanicshop.pool.timeout", 30000L));
+
+			// shards from -Dmechanicshop.shards; shard 0 is the database above
+			this._shards = ShardRouter.fromProperties(this._pool, user, passwd);
+			this._sharded = new ShardedReports(this, this._shards, this._fetchSize);
+
+			// reads the schema version of every shard, which also makes a bad URL fail right away
+			for (ConnectionPool shard : this._shards.all()) {
+				int version = SchemaMigrator.currentVersion(shard);
+				if (version > 0 && (this._schemaVersion == 0 || version < this._schemaVersion))
+					this._schemaVersion = version;
+			}//end for
+			// replicas from -Dmechanicshop.replicas serve the reports once their lag is known
+			this._router = ReplicaRouter.fromProperties(this._pool, user, passwd);
+			this._router.start();
+			this._ids = new IdAllocator(this._shards, Integer.getInteger("mechanicshop.id.blocksize", 50));
+			this._billing = new BillingAggregate(this._shards);
+			this._billing.ensureSchema();
+			this._services = new ServiceCounter(this._shards);
+			this._keys = new KeyCache(this._shards, Integer.getInteger("mechanicshop.cache.size", 10000));
+			this._requests = new RequestBitmap(this._shards);
+			// an empty or outdated database is seeded on first use, after --load or --migrate
+			if (this._schemaVersion >= SchemaMigrator.REQUIRED_VERSION) {
+				// this month and the next ones get their partitions before any request is written
+				for (ConnectionPool shard : this._shards.all())
+					SchemaMigrator.ensurePartitions(shard, Integer.getInteger("mechanicshop.partitions.ahead", 12));
+				// requests journaled but not committed by the last run are inserted before the counters load
+				String journal = System.getProperty("mechanicshop.journal", "");
+				if (!journal.isEmpty()) {
+					// the bitmap and counter take journaled requests once they are committed
+					IntakeJournal.Listener listener = new IntakeJournal.Listener() {
+						public void committed(int rid, int customerId, String vin) throws SQLException {
+							MechanicShop.this._requests.opened (rid, MechanicShop.this._shards.shardOf (customerId));
+							MechanicShop.this._services.recordService (vin);
+						}
+					};
+					this._journal = IntakeJournal.open(new File(journal), this._shards, this._metrics, listener,
+						Integer.getInteger("mechanicshop.journal.batch", 500),
+						Long.getLong("mechanicshop.pool.timeout", 30000L));
+					if (this._journal.getRecovered() > 0)
+						System.out.println(this._journal.getRecovered() + " journaled service requests committed");
+				}//end if
+				this._services.reseed();
+				this._requests.rebuild();
+			}//end if
+			System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
-	        System.out.println("Make sure you started postgres on this machine");
-	        System.exit(-1);
+			System.out.println("Make sure you started postgres on this machine");
+			System.exit(-1);
 		}
 	}
+
+	/**
+	 * Method to refuse a database whose schema predates the one the client
+	 * writes, e.g. without the V5 Closed_Rid table every close would fail.
+	 * A database without shop tables passes.
+	 * 
+	 * @throws java.sql.SQLException when a shard is below
+	 *         SchemaMigrator.REQUIRED_VERSION (SQLSTATE 55000)
+	 */
+	public void requireCurrentSchema () throws SQLException {
+		if (this._schemaVersion > 0 && this._schemaVersion < SchemaMigrator.REQUIRED_VERSION)
+			throw new SQLException ("The database schema is at version " + this._schemaVersion + ", this client needs version " +
+				SchemaMigrator.REQUIRED_VERSION + "; run --migrate first", "55000");
+	}
+
+	/**
+	 * Method to bind positional parameters to a prepared statement.
+	 * 
+	 * @param stmt the prepared statement
+	 * @param params the parameter values, in order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	static void bind (PreparedStatement stmt, Object... params) throws SQLException {
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject (i + 1, params[i]);
+	}
 	
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL template
+	 * @param params values for the ? placeholders of the template
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public void executeUpdate (String sql, Object... params) throws SQLException { 
+		executeUpdate (this._pool, sql, params);
+	}//end executeUpdate
 
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	/**
+	 * Method to execute an update SQL statement on one shard.
+	 * 
+	 * @param pool the pool of the shard
+	 * @param sql the input SQL template
+	 * @param params values for the ? placeholders of the template
+	 * @throws java.sql.SQLException when update failed
+	 */
+	void executeUpdate (ConnectionPool pool, String sql, Object... params) throws SQLException {
+		// leases a connection and its cached statement for this template
+		try (Metrics.Span span = this._metrics.statement (sql);
+			PooledConnection conn = pool.acquire ()) {
+			PreparedStatement stmt = conn.prepare (sql);
+			bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
-	}//end executeUpdate
+			// issues the update instruction
+			span.done (conn.executeUpdate (stmt));
+		}
+	}
 
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query template
+	 * @param params values for the ? placeholders of the template
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
-
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//writes through one buffered TSV renderer rather than a print per cell
+		ResultRenderer renderer;
+		try {
+			renderer = ResultRenderer.create ("tsv", null, 0, in);
+		} catch (IOException e) {
+			throw new SQLException (e);
+		}
+		try {
+			return (int) executeQueryAndStream (query, renderer, params);
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException (e);
+		} finally {
+			try {
+				renderer.finish ();
+			} catch (IOException e) {
+				// ignored.
 			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+		}
 	}
 	
 	/**
@@ -120,61 +267,353 @@ public class MechanicShop{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query template
+	 * @param params values for the ? placeholders of the template
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		try (Metrics.Span span = this._metrics.statement (query);
+			PooledConnection conn = this._pool.acquire ()) {
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = conn.executeQuery (stmt); 
+			try {
+				/*
+				 * obtains the metadata object for the returned result set.  The metadata 
+				 * contains row and column info. 
+				*/ 
+				ResultSetMetaData rsmd = rs.getMetaData (); 
+				int numCol = rsmd.getColumnCount (); 
+			 
+				//iterates through the result set and saves the data returned by the query. 
+				List<List<String>> result  = new ArrayList<List<String>>(); 
+				while (rs.next()){
+					List<String> record = new ArrayList<String>(); 
+					for (int i=1; i<=numCol; ++i) 
+						record.add(rs.getString (i)); 
+					result.add(record); 
+				}//end while 
+				span.done (result.size ());
+				return result; 
+			} finally {
+				rs.close ();
+			}
+		}
 	}//end executeQueryAndReturnResult
 	
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * stream its rows to a handler one at a time.  The query runs inside a
+	 * transaction with a fetch size, so the driver holds a server-side cursor
+	 * and keeps at most one fetch of rows in memory, however large the result.
+	 * 
+	 * @param query the input query template
+	 * @param handler receives every row, in order
+	 * @param params values for the ? placeholders of the template
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws Exception when the handler fails
+	 */
+	public long executeQueryAndStream (String query, RowHandler handler, Object... params) throws Exception {
+		return stream (false, query, handler, params);
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to stream a read-only query like executeQueryAndStream, on a
+	 * replica when one is in rotation.
+	 * 
+	 * @param query the input query template
+	 * @param handler receives every row, in order
+	 * @param params values for the ? placeholders of the template
+	 * @return the number of rows returned
+	 * @throws Exception when the query or the handler fails
+	 */
+	public long executeReadQueryAndStream (String query, RowHandler handler, Object... params) throws Exception {
+		return stream (true, query, handler, params);
+	}
+
+	/**
+	 * Method to stream a query like executeQueryAndStream, on one shard.
+	 * 
+	 * @param shard the shard to run on
+	 * @return the number of rows returned
+	 * @throws Exception when the query or the handler fails
+	 */
+	long streamShard (int shard, String query, RowHandler handler, Object... params) throws Exception {
+		try (Metrics.Span span = this._metrics.statement (query);
+			PooledConnection conn = this._shards.get (shard).acquire ()) {
+			return span.done (stream (conn, query, handler, params));
+		}
+	}
+
+	private long stream (boolean read, String query, RowHandler handler, Object... params) throws Exception {
+		//the span covers the handler too, i.e. the time to render every row
+		try (Metrics.Span span = this._metrics.statement (query);
+			PooledConnection conn = read ? this._router.acquireRead () : this._pool.acquire ()) {
+			return span.done (stream (conn, query, handler, params));
+		}
+	}
+
+	private long stream (PooledConnection conn, String query, RowHandler handler, Object... params) throws Exception {
+		//the driver only uses a cursor outside autocommit
+		conn.getConnection ().setAutoCommit (false);
+		PreparedStatement stmt = conn.prepare (query);
+		stmt.setFetchSize (this._fetchSize);
+		bind (stmt, params);
+
+		ResultSet rs = conn.executeQuery (stmt);
+		try {
+			Row row = new Row (rs);
+			while (row.advance ())
+				handler.handle (row);
+			conn.commit ();
+			return row.getRowNumber ();
+		} finally {
+			rs.close ();
+		}
+	}
+
+	/**
+	 * @return the number of rows fetched per round trip by streaming queries
+	 */
+	public int getFetchSize() {
+		return this._fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this._fetchSize = fetchSize;
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * render its rows with the configured renderer: the format comes from
+	 * mechanicshop.format (tsv, csv, json or table, default tsv), the
+	 * destination from mechanicshop.output (default standard out) and
+	 * terminal output is paged every mechanicshop.page.size lines.
+	 * 
+	 * @param query the input query template
+	 * @param params values for the ? placeholders of the template
+	 * @return the number of rows rendered
+	 * @throws Exception when the query or the output fails
+	 */
+	public long executeQueryAndRender (String query, Object... params) throws Exception {
+		ResultRenderer renderer = newRenderer ();
+		try {
+			return executeQueryAndStream (query, renderer, params);
+		} catch (ResultRenderer.Stopped e) {
+			return -1;
+		} finally {
+			renderer.finish ();
+		}
+	}//end executeQueryAndRender
+
+	/**
+	 * Method to render one of the menu reports (options 6-10).  Report 9 is
+	 * answered by the in-memory service counter unless -Dmechanicshop.topk=sql.
+	 * 
+	 * @param report the menu number of the report
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @return the number of rows rendered
+	 * @throws Exception when the report fails
+	 */
+	public long renderReport (int report, int k) throws Exception {
+		ResultRenderer renderer = newRenderer ();
+		try {
+			return streamReport (report, k, renderer);
+		} catch (ResultRenderer.Stopped e) {
+			return -1;
+		} finally {
+			renderer.finish ();
+		}
+	}
+
+	/**
+	 * Method to run one of the menu reports (options 6-10) and hand its rows
+	 * to a handler.  With several shards the report runs on all of them and
+	 * the partial results are merged.
+	 * 
+	 * @param report the menu number of the report
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @param handler receives every row, in order
+	 * @return the number of rows handed over
+	 * @throws Exception when the report or the handler fails
+	 */
+	public long streamReport (int report, int k, RowHandler handler) throws Exception {
+		try (Metrics.Span span = this._metrics.operation ("report-" + report)) {
+			if (report == 9 && !System.getProperty ("mechanicshop.topk", "memory").equals ("sql"))
+				return span.done (this._services.top (k, handler));
+			return span.done (streamReportQuery (report, k, handler));
+		}
+	}
+
+	/**
+	 * Method to run the SQL of a menu report, never the in-memory counter.
+	 * 
+	 * @return the number of rows handed over
+	 * @throws Exception when the report or the handler fails
+	 */
+	long streamReportQuery (int report, int k, RowHandler handler) throws Exception {
+		if (this._shards.isSharded ())
+			return this._sharded.report (report, k, handler);
+		if (report == 9)
+			return executeReadQueryAndStream (REPORT_K_MOST_SERVICED, handler, k);
+		return executeReadQueryAndStream (reportQuery (report), handler);
+	}
+
+	/**
+	 * Method to run the date-range variant of report 6, 9 or 10 over the
+	 * requests closed (6 and 10) or opened (9) in [from, to).  These read
+	 * the partitioned history directly, one partition per month in range,
+	 * instead of the all-time aggregates.
+	 * 
+	 * @param report 6, 9 or 10
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @param from the first instant included
+	 * @param to the first instant excluded
+	 * @param handler receives every row, in order
+	 * @return the number of rows handed over
+	 * @throws Exception when the report or the handler fails
+	 */
+	public long streamReport (int report, int k, Timestamp from, Timestamp to, RowHandler handler) throws Exception {
+		try (Metrics.Span span = this._metrics.operation ("report-" + report + "-range")) {
+			if (this._shards.isSharded ())
+				return span.done (this._sharded.report (report, k, from, to, handler));
+			switch (report) {
+				case 6: return span.done (executeReadQueryAndStream (REPORT_BILL_LESS_THAN_100_BETWEEN, handler, from, to, to));
+				case 9: return span.done (executeReadQueryAndStream (REPORT_K_MOST_SERVICED_BETWEEN, handler, from, to, k));
+				case 10: return span.done (executeReadQueryAndStream (REPORT_TOTAL_BILL_BETWEEN, handler, from, to, to));
+				default:
+					throw new IllegalArgumentException ("No date-range variant of report " + report);
+			}
+		}
+	}
+
+	/**
+	 * Method to render the date-range variant of report 6, 9 or 10.
+	 * 
+	 * @return the number of rows rendered
+	 * @throws Exception when the report fails
+	 */
+	public long renderReport (int report, int k, Timestamp from, Timestamp to) throws Exception {
+		ResultRenderer renderer = newRenderer ();
+		try {
+			return streamReport (report, k, from, to, renderer);
+		} catch (ResultRenderer.Stopped e) {
+			return -1;
+		} finally {
+			renderer.finish ();
+		}
+	}
+
+	/**
+	 * Method to read a date as written in the CSV files (10/22/2016 00:00)
+	 * or in ISO form (2016-10-22, 2016-10-22 08:30[:00]).
+	 * 
+	 * @param text the date, with or without a time of day
+	 * @return the instant, in the local time zone
+	 * @throws IllegalArgumentException when the text is neither form
+	 */
+	static Timestamp parseTimestamp (String text) {
+		String s = text.trim ();
+		String day = s;
+		String time = "00:00:00";
+		int space = s.indexOf (' ');
+		if (space < 0)
+			space = s.indexOf ('T');
+		if (space > 0) {
+			day = s.substring (0, space);
+			time = s.substring (space + 1).trim ();
+			if (time.length () == 5)
+				time = time + ":00";
+		}
+		try {
+			if (day.indexOf ('/') > 0) {
+				String[] mdy = day.split ("/");
+				if (mdy.length != 3)
+					throw new IllegalArgumentException ("Bad date " + text);
+				day = String.format ("%04d-%02d-%02d", Integer.parseInt (mdy[2]), Integer.parseInt (mdy[0]), Integer.parseInt (mdy[1]));
+			}
+			return Timestamp.valueOf (day + " " + time);
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException ("Bad date " + text + ", expected M/D/YYYY or YYYY-MM-DD [HH:MM]");
+		}
+	}
+
+	/**
+	 * @param report the menu number of a report (6-10)
+	 * @return its SQL template; report 9 takes k as its only parameter
+	 */
+	static String reportQuery (int report) {
+		switch (report) {
+			case 6: return REPORT_BILL_LESS_THAN_100;
+			case 7: return REPORT_MORE_THAN_20_CARS;
+			case 8: return REPORT_CARS_BEFORE_1995;
+			case 9: return REPORT_K_MOST_SERVICED;
+			case 10: return REPORT_TOTAL_BILL;
+			default:
+				throw new IllegalArgumentException ("No report " + report);
+		}
+	}
+
+	/**
+	 * @return a renderer configured from the mechanicshop.format, .output and
+	 *         .page.size properties
+	 * @throws java.io.IOException when the output file cannot be opened
+	 */
+	public ResultRenderer newRenderer () throws IOException {
+		return createRenderer ();
+	}
+
+	static ResultRenderer createRenderer () throws IOException {
+		return ResultRenderer.create (
+			System.getProperty ("mechanicshop.format", "tsv"),
+			System.getProperty ("mechanicshop.output"),
+			Integer.getInteger ("mechanicshop.page.size", System.console () != null ? 40 : 0),
+			in);
+	}
+
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
 	 * method issues the query to the DBMS and returns the number of results
 	 * 
-	 * @param query the input query string
+	 * @param query the input query template
+	 * @param params values for the ? placeholders of the template
+	 * @return the number of rows returned
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return executeQuery (this._pool, query, params);
+	}
+
+	/**
+	 * Method to execute a query on one shard and return the number of results.
+	 * 
+	 * @param pool the pool of the shard
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	int executeQuery (ConnectionPool pool, String query, Object... params) throws SQLException {
+		try (Metrics.Span span = this._metrics.statement (query);
+			PooledConnection conn = pool.acquire ()) {
+			PreparedStatement stmt = conn.prepare (query);
+			bind (stmt, params);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = conn.executeQuery (stmt);
 
-		int rowCount = 0;
+			int rowCount = 0;
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//iterates through the result set and count nuber of results.
+			if(rs.next()){
+				rowCount++;
+			}//end while
+			rs.close ();
+			span.done (rowCount);
+			return rowCount;
+		}
 	}
 	
 	/**
@@ -188,24 +627,309 @@ public class MechanicShop{
 	 */
 	
 	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+		try (PooledConnection conn = this._pool.acquire ()) {
+			PreparedStatement stmt = conn.prepare ("Select currval(?)");
+			bind (stmt, sequence);
+
+			ResultSet rs = conn.executeQuery (stmt);
+			try {
+				if (rs.next()) return rs.getInt(1);
+				return -1;
+			} finally {
+				rs.close ();
+			}
+		}
+	}
+
+	/**
+	 * Method to allocate the next primary key of a table from its sequence
+	 * block, so inserts need no SELECT MAX round trip.
+	 * 
+	 * @param table the table that will receive the row
+	 * @return the new primary key
+	 * @throws java.sql.SQLException when a new id block cannot be reserved
+	 */
+	public int nextId(IdAllocator.Table table) throws SQLException {
+		return this._ids.next(table);
+	}
+
+	/**
+	 * Unit of work run by executeTransaction on a single pooled connection.
+	 */
+	public interface Transaction<T> {
+		T run(PooledConnection conn) throws SQLException;
+	}
+
+	/**
+	 * Method to run a unit of work as one transaction.  The work is committed
+	 * if it returns normally and rolled back if it throws.
+	 * 
+	 * @param work the statements to run
+	 * @return whatever the work returns
+	 * @throws java.sql.SQLException when the work or the commit fails
+	 */
+	public <T> T executeTransaction(Transaction<T> work) throws SQLException {
+		try (PooledConnection conn = this._pool.acquire ()) {
+			conn.getConnection ().setAutoCommit (false);
+			T result = work.run (conn);
+			conn.commit ();
+			return result;
+		}//closing the lease rolls back anything left uncommitted
+	}
+
+	/**
+	 * Method to add a customer (option 1).
+	 * 
+	 * @return the new customer id
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addCustomer(String fname, String lname, String phone, String address) throws SQLException {
+		try (Metrics.Span op = this._metrics.operation ("add-customer")) {
+			int id = nextId (IdAllocator.Table.CUSTOMER);
+			executeUpdate (this._shards.forCustomer (id), INSERT_CUSTOMER, id, fname, lname, phone, address);
+			this._keys.addCustomer (id);
+			op.done (1);
+			return id;
+		}
+	}
+
+	/**
+	 * Method to add a mechanic (option 2).  The mechanic is written to shard
+	 * 0 first and then copied to the other shards.
+	 * 
+	 * @return the new mechanic id
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addMechanic(String fname, String lname, int experience) throws SQLException {
+		try (Metrics.Span op = this._metrics.operation ("add-mechanic")) {
+			int id = nextId (IdAllocator.Table.MECHANIC);
+			executeUpdate (INSERT_MECHANIC, id, fname, lname, experience);
+			for (int shard = 1; shard < this._shards.count (); ++shard)
+				executeUpdate (this._shards.get (shard), REPLICATE_MECHANIC, id, fname, lname, experience);
+			this._keys.addMechanic (id);
+			op.done (1);
+			return id;
+		}
+	}
+
+	/**
+	 * Method to add a car and its ownership by a customer (option 3).  Both
+	 * are written to the customer's shard, then the car is copied to the
+	 * other shards.
+	 * 
+	 * @return the new ownership id
+	 * @throws java.sql.SQLException when the insert fails
+	 */
+	public int addCar(int customerId, String vin, String make, String model, int year) throws SQLException {
+		try (Metrics.Span op = this._metrics.operation ("add-car")) {
+			int id = nextId (IdAllocator.Table.OWNS);
+			int home = this._shards.shardOf (customerId);
+			executeUpdate (this._shards.get (home), ADD_CAR, vin, make, model, year, id, customerId);
+			for (int shard = 0; shard < this._shards.count (); ++shard)
+				if (shard != home)
+					executeUpdate (this._shards.get (shard), REPLICATE_CAR, vin, make, model, year);
+			this._keys.addCar (customerId, vin);
+			op.done (2);
+			return id;
+		}
+	}
+
+	/**
+	 * Method to open a service request (option 4).  The customer must own
+	 * the car, which is checked against the key cache first.  With the
+	 * intake journal on, the request is committed in the background and the
+	 * id is returned once the journal is on disk.
+	 * 
+	 * @return the new request id
+	 * @throws java.sql.SQLException when the customer does not own the car
+	 *         (SQLSTATE 23503), the insert fails, or the journal cannot be
+	 *         written (SQLSTATE 58030)
+	 */
+	public int insertServiceRequest(int customerId, String vin, Timestamp date, int odometer, String complain) throws SQLException {
+		try (Metrics.Span op = this._metrics.operation ("insert-request")) {
+			if (!this._keys.owns (customerId, vin))
+				throw new SQLException ("Customer " + customerId + " does not own car " + vin, "23503");
+			int id = nextId (IdAllocator.Table.SERVICE_REQUEST);
+			int shard = this._shards.shardOf (customerId);
+			if (this._journal != null) {
+				try {
+					this._journal.append (id, customerId, vin, date, odometer, complain);
+				} catch (IOException e) {
+					throw new SQLException ("Cannot journal service request: " + e.getMessage (), "58030", e);
+				}
+				//the journal's listener records the request once it is committed
+			} else {
+				executeUpdate (this._shards.get (shard), INSERT_SERVICE_REQUEST, id, customerId, vin, date, odometer, complain);
+				this._requests.opened (id, shard);
+				this._services.recordService (vin);
+			}
+			op.done (1);
+			return id;
+		}
+	}
+
+	/**
+	 * Method to close a service request (option 5).
+	 * 
+	 * @return the new closed request id, or -1 when the request was already closed
+	 * @throws java.sql.SQLException when the request or the mechanic is
+	 *         unknown (SQLSTATE 23503) or the insert fails
+	 */
+	public int closeServiceRequest(int rid, int mid, Timestamp date, String comment, int bill) throws SQLException {
+		try (Metrics.Span op = this._metrics.operation ("close-request")) {
+			//a request still in the journal must reach the database, and the bitmap, first
+			if (this._journal != null)
+				this._journal.awaitCommitted (rid);
+			RequestBitmap.State state = this._requests.state (rid);
+			if (state == RequestBitmap.State.CLOSED) {
+				op.done (0);
+				return -1;
+			}
+			if (state == RequestBitmap.State.UNKNOWN)
+				throw new SQLException ("No service request " + rid, "23503");
+			if (!this._keys.mechanicExists (mid))
+				throw new SQLException ("No mechanic " + mid, "23503");
+			int wid = nextId (IdAllocator.Table.CLOSED_REQUEST);
+			boolean inserted = closeServiceRequest (wid, rid, mid, date, comment, bill);
+			//either way the request is closed now; another client may have won the race
+			this._requests.closed (rid);
+			if (!inserted) {
+				op.done (0);
+				return -1;
+			}
+			op.done (1);
+			return wid;
+		}
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to insert a Closed_Request row and fold its bill into the
+	 * billing aggregate, atomically and in one round trip, on the shard of
+	 * the request.  A request that is already closed is left alone.
+	 * 
+	 * @return false when the request was already closed
+	 * @throws java.sql.SQLException when the request is unknown (SQLSTATE
+	 *         23503) or the insert fails, e.g. for an unknown mechanic
+	 */
+	public boolean closeServiceRequest(int wid, int rid, int mid, Timestamp date, String comment, int bill) throws SQLException {
+		int shard = this._requests.shardOf (rid);
+		if (shard < 0)
+			throw new SQLException ("No service request " + rid, "23503");
+		try (Metrics.Span span = this._metrics.statement (CLOSE_SERVICE_REQUEST);
+			PooledConnection conn = this._shards.get (shard).acquire ()) {
+			PreparedStatement stmt = conn.prepare (CLOSE_SERVICE_REQUEST);
+			bind (stmt, rid, wid, mid, date, comment, bill);
+			ResultSet rs = conn.executeQuery (stmt);
+			try {
+				rs.next ();
+				rs.getInt (1);
+				boolean inserted = !rs.wasNull ();
+				if (!inserted && !rs.getBoolean (2))
+					throw new SQLException ("No service request " + rid, "23503");
+				span.done (inserted ? 1 : 0);
+				return inserted;
+			} finally {
+				rs.close ();
+			}
+		}
+	}
+
+	/**
+	 * @return the latency metrics of this client
+	 */
+	public Metrics getMetrics() {
+		return this._metrics;
+	}
+
+	/**
+	 * @return the open and closed request bitmap
+	 */
+	public RequestBitmap getRequestBitmap() {
+		return this._requests;
+	}
+
+	/**
+	 * @return the cache of customer, mechanic, car and ownership keys
+	 */
+	public KeyCache getKeyCache() {
+		return this._keys;
+	}
+
+	/**
+	 * @return the in-memory service counter behind report 9
+	 */
+	public ServiceCounter getServiceCounter() {
+		return this._services;
+	}
+
+	/**
+	 * @return the maintained billing aggregate
+	 */
+	public BillingAggregate getBillingAggregate() {
+		return this._billing;
+	}
+
+	/**
+	 * @return the id allocator shared by every operation of this client
+	 */
+	public IdAllocator getIdAllocator() {
+		return this._ids;
+	}
+
+	/**
+	 * @return the connection pool shared by every operation of this client
+	 */
+	public ConnectionPool getPool() {
+		return this._pool;
+	}
+
+	/**
+	 * @return the write-behind intake journal, or null when it is off
+	 */
+	public IntakeJournal getIntakeJournal() {
+		return this._journal;
+	}
+
+	/**
+	 * @return the shards customers are spread over
+	 */
+	public ShardRouter getShardRouter() {
+		return this._shards;
+	}
+
+	/**
+	 * @return the router choosing where read-only reports run
+	 */
+	public ReplicaRouter getReplicaRouter() {
+		return this._router;
+	}
+
+	/**
+	 * Method to close the pooled physical connections and write the last
+	 * metrics snapshot.
 	 */
 	public void cleanup(){
-		try{
-			if (this._connection != null){
-				this._connection.close ();
+		if (this._journal != null){
+			// commits what is still queued; anything left is replayed on the next start
+			this._journal.close ();
+			System.out.println ("\n" + this._journal.stats ());
+		}//end if
+		this._metrics.close ();
+		if (this._pool != null){
+			System.out.println ("\n" + this._pool.stats ());
+			System.out.println (this._keys.stats () + " " + this._requests.stats ());
+			if (this._router != null){
+				if (this._router.hasReplicas ())
+					System.out.println (this._router.stats ());
+				this._router.close ();
+			}//end if
+			if (this._shards != null){
+				if (this._shards.isSharded ())
+					System.out.println (this._shards.stats ());
+				this._shards.close ();
 			}//end if
-		}catch (SQLException e){
-	         // ignored.
-		}//end try
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -214,10 +938,22 @@ public class MechanicShop{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + MechanicShop.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [<mode> <mode args>]\n" +
+				"Modes:\n" +
+				"  --load [<csv dir>]    truncate and bulk load the shop tables (default ../data)\n" +
+				"  --rebuild-aggregates  recompute the billing aggregates from the service history\n" +
+				"  --migrate [<sql dir>] apply the versioned schema scripts (default ../sql)\n" +
+				"  --explain [<out dir>] save EXPLAIN (ANALYZE, BUFFERS) plans of reports 6-10 (default plans)\n" +
+				"  --batch <file|->      run the JSON or CSV operations in a file or stdin, one per line\n" +
+				"  --serve [<port>]      serve the operations over HTTP/JSON on localhost (default 8080)\n" +
+				"  --reports [<out dir>] run reports 6-10 concurrently, one file each (default reports)\n" +
+				"  --report <6|9|10> <from> <to>  render a report over [from, to), e.g. 2016-01-01 2016-04-01\n" +
+				"  --export <6-10> [<file>]   COPY one report to CSV, gzipped for *.gz, - for stdout (default report<N>.csv)\n" +
+				"  --export-snapshot [<dir>]  COPY the shop tables to CSV for ColumnarSnapshot (default snapshot)\n" +
+				"  --columnar-verify [<dir>]  compare ColumnarSnapshot reports on a CSV dir with SQL (default ../data)");
 			return;
 		}//end if
 		
@@ -240,6 +976,15 @@ public class MechanicShop{
 			String user = args[2];
 			
 			esql = new MechanicShop (dbname, dbport, user, "");
+			// only --migrate may run against an outdated schema
+			if (args.length <= 3 || !args[3].equals("--migrate"))
+				esql.requireCurrentSchema ();
+
+			// a mode argument runs one non-interactive job instead of the menu
+			if (args.length > 3) {
+				runMode(esql, args);
+				return;
+			}//end if
 			
 			boolean keepon = true;
 			while(keepon){
@@ -289,6 +1034,103 @@ public class MechanicShop{
 		}
 	}
 
+	//modes that read or write the tables of a single database directly
+	static final List<String> SINGLE_DATABASE_MODES = Arrays.asList(
+		"--load", "--batch", "--export", "--export-snapshot", "--columnar-verify");
+
+	/**
+	 * Method to run the non-interactive job named by args[3].
+	 * 
+	 * @param esql the connected client
+	 * @param args the command line arguments
+	 * @throws Exception when the job fails
+	 */
+	static void runMode(MechanicShop esql, String[] args) throws Exception {
+		String mode = args[3];
+		if (esql.getShardRouter().isSharded() && SINGLE_DATABASE_MODES.contains(mode))
+			throw new SQLException(mode + " works on one database; run it per shard without mechanicshop.shards", "0A000");
+		if (mode.equals("--load")) {
+			File dir = new File(args.length > 4 ? args[4] : "../data");
+			new BulkLoader(esql, dir, Integer.getInteger("mechanicshop.load.threads", 3)).load();
+		} else if (mode.equals("--rebuild-aggregates")) {
+			esql.getBillingAggregate().rebuild();
+			System.out.println("Billing aggregates rebuilt");
+		} else if (mode.equals("--migrate")) {
+			File dir = new File(args.length > 4 ? args[4] : "../sql");
+			for (int shard = 0; shard < esql.getShardRouter().count(); ++shard) {
+				int applied = new SchemaMigrator(esql.getShardRouter().get(shard), dir).migrate();
+				int created = SchemaMigrator.ensurePartitions(esql.getShardRouter().get(shard),
+					Integer.getInteger("mechanicshop.partitions.ahead", 12));
+				System.out.println(applied + " schema scripts applied, " + created + " month partitions created" +
+					(esql.getShardRouter().isSharded() ? " on shard " + shard : ""));
+			}
+		} else if (mode.equals("--explain")) {
+			File dir = new File(args.length > 4 ? args[4] : "plans");
+			new PlanCapture(esql.getPool(), dir).capture();
+		} else if (mode.equals("--batch")) {
+			if (args.length < 5)
+				throw new Exception("--batch needs an input file, or - for stdin");
+			String rejects = System.getProperty("mechanicshop.batch.rejects",
+				args[4].equals("-") ? "rejects.txt" : args[4] + ".rejects");
+			BatchRunner.run(esql, args[4], rejects, Integer.getInteger("mechanicshop.batch.size", 500));
+		} else if (mode.equals("--reports")) {
+			File dir = new File(args.length > 4 ? args[4] : "reports");
+			ReportRunner runner = new ReportRunner(esql, dir, System.getProperty("mechanicshop.format", "tsv"),
+				Long.getLong("mechanicshop.reports.timeout", 60000L),
+				Boolean.getBoolean("mechanicshop.reports.snapshot"));
+			if (!runner.runAll(Integer.getInteger("mechanicshop.reports.k", 10)))
+				throw new Exception("Not every report completed");
+		} else if (mode.equals("--report")) {
+			if (args.length < 7)
+				throw new Exception("--report needs a report number (6, 9 or 10) and a from and to date");
+			esql.renderReport(Integer.parseInt(args[4]), Integer.getInteger("mechanicshop.reports.k", 10),
+				parseTimestamp(args[5]), parseTimestamp(args[6]));
+		} else if (mode.equals("--export")) {
+			if (args.length < 5)
+				throw new Exception("--export needs a report number, 6-10");
+			int report = Integer.parseInt(args[4]);
+			String path = args.length > 5 ? args[5] : ReportExporter.defaultPath(report);
+			long start = System.nanoTime();
+			long rows = new ReportExporter(esql, !System.getProperty("mechanicshop.export.header", "true").equals("false"))
+				.export(report, Integer.getInteger("mechanicshop.reports.k", 10), path);
+			System.err.printf("%d rows exported to %s in %.1f ms%n", rows, path, (System.nanoTime() - start) / 1e6);
+		} else if (mode.equals("--export-snapshot")) {
+			ColumnarSnapshot.export(esql.getReplicaRouter().readPool(), new File(args.length > 4 ? args[4] : "snapshot"));
+		} else if (mode.equals("--columnar-verify")) {
+			ColumnarSnapshot snapshot = ColumnarSnapshot.load(new File(args.length > 4 ? args[4] : "../data"));
+			String mismatch = snapshot.verify(esql, Integer.getInteger("mechanicshop.reports.k", 10));
+			System.out.println(mismatch == null ? "columnar reports agree with SQL" : "columnar reports differ from SQL: " + mismatch);
+		} else if (mode.equals("--serve")) {
+			serve(esql, args.length > 4 ? Integer.parseInt(args[4]) : 8080);
+		} else {
+			throw new Exception("Unknown mode " + mode);
+		}//end if
+	}
+
+	/**
+	 * Method to run the HTTP server until the process is interrupted.  The
+	 * shutdown hook stops the server before closing the pool.
+	 * 
+	 * @param esql the connected client
+	 * @param port the port to listen on
+	 * @throws Exception when the server cannot start
+	 */
+	static void serve(final MechanicShop esql, int port) throws Exception {
+		final ShopServer server = new ShopServer(esql, port,
+			Integer.getInteger("mechanicshop.server.inflight", esql.getPool().getMaxSize()),
+			Long.getLong("mechanicshop.server.queue.timeout", 1000L));
+		server.start();
+		System.out.println("Serving on http://localhost:" + server.getPort() + "/ (Ctrl-C to stop)");
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.stop();
+				System.out.println(server.stats());
+				esql.cleanup();
+			}
+		});
+		Thread.currentThread().join();
+	}
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -322,18 +1164,8 @@ public class MechanicShop{
 
 			System.out.print("Please input customer address: ");
                 	String address = myObj.nextLine();
-			int id = -1;
-                        List<List<String>> data = esql.executeQueryAndReturnResult("SELECT MAX (id) FROM Customer;");
-			id = Integer.parseInt(data.get(0).get(0)) + 1;
+			int id = esql.addCustomer(fname, lname, phone, address);
 			System.out.println("ID = " + id);
-                        String cust = "INSERT INTO Customer VALUES " +
-                                      "(" + id + ", '" +
-                                      fname + "', '" +
-                                      lname + "', '" +
-                                      phone + "', '" +
-                                      address + "');";
-			System.out.println("custinsert = " + cust);
-                        esql.executeUpdate(cust);
     
 		}catch (Exception e){
                        	System.err.println(e.getMessage());
@@ -354,19 +1186,10 @@ public class MechanicShop{
                         String lname = myObj.nextLine();
 
                         System.out.print("Please input mechanic experience: ");
-                        String experience = myObj.nextLine();
+			int experience = Integer.parseInt(myObj.nextLine().trim());
 
-                        int id = -1;
-                        List<List<String>> data = esql.executeQueryAndReturnResult("SELECT MAX (id) FROM Mechanic;");
-                        id = Integer.parseInt(data.get(0).get(0)) + 1;
+			int id = esql.addMechanic(fname, lname, experience);
                         System.out.println("ID = " + id);
-                        String mech = "INSERT INTO mechanic VALUES " +
-                                      "(" + id + ", '" +
-                                      fname + "', '" +
-                                      lname + "', " +
-                                      experience + ");";
-                        System.out.println("mechinsert = " + mech);
-                        esql.executeUpdate(mech);
 
                 }catch (Exception e){
                         System.err.println(e.getMessage());
@@ -381,7 +1204,7 @@ public class MechanicShop{
                         Scanner myObj = new Scanner(System.in);
 
 			System.out.print("Please input Customer ID: ");
-                        String cid = myObj.nextLine();
+			int cid = Integer.parseInt(myObj.nextLine().trim());
 
                         System.out.print("Please input car vin: ");
                         String vin = myObj.nextLine();
@@ -393,27 +1216,10 @@ public class MechanicShop{
                         String model = myObj.nextLine();
 
                         System.out.print("Please input car year: ");
-                        String year = myObj.nextLine();
-
-                        String car = "INSERT INTO Car VALUES " +
-                                      "('" + vin + "', '" +
-                                      make + "', '" +
-                                      model + "', " +
-                                      year + ");";
-                        System.out.println("carinsert = " + car);
-                        esql.executeUpdate(car);
-
-			int id = -1;
-			List<List<String>> data = esql.executeQueryAndReturnResult("SELECT MAX (ownership_id) FROM Owns;");
-                        id = Integer.parseInt(data.get(0).get(0)) + 1;
-                        System.out.println("ownership ID = " + id);
+			int year = Integer.parseInt(myObj.nextLine().trim());
 
-			String owner = "INSERT INTO Owns VALUES " +
-                                      "(" + id + ", " +
-                                      cid + ", '" +
-                                      vin + "');";
-                        System.out.println("ownerinsert = " + owner);
-                        esql.executeUpdate(owner);
+			int id = esql.addCar(cid, vin, make, model, year);
+                        System.out.println("ownership ID = " + id);
                 }catch (Exception e){
                         System.err.println(e.getMessage());
                 }
@@ -426,40 +1232,27 @@ public class MechanicShop{
                         Scanner myObj = new Scanner(System.in);
 
                         System.out.print("Please input customer id: ");
-                        String cid = myObj.nextLine();
+			int cid = Integer.parseInt(myObj.nextLine().trim());
 
                         System.out.print("Please input car vin: ");
                         String vin = myObj.nextLine();
+			//checked before the remaining prompts; usually answered from the key cache
+			if(!esql.getKeyCache().owns(cid, vin)){
+				throw new Exception("Customer " + cid + " does not own car " + vin);
+			}
 
                         //System.out.print("Please input date: ");
                         //String date = myObj.nextLine();
 			
-			Date newdate = new Date();
-			String	date = newdate.toString();		
+			Timestamp date = new Timestamp(System.currentTimeMillis());
 
                         System.out.print("Please input car odometer: ");
-                        String odom = myObj.nextLine();
+			int odom = Integer.parseInt(myObj.nextLine().trim());
 
 			System.out.print("Please input complaint: ");
                         String complain = myObj.nextLine();
                         
-			int id = -1;
-                        List<List<String>> data = esql.executeQueryAndReturnResult("SELECT MAX (rid) FROM Service_Request;");
-                        id = Integer.parseInt(data.get(0).get(0)) + 1;
-
-                        String car = "INSERT INTO Service_Request VALUES " +
-                                      "(" + id + ", " +
-                                      cid + ", '" +
-                                      vin + "', '" +
-                                      date + "', " + 
-				      odom + ", '" +	
-				      complain + "');";
-                        System.out.println("carinsert = " + car);
-                        esql.executeUpdate(car);
-			//int oid = -1;
-                        //List<List<String>> odata = esql.executeQueryAndReturnResult("SELECT MAX (ownership_id) FROM Owns;");
-                        //oid = Integer.parseInt(odata.get(0).get(0)) + 1;
-			//esql.executeUpdate("INSERT INTO Owns VALUES ("+  oid + ", " + cid + ", '" + vin + "') WHERE NOT EXISTS (SELECT o.car_vin FROM Owns o Where o.car_vin = " + vin + ");");   
+			esql.insertServiceRequest(cid, vin, date, odom, complain);
 
                 }catch (Exception e){
                         System.err.println(e.getMessage());
@@ -473,53 +1266,37 @@ public class MechanicShop{
                         Scanner myObj = new Scanner(System.in);
 
                         System.out.print("Please input request id: ");
-                        String rid = myObj.nextLine();
-
-			List<List<String>> ridcheck = esql.executeQueryAndReturnResult("SELECT COUNT(cr.rid) FROM Closed_Request cr WHERE cr.rid = '" + rid + "';");
-                        int counter = 0;
-                        counter = Integer.parseInt(ridcheck.get(0).get(0));
-
-                        if(counter > 0){
+			int rid = Integer.parseInt(myObj.nextLine().trim());
+			//answered from the request bitmap, before any other prompt
+			RequestBitmap.State state = esql.getRequestBitmap().state(rid);
+			if(state == RequestBitmap.State.CLOSED){
                                 throw new Exception("Already closed...");
                         }
-
+			if(state == RequestBitmap.State.UNKNOWN){
+				throw new Exception("No service request " + rid);
+			}
 
                         System.out.print("Please input mechanic id: ");
-                        String mid = myObj.nextLine();
+			int mid = Integer.parseInt(myObj.nextLine().trim());
+			if(!esql.getKeyCache().mechanicExists(mid)){
+				throw new Exception("No mechanic " + mid);
+			}
 
                         //System.out.print("Please input date: ");
                         //String date = myObj.nextLine();
 
-			Date newdate = new Date();
-                        String  date = newdate.toString();
+			Timestamp date = new Timestamp(System.currentTimeMillis());
                         
 			System.out.print("Please input comment: ");
                         String comment = myObj.nextLine();
 
 			System.out.print("Please input bill: ");
-                        String bill = myObj.nextLine();
+			int bill = Integer.parseInt(myObj.nextLine().trim());
 
-                        int id = -1;
-                        List<List<String>> data = esql.executeQueryAndReturnResult("SELECT MAX (wid) FROM Closed_Request;");
-                        id = Integer.parseInt(data.get(0).get(0)) + 1;
-
-			//List<List<String>> ridcheck = esql.executeQueryAndReturnResult("SELECT COUNT(cr.rid) FROM Closed_Request cr WHERE cr.rid = '" + rid + "';");  
-			//int counter = 0;
-			//counter = Integer.parseInt(ridcheck.get(0).get(0));
-			
-			//if(counter > 0){
-			//	throw new Exception("Already closed...");
-			//}
-			System.out.println("Open, ready to close");
-                        String car = "INSERT INTO Closed_Request VALUES " +
-                                      "(" + id + ", " +
-                                      rid + ", " +
-                                      mid + ", '" +
-                                      date + "', '" +
-                                      comment + "', " +
-                                      bill + ");";
-                        System.out.println("carinsert = " + car);
-                        esql.executeUpdate(car);
+			//the insert itself detects a request that is already closed
+			if(esql.closeServiceRequest(rid, mid, date, comment, bill) < 0){
+				throw new Exception("Already closed...");
+			}
 
                 }catch (Exception e){
                         System.err.println(e.getMessage());
@@ -530,7 +1307,7 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithBillLessThan100(MechanicShop esql){//6
 		try {
-			esql.executeQueryAndPrintResult("SELECT c.id, c.fname, c.lname, cr.bill FROM Customer c, Service_Request sr, Closed_Request cr WHERE c.id = sr.customer_id AND sr.rid = cr.rid AND cr.bill < 100 ORDER BY cr.bill DESC;");
+			esql.renderReport(6, 0);
 		}
 		catch (Exception e) {
 			System.err.println(e.getMessage());
@@ -539,7 +1316,7 @@ public class MechanicShop{
 	
 	public static void ListCustomersWithMoreThan20Cars(MechanicShop esql){//7
 		try {
-                        esql.executeQueryAndPrintResult("SELECT c.id, c.fname, c.lname, count(o.customer_id) FROM Customer c JOIN Owns o ON c.id = o.customer_id GROUP BY c.id HAVING COUNT(o.customer_id) > 20;"); 
+			esql.renderReport(7, 0); 
                 }
                 catch (Exception e) {
                         System.err.println(e.getMessage());
@@ -549,7 +1326,7 @@ public class MechanicShop{
 	
 	public static void ListCarsBefore1995With50000Milles(MechanicShop esql){//8
 		try {
-                        esql.executeQueryAndPrintResult("SELECT c.vin, c.year, c.make, c.model, sr.odometer FROM Car c, Service_Request sr WHERE c.vin = sr.car_vin AND c.year < 1995 AND sr.odometer > 50000 ORDER BY sr.odometer DESC;");
+			esql.renderReport(8, 0);
                 }
                 catch (Exception e) {
                         System.err.println(e.getMessage());
@@ -562,8 +1339,12 @@ public class MechanicShop{
 			Scanner myObj = new Scanner(System.in);
 			System.out.print("Please input k: ");
                         String k = myObj.nextLine();
-			int lim = Integer.parseInt(k);
-                        esql.executeQueryAndPrintResult("SELECT sr.car_vin, c.year, c.make, c.model, COUNT(sr.car_vin)  FROM Service_Request sr, Car c WHERE c.vin = sr.car_vin GROUP BY sr.car_vin, c.year, c.make, c.model ORDER BY COUNT(sr.car_vin) DESC LIMIT " + k + ";");
+			int lim = Integer.parseInt(k.trim());
+			esql.renderReport(9, lim);
+			if (Boolean.getBoolean("mechanicshop.topk.verify")) {
+				String mismatch = esql.getServiceCounter().verify(esql, lim);
+				System.out.println(mismatch == null ? "top-k counter agrees with SQL" : "top-k counter differs from SQL: " + mismatch);
+			}
                 }
                 catch (Exception e) {
                         System.err.println(e.getMessage());
@@ -573,7 +1354,7 @@ public class MechanicShop{
 	
 	public static void ListCustomersInDescendingOrderOfTheirTotalBill(MechanicShop esql){//10
 		try {
-                        esql.executeQueryAndPrintResult("SELECT c.fname, c.lname, SUM(cr.bill) FROM Customer c, Service_Request sr, Closed_Request cr WHERE c.id = sr.customer_id AND sr.rid = cr.rid GROUP BY c.id ORDER BY SUM(cr.bill) DESC;");
+			esql.renderReport(10, 0);
                 }
                 catch (Exception e) {
                         System.err.println(e.getMessage());
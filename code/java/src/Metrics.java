@@ -0,0 +1,358 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Latency, row and error counts of the client, kept per menu operation and
+ * per SQL template.  Callers time a unit of work with a Span:
+ *
+ *   try (Metrics.Span span = metrics.statement(sql)) {
+ *       ...
+ *       span.done(rows);
+ *   }
+ *
+ * A span closed without done() counts as an error.  Every tag is published
+ * as an MBean under mechanicshop:type=Operation or type=Statement, and all
+ * of them are appended to a flat TSV file every few seconds and on close().
+ * Durations measured elsewhere, e.g. across threads, are added with
+ * record().  Gauges, such as a queue depth, are read when dumped and show
+ * their current value in the count column.
+ *
+ */
+public class Metrics implements AutoCloseable {
+
+	/**
+	 * What JMX shows for one operation or statement.  Times in microseconds.
+	 */
+	public interface StatsMBean {
+		String getKind();
+		String getTag();
+		long getCount();
+		long getErrors();
+		long getRows();
+		double getMeanMicros();
+		long getP50Micros();
+		long getP90Micros();
+		long getP99Micros();
+		long getP999Micros();
+		long getMaxMicros();
+		void reset();
+	}
+
+	/**
+	 * What JMX shows for one gauge.
+	 */
+	public interface GaugeMBean {
+		String getTag();
+		long getValue();
+	}
+
+	static final class Gauge implements GaugeMBean {
+		private final String tag;
+		private final LongSupplier value;
+
+		Gauge(String tag, LongSupplier value) {
+			this.tag = tag;
+			this.value = value;
+		}
+
+		public String getTag() { return this.tag; }
+		public long getValue() { return this.value.getAsLong(); }
+	}
+
+	/**
+	 * Counters of one operation or SQL template.
+	 */
+	public static final class Stats implements StatsMBean {
+		private final String kind;
+		private final String tag;
+		private final LatencyHistogram latency = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+
+		Stats(String kind, String tag) {
+			this.kind = kind;
+			this.tag = tag;
+		}
+
+		void record(long nanos, long rowCount, boolean ok) {
+			this.latency.record(nanos);
+			if (!ok)
+				this.errors.incrementAndGet();
+			else if (rowCount > 0)
+				this.rows.addAndGet(rowCount);
+		}
+
+		public String getKind() { return this.kind; }
+		public String getTag() { return this.tag; }
+		public long getCount() { return this.latency.getCount(); }
+		public long getErrors() { return this.errors.get(); }
+		public long getRows() { return this.rows.get(); }
+		public double getMeanMicros() { return this.latency.getMean() / 1000.0; }
+		public long getP50Micros() { return micros(50); }
+		public long getP90Micros() { return micros(90); }
+		public long getP99Micros() { return micros(99); }
+		public long getP999Micros() { return micros(99.9); }
+		public long getMaxMicros() { return this.latency.getMax() / 1000; }
+
+		public void reset() {
+			this.latency.reset();
+			this.errors.set(0);
+			this.rows.set(0);
+		}
+
+		private long micros(double percentile) {
+			return this.latency.getValueAtPercentile(percentile) / 1000;
+		}
+	}
+
+	/**
+	 * One timed unit of work; records itself when closed.
+	 */
+	public static final class Span implements AutoCloseable {
+		private final Stats stats;
+		private final long start;
+		private long rows = 0;
+		private boolean ok = false;
+
+		Span(Stats stats) {
+			this.stats = stats;
+			this.start = stats == null ? 0 : System.nanoTime();
+		}
+
+		/**
+		 * Method to mark the work successful.
+		 *
+		 * @param rowCount rows returned or affected
+		 * @return rowCount, for use in a return statement
+		 */
+		public long done(long rowCount) {
+			this.rows = rowCount;
+			this.ok = true;
+			return rowCount;
+		}
+
+		public void close() {
+			if (this.stats != null)
+				this.stats.record(System.nanoTime() - this.start, this.rows, this.ok);
+		}
+	}
+
+	static final String HEADER = "time\tkind\ttag\tcount\terrors\trows\tmean_us\tp50_us\tp90_us\tp99_us\tp999_us\tmax_us";
+
+	private final boolean enabled;
+	private final File dumpFile;
+	private final ConcurrentHashMap<String, Stats> operations = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentHashMap<String, Stats> statements = new ConcurrentHashMap<String, Stats>();
+	private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private final ScheduledExecutorService dumper;
+
+	/**
+	 * @param enabled false turns every span into a no-op
+	 * @param dumpFile the TSV file snapshots are appended to, or null for none
+	 * @param dumpIntervalSeconds seconds between snapshots, 0 to write only on close
+	 */
+	public Metrics(boolean enabled, File dumpFile, long dumpIntervalSeconds) {
+		this.enabled = enabled;
+		this.dumpFile = enabled ? dumpFile : null;
+		if (this.dumpFile != null && dumpIntervalSeconds > 0) {
+			this.dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "metrics-dump");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			this.dumper.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					dumpQuietly();
+				}
+			}, dumpIntervalSeconds, dumpIntervalSeconds, TimeUnit.SECONDS);
+		} else {
+			this.dumper = null;
+		}
+	}
+
+	/**
+	 * @return metrics configured from the mechanicshop.metrics properties
+	 */
+	public static Metrics fromProperties() {
+		String file = System.getProperty("mechanicshop.metrics.file", "");
+		return new Metrics(
+			!System.getProperty("mechanicshop.metrics", "true").equals("false"),
+			file.length() == 0 ? null : new File(file),
+			Long.getLong("mechanicshop.metrics.interval", 60L));
+	}
+
+	/**
+	 * Method to start timing a menu operation.
+	 *
+	 * @param name the operation, e.g. close-request
+	 * @return the running span
+	 */
+	public Span operation(String name) {
+		return new Span(this.enabled ? stats(this.operations, "Operation", name) : null);
+	}
+
+	/**
+	 * Method to start timing one execution of a SQL template.
+	 *
+	 * @param sql the template, as prepared
+	 * @return the running span
+	 */
+	public Span statement(String sql) {
+		return new Span(this.enabled ? stats(this.statements, "Statement", sql) : null);
+	}
+
+	/**
+	 * Method to count one operation timed by the caller.
+	 *
+	 * @param name the operation, e.g. journal-commit-lag
+	 * @param nanos how long it took
+	 */
+	public void record(String name, long nanos) {
+		if (this.enabled)
+			stats(this.operations, "Operation", name).record(nanos, 1, true);
+	}
+
+	/**
+	 * Method to publish a value that is read when needed rather than
+	 * counted.  A gauge registered again under the same name replaces the
+	 * old one.
+	 *
+	 * @param name the gauge, e.g. journal-queue-depth
+	 * @param value reads the current value
+	 */
+	public void gauge(String name, LongSupplier value) {
+		if (!this.enabled)
+			return;
+		Gauge g = new Gauge(name, value);
+		this.gauges.put(name, g);
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName("mechanicshop:type=Gauge,name=" + ObjectName.quote(name));
+			if (server.isRegistered(on))
+				server.unregisterMBean(on);
+			server.registerMBean(new StandardMBean(g, GaugeMBean.class), on);
+		} catch (Exception e) {
+			// still dumped, just not visible over JMX.
+		}
+	}
+
+	/**
+	 * @return every operation, then every statement seen so far
+	 */
+	public List<Stats> snapshot() {
+		List<Stats> all = new ArrayList<Stats>(this.operations.values());
+		all.addAll(this.statements.values());
+		return all;
+	}
+
+	/**
+	 * Method to append the current counters to the dump file, with a header
+	 * when the file is new.
+	 *
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public synchronized void dump() throws IOException {
+		if (this.dumpFile == null)
+			return;
+		boolean fresh = !this.dumpFile.exists() || this.dumpFile.length() == 0;
+		String now = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date());
+		BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.dumpFile, true), StandardCharsets.UTF_8));
+		try {
+			if (fresh) {
+				out.write(HEADER);
+				out.newLine();
+			}
+			for (Stats s : snapshot()) {
+				if (s.getCount() == 0)
+					continue;
+				out.write(now + "\t" + s.getKind() + "\t" + s.getTag().replaceAll("\\s+", " ") + "\t" +
+					s.getCount() + "\t" + s.getErrors() + "\t" + s.getRows() + "\t" +
+					String.format("%.1f", s.getMeanMicros()) + "\t" + s.getP50Micros() + "\t" + s.getP90Micros() + "\t" +
+					s.getP99Micros() + "\t" + s.getP999Micros() + "\t" + s.getMaxMicros());
+				out.newLine();
+			}
+			for (Gauge g : this.gauges.values()) {
+				out.write(now + "\tGauge\t" + g.getTag() + "\t" + g.getValue() + "\t0\t0\t0.0\t0\t0\t0\t0\t0");
+				out.newLine();
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Method to stop the periodic dump and write a last snapshot.
+	 */
+	public void close() {
+		if (this.dumper != null)
+			this.dumper.shutdownNow();
+		dumpQuietly();
+	}
+
+	private void dumpQuietly() {
+		try {
+			dump();
+		} catch (IOException e) {
+			System.err.println("Could not write metrics to " + this.dumpFile + ": " + e.getMessage());
+		}
+	}
+
+	private Stats stats(ConcurrentHashMap<String, Stats> map, String kind, String tag) {
+		Stats s = map.get(tag);
+		if (s != null)
+			return s;
+		Stats created = new Stats(kind, tag);
+		s = map.putIfAbsent(tag, created);
+		if (s != null)
+			return s;
+		register(created);
+		return created;
+	}
+
+	private static void register(Stats s) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName("mechanicshop:type=" + s.getKind() + ",name=" + ObjectName.quote(s.getTag()));
+			if (!server.isRegistered(name))
+				server.registerMBean(new StandardMBean(s, StatsMBean.class), name);
+		} catch (Exception e) {
+			// still counted and dumped, just not visible over JMX.
+		}
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Diagnostic run of the report queries under EXPLAIN (ANALYZE, BUFFERS).
+ * Each plan is saved as report<N>-<timestamp>.txt in the output directory and
+ * one line per report is appended to timings.tsv, so successive runs can be
+ * compared to spot plan or timing regressions.
+ *
+ */
+public class PlanCapture {
+	private static final Pattern PLANNING = Pattern.compile("Planning [Tt]ime: ([0-9.]+) ms");
+	private static final Pattern EXECUTION = Pattern.compile("Execution [Tt]ime: ([0-9.]+) ms");
+
+	//k used for the LIMIT of report 9
+	static final int EXPLAIN_K = 10;
+
+	static final String[][] REPORTS = {
+		{ "6", MechanicShop.REPORT_BILL_LESS_THAN_100 },
+		{ "7", MechanicShop.REPORT_MORE_THAN_20_CARS },
+		{ "8", MechanicShop.REPORT_CARS_BEFORE_1995 },
+		{ "9", MechanicShop.REPORT_K_MOST_SERVICED.replace("?", Integer.toString(EXPLAIN_K)) },
+		{ "10", MechanicShop.REPORT_TOTAL_BILL },
+	};
+
+	private final ConnectionPool pool;
+	private final File dir;
+
+	public PlanCapture(ConnectionPool pool, File dir) {
+		this.pool = pool;
+		this.dir = dir;
+	}
+
+	/**
+	 * Method to explain every report and save the plans and timings.
+	 *
+	 * @throws Exception when a report cannot be explained or the files written
+	 */
+	public void capture() throws Exception {
+		if (!this.dir.isDirectory() && !this.dir.mkdirs())
+			throw new IOException("Cannot create " + this.dir.getPath());
+		String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+		PrintWriter timings = new PrintWriter(new OutputStreamWriter(
+			new FileOutputStream(new File(this.dir, "timings.tsv"), true), StandardCharsets.UTF_8));
+		try {
+			for (String[] report : REPORTS) {
+				StringBuilder plan = new StringBuilder();
+				explain(report[1], plan);
+				String planning = find(PLANNING, plan);
+				String execution = find(EXECUTION, plan);
+
+				PrintWriter out = new PrintWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(this.dir, "report" + report[0] + "-" + stamp + ".txt")), StandardCharsets.UTF_8));
+				try {
+					out.println(report[1]);
+					out.println();
+					out.print(plan);
+				} finally {
+					out.close();
+				}
+				timings.println(stamp + "\t" + report[0] + "\t" + planning + "\t" + execution);
+				System.out.println("report " + report[0] + ": planning " + planning + " ms, execution " + execution + " ms");
+			}//end for
+		} finally {
+			timings.close();
+		}
+	}
+
+	private void explain(String sql, StringBuilder plan) throws SQLException {
+		try (PooledConnection conn = this.pool.acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+				while (rs.next())
+					plan.append(rs.getString(1)).append('\n');
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	private static String find(Pattern p, CharSequence plan) {
+		Matcher m = p.matcher(plan);
+		return m.find() ? m.group(1) : "";
+	}
+}
@@ -0,0 +1,229 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.postgresql.PGStatement;
+
+/**
+ * A physical connection leased from a ConnectionPool, together with an LRU
+ * cache of server-side prepared statements keyed by their SQL template.
+ * Cached statements belong to the connection: callers close their result
+ * sets but never the statements themselves.  Closing this object hands the
+ * connection back to the pool.
+ *
+ * Statements are run and transactions committed through executeQuery,
+ * executeUpdate, executeBatch and commit, which flag the connection as
+ * broken when the error says it is gone.  A broken or closed connection is
+ * dropped on release instead of going back to the idle list.
+ *
+ */
+public class PooledConnection implements AutoCloseable {
+	private final ConnectionPool pool;
+	private final Connection connection;
+	private final LinkedHashMap<String, PreparedStatement> statements;
+	private boolean leased = false;
+	private boolean broken = false;
+
+	PooledConnection(ConnectionPool pool, Connection connection, final int cacheSize) {
+		this.pool = pool;
+		this.connection = connection;
+		//access-ordered, so the eldest entry is the least recently used template
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() <= cacheSize)
+					return false;
+				PooledConnection.this.pool.statementEvictions.incrementAndGet();
+				closeQuietly(eldest.getValue());
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * @return the underlying physical connection
+	 */
+	public Connection getConnection() {
+		return this.connection;
+	}
+
+	/**
+	 * Method to fetch the prepared statement for a SQL template, preparing it
+	 * on the server the first time the template is seen on this connection.
+	 *
+	 * @param sql the SQL template, using ? for parameters
+	 * @return the cached statement with its parameters cleared
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this.statements.get(sql);
+		if (stmt != null) {
+			this.pool.statementHits.incrementAndGet();
+			stmt.clearParameters();
+			return stmt;
+		}
+		this.pool.statementMisses.incrementAndGet();
+		try {
+			stmt = this.connection.prepareStatement(sql);
+			//use a named server-side statement from the very first execution
+			stmt.unwrap(PGStatement.class).setPrepareThreshold(1);
+		} catch (SQLException e) {
+			markBrokenIfFatal(e);
+			throw e;
+		}
+		this.statements.put(sql, stmt);
+		return stmt;
+	}
+
+	/**
+	 * Method to run a query on this connection.
+	 *
+	 * @param stmt a statement from prepare()
+	 * @return the result set, to be closed by the caller
+	 * @throws java.sql.SQLException when the query fails
+	 */
+	public ResultSet executeQuery(PreparedStatement stmt) throws SQLException {
+		try {
+			return stmt.executeQuery();
+		} catch (SQLException e) {
+			markBrokenIfFatal(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to run an insert, update or delete on this connection.
+	 *
+	 * @param stmt a statement from prepare()
+	 * @return the number of rows changed
+	 * @throws java.sql.SQLException when the statement fails
+	 */
+	public int executeUpdate(PreparedStatement stmt) throws SQLException {
+		try {
+			return stmt.executeUpdate();
+		} catch (SQLException e) {
+			markBrokenIfFatal(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to run the batched parameter sets of a statement.
+	 *
+	 * @param stmt a statement from prepare() with addBatch() calls
+	 * @return the update counts
+	 * @throws java.sql.SQLException when the batch fails
+	 */
+	public int[] executeBatch(PreparedStatement stmt) throws SQLException {
+		try {
+			return stmt.executeBatch();
+		} catch (SQLException e) {
+			markBrokenIfFatal(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to commit the open transaction of this connection.
+	 *
+	 * @throws java.sql.SQLException when the commit fails
+	 */
+	public void commit() throws SQLException {
+		try {
+			this.connection.commit();
+		} catch (SQLException e) {
+			markBrokenIfFatal(e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Method to flag the connection as unusable when the error reports a lost
+	 * connection (SQLSTATE class 08) or a terminated server session (57P01 to
+	 * 57P03), so the pool discards it on release.
+	 *
+	 * @param e the error raised while using this connection
+	 */
+	public void markBrokenIfFatal(SQLException e) {
+		String state = e.getSQLState();
+		if (state == null)
+			return;
+		if (state.startsWith("08") || state.equals("57P01") || state.equals("57P02") || state.equals("57P03"))
+			this.broken = true;
+		//the driver reports a chained batch failure on the next exception
+		else if (e.getNextException() != null && e.getNextException() != e)
+			markBrokenIfFatal(e.getNextException());
+	}
+
+	void lease() {
+		this.leased = true;
+	}
+
+	boolean isUsable() {
+		if (this.broken)
+			return false;
+		try {
+			return !this.connection.isClosed();
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Method to hand the connection back to its pool.  Any transaction left
+	 * open by the caller is rolled back and autocommit restored first.
+	 */
+	@Override
+	public void close() {
+		if (!this.leased)
+			return;
+		this.leased = false;
+		try {
+			if (!this.connection.getAutoCommit()) {
+				this.connection.rollback();
+				this.connection.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			this.broken = true;
+		}
+		this.pool.release(this);
+	}
+
+	void closePhysical() {
+		Iterator<PreparedStatement> it = this.statements.values().iterator();
+		while (it.hasNext()) {
+			closeQuietly(it.next());
+			it.remove();
+		}
+		try {
+			this.connection.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			// ignored.
+		}
+	}
+}
@@ -0,0 +1,312 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the read-only reports to streaming replicas, round robin, while
+ * every write and every lookup that must see the latest write stays on the
+ * primary pool.
+ *
+ * Each replica has its own connection pool plus one connection of its own
+ * on which a background thread measures replication lag every check
+ * interval.  A replica is in rotation while it is a standby, its WAL
+ * receiver is streaming and it replays within the lag bound.  Lag is zero
+ * when everything received has been replayed, otherwise the age of the last
+ * replayed transaction, so an idle primary does not make its replicas look
+ * stale.  A replica that cannot be connected to is taken out at once and
+ * back in after the next good check.  With no replica in rotation, or none
+ * configured, reads go to the primary.
+ *
+ * A report on a replica may miss writes from the last lag bound; the
+ * in-memory report 9 and the key and request checks are unaffected.
+ *
+ */
+public class ReplicaRouter {
+	static final String LAG =
+		"SELECT pg_is_in_recovery(), " +
+		"EXISTS (SELECT 1 FROM pg_stat_wal_receiver WHERE status = 'streaming'), " +
+		"CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 " +
+		"ELSE COALESCE(CAST(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 AS BIGINT), 0) END";
+
+	/*
+	 * One replica: its pool for reports and the state of its last check.
+	 */
+	static final class Replica {
+		final String url;
+		final ConnectionPool pool;
+		final AtomicLong reads = new AtomicLong();
+		//only touched by the checker thread
+		Connection monitor;
+		volatile boolean healthy = false;
+		volatile long lagMillis = -1;
+		volatile String reason = "not checked yet";
+
+		Replica(String url, ConnectionPool pool) {
+			this.url = url;
+			this.pool = pool;
+		}
+
+		void down(String why) {
+			this.healthy = false;
+			this.reason = why;
+		}
+	}
+
+	private final ConnectionPool primary;
+	private final List<Replica> replicas = new ArrayList<Replica>();
+	private final String user;
+	private final String passwd;
+	private final long maxLagMillis;
+	private final long checkIntervalMillis;
+	private final AtomicInteger next = new AtomicInteger();
+	private ScheduledExecutorService checker = null;
+
+	//reads served by the primary, and how many of those found no healthy replica
+	private final AtomicLong primaryReads = new AtomicLong();
+	private final AtomicLong fallbacks = new AtomicLong();
+
+	/**
+	 * @param primary the pool of the primary
+	 * @param replicaUrls JDBC URLs of the replicas, possibly none
+	 * @param user the database user, the same on every server
+	 * @param passwd the password
+	 * @param poolSize connections per replica pool
+	 * @param statementCacheSize prepared statements cached per connection
+	 * @param acquireTimeoutMillis wait for a free replica connection
+	 * @param maxLagMillis replicas further behind are taken out of rotation
+	 * @param checkIntervalMillis time between lag checks
+	 */
+	public ReplicaRouter(ConnectionPool primary, List<String> replicaUrls, String user, String passwd,
+			int poolSize, int statementCacheSize, long acquireTimeoutMillis, long maxLagMillis, long checkIntervalMillis) {
+		this.primary = primary;
+		this.user = user;
+		this.passwd = passwd;
+		this.maxLagMillis = maxLagMillis;
+		this.checkIntervalMillis = checkIntervalMillis;
+		for (String url : replicaUrls)
+			this.replicas.add(new Replica(url, new ConnectionPool(url, user, passwd, poolSize, statementCacheSize, acquireTimeoutMillis)));
+	}
+
+	/**
+	 * Method to build a router from the mechanicshop.replicas (comma
+	 * separated JDBC URLs), .replica.max.lag and .replica.check.interval
+	 * properties.  Replica pools are sized like the primary's.
+	 *
+	 * @param primary the pool of the primary
+	 * @param user the database user
+	 * @param passwd the password
+	 * @return a router, without replicas when none are configured
+	 */
+	public static ReplicaRouter fromProperties(ConnectionPool primary, String user, String passwd) {
+		List<String> urls = new ArrayList<String>();
+		for (String url : System.getProperty("mechanicshop.replicas", "").split(","))
+			if (!url.trim().isEmpty())
+				urls.add(url.trim());
+		return new ReplicaRouter(primary, urls, user, passwd,
+			primary.getMaxSize(),
+			Integer.getInteger("mechanicshop.stmtcache.size", 64),
+			Long.getLong("mechanicshop.pool.timeout", 30000L),
+			Long.getLong("mechanicshop.replica.max.lag", 5000L),
+			Long.getLong("mechanicshop.replica.check.interval", 1000L));
+	}
+
+	/**
+	 * Method to check every replica once and then keep checking in the
+	 * background.  Does nothing without replicas.
+	 */
+	public void start() {
+		if (this.replicas.isEmpty())
+			return;
+		check();
+		this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "replica-check");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.checker.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				check();
+			}
+		}, this.checkIntervalMillis, this.checkIntervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to measure the lag of every replica and update the rotation.
+	 */
+	public synchronized void check() {
+		for (Replica r : this.replicas) {
+			try {
+				if (r.monitor == null || r.monitor.isClosed())
+					r.monitor = connect(r.url);
+				Statement stmt = r.monitor.createStatement();
+				try {
+					stmt.setQueryTimeout((int) Math.max(1, this.checkIntervalMillis / 1000));
+					ResultSet rs = stmt.executeQuery(LAG);
+					rs.next();
+					boolean standby = rs.getBoolean(1);
+					boolean streaming = rs.getBoolean(2);
+					long lag = rs.getLong(3);
+					rs.close();
+					r.lagMillis = lag;
+					if (!standby)
+						r.down("not a standby");
+					else if (!streaming)
+						r.down("not streaming");
+					else if (lag > this.maxLagMillis)
+						r.down("lag over " + this.maxLagMillis + " ms");
+					else
+						r.healthy = true;
+				} finally {
+					stmt.close();
+				}
+			} catch (SQLException e) {
+				r.down("unreachable: " + e.getMessage());
+				closeMonitor(r);
+			}
+		}//end for
+	}
+
+	/**
+	 * @return the pool of the next replica in rotation, or the primary's
+	 *         when no replica is healthy
+	 */
+	public ConnectionPool readPool() {
+		Replica r = nextHealthy();
+		if (r == null) {
+			countPrimaryRead();
+			return this.primary;
+		}
+		r.reads.incrementAndGet();
+		return r.pool;
+	}
+
+	/**
+	 * Method to lease a connection for a read-only query.  A replica that
+	 * refuses the connection is taken out of rotation and the next one
+	 * tried, down to the primary.
+	 *
+	 * @return a leased connection on a replica or the primary
+	 * @throws java.sql.SQLException when the chosen pool is saturated
+	 *         (SQLSTATE 53300) or the primary cannot be reached either
+	 */
+	public PooledConnection acquireRead() throws SQLException {
+		while (true) {
+			Replica r = nextHealthy();
+			if (r == null) {
+				countPrimaryRead();
+				return this.primary.acquire();
+			}
+			try {
+				PooledConnection conn = r.pool.acquire();
+				r.reads.incrementAndGet();
+				return conn;
+			} catch (SQLException e) {
+				if ("53300".equals(e.getSQLState()))
+					throw e;
+				r.down("unreachable: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * @return true when at least one replica is configured
+	 */
+	public boolean hasReplicas() {
+		return !this.replicas.isEmpty();
+	}
+
+	/**
+	 * @return a one-line summary of the replicas and where reads went
+	 */
+	public String stats() {
+		StringBuilder sb = new StringBuilder("replicas[primary reads=").append(this.primaryReads.get())
+			.append(", fallbacks=").append(this.fallbacks.get());
+		for (Replica r : this.replicas) {
+			sb.append(", ").append(r.url).append(r.healthy ? " up" : " down (" + r.reason + ")")
+				.append(" lag=").append(r.lagMillis).append("ms reads=").append(r.reads.get());
+		}
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Method to stop the checks and close the replica pools.
+	 */
+	public void close() {
+		if (this.checker != null)
+			this.checker.shutdownNow();
+		synchronized (this) {
+			for (Replica r : this.replicas) {
+				closeMonitor(r);
+				r.pool.close();
+			}
+		}
+	}
+
+	private Replica nextHealthy() {
+		int n = this.replicas.size();
+		if (n == 0)
+			return null;
+		int start = Math.floorMod(this.next.getAndIncrement(), n);
+		for (int i = 0; i < n; ++i) {
+			Replica r = this.replicas.get((start + i) % n);
+			if (r.healthy)
+				return r;
+		}
+		return null;
+	}
+
+	private void countPrimaryRead() {
+		this.primaryReads.incrementAndGet();
+		if (!this.replicas.isEmpty())
+			this.fallbacks.incrementAndGet();
+	}
+
+	private Connection connect(String url) throws SQLException {
+		Properties props = new Properties();
+		props.setProperty("user", this.user);
+		if (this.passwd != null)
+			props.setProperty("password", this.passwd);
+		//a dead replica must not hold up the checks of the others
+		props.setProperty("connectTimeout", Long.toString(Math.max(1, this.checkIntervalMillis / 1000)));
+		//the driver would log every failed check of a replica that is down
+		props.setProperty("loggerLevel", "OFF");
+		return DriverManager.getConnection(url, props);
+	}
+
+	private static void closeMonitor(Replica r) {
+		if (r.monitor == null)
+			return;
+		try {
+			r.monitor.close();
+		} catch (SQLException e) {
+			// already broken.
+		}
+		r.monitor = null;
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.postgresql.PGConnection;
+
+/**
+ * Exports a menu report (options 6-10) as CSV through
+ * COPY (query) TO STDOUT.  The server formats the rows and the client copies
+ * the bytes straight into the file, so nothing is parsed per row.  A file
+ * name ending in .gz is compressed on the way out; "-" writes to standard out.
+ * The COPY runs on a replica when one is in rotation.
+ *
+ */
+public class ReportExporter {
+	static final int BUFFER_SIZE = 1 << 16;
+
+	private final MechanicShop esql;
+	private final boolean header;
+
+	/**
+	 * @param esql the connected client
+	 * @param header true to start the file with the column names
+	 */
+	public ReportExporter(MechanicShop esql, boolean header) {
+		this.esql = esql;
+		this.header = header;
+	}
+
+	/**
+	 * Method to export one report.
+	 *
+	 * @param report the menu number of the report
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @param path the file to write, or - for standard out
+	 * @return the number of rows exported
+	 * @throws Exception when the query or the output fails
+	 */
+	public long export(int report, int k, String path) throws Exception {
+		String query = MechanicShop.reportQuery(report);
+		//COPY takes no bind parameters; k is an int, so inlining it is safe
+		if (report == 9)
+			query = query.replace("LIMIT ?", "LIMIT " + k);
+		String copy = "COPY (" + query + ") TO STDOUT WITH (FORMAT csv" + (this.header ? ", HEADER" : "") + ")";
+
+		boolean toStdout = path.equals("-");
+		OutputStream out = new BufferedOutputStream(
+			toStdout ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(path), BUFFER_SIZE);
+		if (path.endsWith(".gz"))
+			out = new GZIPOutputStream(out, BUFFER_SIZE);
+		try (Metrics.Span span = this.esql.getMetrics().statement(copy);
+			PooledConnection conn = this.esql.getReplicaRouter().acquireRead()) {
+			long rows = conn.getConnection().unwrap(PGConnection.class).getCopyAPI().copyOut(copy, out);
+			return span.done(rows);
+		} finally {
+			if (!toStdout) {
+				out.close();
+			} else {
+				//standard out stays open for whatever follows
+				if (out instanceof GZIPOutputStream)
+					((GZIPOutputStream) out).finish();
+				out.flush();
+			}
+		}
+	}
+
+	/**
+	 * @return the default file name of a report's export
+	 */
+	static String defaultPath(int report) {
+		return "report" + report + ".csv";
+	}
+}
@@ -0,0 +1,256 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Runs reports 6-10 at the same time, each on its own pooled connection and
+ * into its own file, e.g. reports/report8.tsv.  The total time is that of the
+ * slowest report rather than the sum of all five; with fewer than five pooled
+ * connections the remaining reports start as connections come back.  Reports
+ * are spread over the replicas in rotation, if any.
+ *
+ * A report still running after the timeout is cancelled with
+ * Statement.cancel() and reported as failed; the others are unaffected.
+ *
+ * With snapshot on, all five read one REPEATABLE READ snapshot: the first
+ * report to start exports it with pg_export_snapshot() and keeps its
+ * transaction open until every other report has imported it, so the five
+ * results agree with each other even while the shop keeps writing.  Report 9
+ * then comes from SQL, since the in-memory counter is not part of the snapshot.
+ * All five then run on one server: a replica chosen once, or the primary.
+ * A runner runs once.
+ *
+ * With several shards each report is a scatter-gather through the client,
+ * without the per-report cancel; a shared snapshot cannot span shards.
+ *
+ */
+public class ReportRunner {
+	static final int[] REPORTS = { 6, 7, 8, 9, 10 };
+
+	private final MechanicShop esql;
+	private final File dir;
+	private final String format;
+	private final long timeoutMillis;
+	private final boolean snapshot;
+
+	//snapshot handoff: the id exported by the first report, and the reports still to import it
+	private final CompletableFuture<String> snapshotId = new CompletableFuture<String>();
+	private final CountDownLatch imported = new CountDownLatch(REPORTS.length - 1);
+	private final Object exporterLock = new Object();
+	private boolean exporterChosen = false;
+	//the one server every report reads the shared snapshot on
+	private ConnectionPool snapshotPool = null;
+
+	/**
+	 * @param esql the connected client
+	 * @param dir the directory receiving one file per report
+	 * @param format a ResultRenderer format: tsv, csv, json or table
+	 * @param timeoutMillis per report, 0 for none
+	 * @param snapshot true to run every report on one REPEATABLE READ snapshot
+	 */
+	public ReportRunner(MechanicShop esql, File dir, String format, long timeoutMillis, boolean snapshot) {
+		this.esql = esql;
+		this.dir = dir;
+		this.format = format;
+		this.timeoutMillis = timeoutMillis;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Method to run the five reports and print a line for each as it
+	 * finishes.
+	 *
+	 * @param k the number of cars for report 9
+	 * @return true when every report completed
+	 * @throws Exception when the output directory cannot be created
+	 */
+	public boolean runAll(final int k) throws Exception {
+		if (this.snapshot && this.esql.getShardRouter().isSharded())
+			throw new SQLException("A shared snapshot cannot span shards", "0A000");
+		if (!this.dir.isDirectory() && !this.dir.mkdirs())
+			throw new IOException("Cannot create " + this.dir.getPath());
+		//a shared snapshot can only be imported on the server that exported it
+		this.snapshotPool = this.snapshot ? this.esql.getReplicaRouter().readPool() : null;
+		if (this.snapshot && this.snapshotPool.getMaxSize() < 2)
+			throw new Exception("A shared snapshot needs a pool of at least 2 connections");
+
+		final long start = System.nanoTime();
+		ExecutorService workers = Executors.newFixedThreadPool(REPORTS.length);
+		ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor();
+		try {
+			CompletableFuture<?>[] all = new CompletableFuture<?>[REPORTS.length];
+			final boolean[] ok = { true };
+			for (int i = 0; i < REPORTS.length; ++i) {
+				final int report = REPORTS[i];
+				final File out = new File(this.dir, "report" + report + "." + (this.format.equals("table") ? "txt" : this.format));
+				final ScheduledExecutorService cancels = timer;
+				all[i] = CompletableFuture.supplyAsync(new Supplier<Long>() {
+					public Long get() {
+						try {
+							return run(report, k, out, cancels);
+						} catch (Exception e) {
+							throw new CompletionException(e);
+						}
+					}
+				}, workers).whenComplete(new BiConsumer<Long, Throwable>() {
+					public void accept(Long rows, Throwable error) {
+						double ms = (System.nanoTime() - start) / 1e6;
+						synchronized (ok) {
+							if (error == null) {
+								System.out.printf("report %2d: %8d rows at %8.1f ms -> %s%n", report, rows, ms, out.getPath());
+							} else {
+								ok[0] = false;
+								Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+								System.out.printf("report %2d: failed at %8.1f ms: %s%n", report, ms, cause.getMessage());
+							}
+						}
+					}
+				});
+			}
+			try {
+				CompletableFuture.allOf(all).join();
+			} catch (CompletionException e) {
+				// already reported per report.
+			}
+			System.out.printf("all reports done in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+			return ok[0];
+		} finally {
+			timer.shutdownNow();
+			workers.shutdown();
+		}
+	}
+
+	private long run(int report, int k, File out, ScheduledExecutorService timer) throws Exception {
+		if (this.esql.getShardRouter().isSharded() ||
+				report == 9 && !this.snapshot && !System.getProperty("mechanicshop.topk", "memory").equals("sql")) {
+			//answered from memory or merged from the shards: nothing to cancel and nothing to snapshot
+			ResultRenderer renderer = ResultRenderer.create(this.format, out.getPath(), 0, null);
+			try {
+				return this.esql.streamReport(report, k, renderer);
+			} finally {
+				renderer.finish();
+			}
+		}
+
+		String query = MechanicShop.reportQuery(report);
+		boolean exporter = false;
+		boolean mustImport = this.snapshot;
+		try (Metrics.Span span = this.esql.getMetrics().statement(query);
+			PooledConnection conn = this.snapshot ? this.snapshotPool.acquire() : this.esql.getReplicaRouter().acquireRead()) {
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			if (this.snapshot) {
+				synchronized (this.exporterLock) {
+					exporter = !this.exporterChosen;
+					this.exporterChosen = true;
+				}
+				execute(c, "SET TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+				if (exporter) {
+					this.snapshotId.complete(exportSnapshot(c));
+					mustImport = false;
+				} else {
+					execute(c, "SET TRANSACTION SNAPSHOT '" + this.snapshotId.join() + "'");
+					this.imported.countDown();
+					mustImport = false;
+				}
+			}
+
+			final PreparedStatement stmt = conn.prepare(query);
+			stmt.setFetchSize(this.esql.getFetchSize());
+			if (report == 9)
+				stmt.setInt(1, k);
+			ScheduledFuture<?> cancel = null;
+			if (this.timeoutMillis > 0)
+				cancel = timer.schedule(new Runnable() {
+					public void run() {
+						try {
+							stmt.cancel();
+						} catch (SQLException e) {
+							// the report finishes or fails on its own.
+						}
+					}
+				}, this.timeoutMillis, TimeUnit.MILLISECONDS);
+
+			ResultRenderer renderer = ResultRenderer.create(this.format, out.getPath(), 0, null);
+			long rows = 0;
+			try {
+				ResultSet rs = conn.executeQuery(stmt);
+				try {
+					Row row = new Row(rs);
+					while (row.advance())
+						renderer.handle(row);
+					rows = row.getRowNumber();
+				} finally {
+					rs.close();
+				}
+			} catch (SQLException e) {
+				if ("57014".equals(e.getSQLState()))
+					throw new SQLException("cancelled after " + this.timeoutMillis + " ms", "57014", e);
+				throw e;
+			} finally {
+				if (cancel != null)
+					cancel.cancel(false);
+				renderer.finish();
+			}
+
+			//the exporter's snapshot must outlive every import
+			if (exporter)
+				this.imported.await();
+			conn.commit();
+			return span.done(rows);
+		} finally {
+			if (exporter && !this.snapshotId.isDone())
+				this.snapshotId.completeExceptionally(new SQLException("snapshot export failed"));
+			if (mustImport)
+				this.imported.countDown();
+		}
+	}
+
+	private static String exportSnapshot(Connection c) throws SQLException {
+		Statement stmt = c.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT pg_export_snapshot()");
+			rs.next();
+			return rs.getString(1);
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static void execute(Connection c, String sql) throws SQLException {
+		Statement stmt = c.createStatement();
+		try {
+			stmt.execute(sql);
+		} finally {
+			stmt.close();
+		}
+	}
+}
@@ -0,0 +1,247 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Which service requests exist and which of them are closed, as two bitsets
+ * indexed by rid.  rids are dense small integers, so a plain BitSet costs one
+ * bit per rid (about 4 KB for the 30000 requests of code/data) and answers
+ * in constant time.
+ *
+ * The bits are filled by one streaming scan at startup and then follow the
+ * requests this client opens and closes.  A close of a rid already marked
+ * closed is refused without a round trip.  A rid the bitmap has never seen
+ * may have been opened by another client, so it is confirmed with a single
+ * lookup before being called unknown.  The primary key of Closed_Rid
+ * remains the final authority for every close.
+ *
+ * With several shards the bitsets cover every shard, and a byte per rid
+ * remembers the shard holding the request, so a close goes straight to it.
+ *
+ */
+public class RequestBitmap {
+	public enum State { OPEN, CLOSED, UNKNOWN }
+
+	static final String SCAN =
+		"SELECT sr.rid, cr.rid IS NOT NULL FROM Service_Request sr LEFT JOIN Closed_Rid cr ON cr.rid = sr.rid";
+	static final String LOOKUP =
+		"SELECT EXISTS (SELECT 1 FROM Closed_Rid cr WHERE cr.rid = sr.rid) FROM Service_Request sr WHERE sr.rid = ?";
+
+	private final ShardRouter shards;
+	private BitSet known = new BitSet();
+	private BitSet closed = new BitSet();
+	//shard of each known rid; empty with a single shard
+	private byte[] home = new byte[0];
+
+	public RequestBitmap(ShardRouter shards) {
+		if (shards.count() > Byte.MAX_VALUE)
+			throw new IllegalArgumentException("At most " + Byte.MAX_VALUE + " shards are supported");
+		this.shards = shards;
+	}
+
+	/**
+	 * Method to rebuild both bitsets from one streaming scan per shard, all
+	 * shards at once.
+	 *
+	 * @throws java.sql.SQLException when a scan fails
+	 */
+	public void rebuild() throws SQLException {
+		List<BitSet[]> parts;
+		try {
+			parts = this.shards.scatter(new ShardRouter.Task<BitSet[]>() {
+				public BitSet[] run(int shard, ConnectionPool pool) throws SQLException {
+					return scan(pool);
+				}
+			});
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException(e);
+		}
+		BitSet k = parts.get(0)[0];
+		BitSet c = parts.get(0)[1];
+		byte[] h = new byte[0];
+		if (parts.size() > 1) {
+			for (BitSet[] part : parts)
+				h = Arrays.copyOf(h, Math.max(h.length, part[0].length()));
+			for (int shard = 0; shard < parts.size(); ++shard) {
+				BitSet[] part = parts.get(shard);
+				for (int rid = part[0].nextSetBit(0); rid >= 0; rid = part[0].nextSetBit(rid + 1))
+					h[rid] = (byte) shard;
+				if (shard > 0) {
+					k.or(part[0]);
+					c.or(part[1]);
+				}
+			}
+		}
+		synchronized (this) {
+			this.known = k;
+			this.closed = c;
+			this.home = h;
+		}
+	}
+
+	private static BitSet[] scan(ConnectionPool pool) throws SQLException {
+		BitSet k = new BitSet();
+		BitSet c = new BitSet();
+		try (PooledConnection conn = pool.acquire()) {
+			conn.getConnection().setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare(SCAN);
+			stmt.setFetchSize(10000);
+			ResultSet rs = conn.executeQuery(stmt);
+			try {
+				while (rs.next()) {
+					int rid = rs.getInt(1);
+					if (rid < 0)
+						continue;
+					k.set(rid);
+					if (rs.getBoolean(2))
+						c.set(rid);
+				}
+			} finally {
+				rs.close();
+			}
+		}
+		return new BitSet[] { k, c };
+	}
+
+	/**
+	 * Method to classify a rid, asking the database only for rids never seen.
+	 *
+	 * @param rid the service request
+	 * @return OPEN, CLOSED or UNKNOWN when no such request exists
+	 * @throws java.sql.SQLException when the confirming lookup fails
+	 */
+	public State state(int rid) throws SQLException {
+		if (rid < 0)
+			return State.UNKNOWN;
+		synchronized (this) {
+			if (this.closed.get(rid))
+				return State.CLOSED;
+			if (this.known.get(rid))
+				return State.OPEN;
+		}
+		final int r = rid;
+		List<Boolean> found;
+		try {
+			found = this.shards.scatter(new ShardRouter.Task<Boolean>() {
+				public Boolean run(int shard, ConnectionPool pool) throws SQLException {
+					return lookup(pool, r);
+				}
+			});
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException(e);
+		}
+		for (int shard = 0; shard < found.size(); ++shard) {
+			Boolean isClosed = found.get(shard);
+			if (isClosed == null)
+				continue;
+			synchronized (this) {
+				setHome(rid, shard);
+				this.known.set(rid);
+				if (isClosed)
+					this.closed.set(rid);
+			}
+			return isClosed ? State.CLOSED : State.OPEN;
+		}
+		return State.UNKNOWN;
+	}
+
+	/**
+	 * Method to find the shard holding a request.
+	 *
+	 * @param rid the service request
+	 * @return its shard, or -1 when no such request exists
+	 * @throws java.sql.SQLException when the confirming lookup fails
+	 */
+	public int shardOf(int rid) throws SQLException {
+		if (!this.shards.isSharded())
+			return rid >= 0 ? 0 : -1;
+		synchronized (this) {
+			if (rid >= 0 && this.known.get(rid))
+				return rid < this.home.length ? this.home[rid] : 0;
+		}
+		if (state(rid) == State.UNKNOWN)
+			return -1;
+		synchronized (this) {
+			return this.home[rid];
+		}
+	}
+
+	/*
+	 * Returns whether the request is closed, or null when the shard does not
+	 * have it.
+	 */
+	private static Boolean lookup(ConnectionPool pool, int rid) throws SQLException {
+		try (PooledConnection conn = pool.acquire()) {
+			PreparedStatement stmt = conn.prepare(LOOKUP);
+			stmt.setInt(1, rid);
+			ResultSet rs = conn.executeQuery(stmt);
+			try {
+				return rs.next() ? Boolean.valueOf(rs.getBoolean(1)) : null;
+			} finally {
+				rs.close();
+			}
+		}
+	}
+
+	public synchronized void opened(int rid) {
+		opened(rid, 0);
+	}
+
+	/**
+	 * Method to record a request this client opened on a shard.
+	 */
+	public synchronized void opened(int rid, int shard) {
+		if (rid >= 0) {
+			setHome(rid, shard);
+			this.known.set(rid);
+		}
+	}
+
+	public synchronized void closed(int rid) {
+		if (rid >= 0) {
+			this.known.set(rid);
+			this.closed.set(rid);
+		}
+	}
+
+	/*
+	 * Caller holds the lock.
+	 */
+	private void setHome(int rid, int shard) {
+		if (!this.shards.isSharded())
+			return;
+		if (rid >= this.home.length)
+			this.home = Arrays.copyOf(this.home, Math.max(rid + 1, this.home.length * 2));
+		this.home[rid] = (byte) shard;
+	}
+
+	/**
+	 * @return the bitmap counters, in the style of ConnectionPool.stats()
+	 */
+	public synchronized String stats() {
+		return "requests[known=" + this.known.cardinality() +
+			", closed=" + this.closed.cardinality() +
+			", bytes=" + ((this.known.size() + this.closed.size()) / 8 + this.home.length) + "]";
+	}
+}
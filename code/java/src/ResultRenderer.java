@@ -0,0 +1,363 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the rows of a streaming query in one of several formats.  All
+ * output goes through a single large buffered writer and cell values are
+ * copied into it character by character, with escaping done in place, so no
+ * intermediate strings are built per cell.
+ *
+ * Formats: tsv, csv (RFC 4180 quoting), json (one object per line) and
+ * table (columns aligned per page).  Output to the terminal can be paged.
+ *
+ */
+public abstract class ResultRenderer implements RowHandler {
+	static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Thrown from handle() when the user quits the pager, to stop the query.
+	 */
+	public static class Stopped extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		Stopped() {
+			super("output stopped");
+		}
+	}
+
+	protected final Writer out;
+	private final boolean closeOut;
+	private final int pageSize;
+	private final BufferedReader pagerInput;
+	private int linesOnPage = 0;
+	protected String[] names;
+
+	protected ResultRenderer(Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+		this.out = out;
+		this.closeOut = closeOut;
+		this.pageSize = pageSize;
+		this.pagerInput = pagerInput;
+	}
+
+	/**
+	 * Method to create a renderer.
+	 *
+	 * @param format one of tsv, csv, json or table
+	 * @param path the file to write, or null for standard out
+	 * @param pageSize lines per page when writing to standard out, 0 for no paging
+	 * @param pagerInput where the pager reads its keystrokes from
+	 * @return the renderer
+	 * @throws java.io.IOException when the output file cannot be opened
+	 */
+	public static ResultRenderer create(String format, String path, int pageSize, BufferedReader pagerInput) throws IOException {
+		Writer out;
+		boolean toFile = path != null && path.length() > 0;
+		if (toFile) {
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE);
+			pageSize = 0;
+		} else {
+			//bypasses the synchronized, autoflushing System.out
+			System.out.flush();
+			out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), BUFFER_SIZE);
+		}
+		return create(format, out, toFile, pageSize, pagerInput);
+	}
+
+	public static ResultRenderer create(String format, Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+		if (format.equals("tsv"))
+			return new Tsv(out, closeOut, pageSize, pagerInput);
+		if (format.equals("csv"))
+			return new Csv(out, closeOut, pageSize, pagerInput);
+		if (format.equals("json"))
+			return new JsonLines(out, closeOut, pageSize, pagerInput);
+		if (format.equals("table"))
+			return new Table(out, closeOut, pageSize, pagerInput);
+		throw new IllegalArgumentException("Unknown output format " + format);
+	}
+
+	public final void handle(Row row) throws Exception {
+		if (row.getRowNumber() == 1) {
+			this.names = new String[row.getColumnCount()];
+			for (int i = 0; i < this.names.length; ++i)
+				this.names[i] = row.getColumnName(i + 1);
+			header();
+		}
+		row(row);
+	}
+
+	/**
+	 * Method to flush whatever is buffered and close file output.  Must be
+	 * called once the query has finished, even when it returned no rows.
+	 */
+	public void finish() throws IOException {
+		try {
+			this.out.flush();
+		} finally {
+			if (this.closeOut)
+				this.out.close();
+		}
+	}
+
+	protected abstract void header() throws Exception;
+
+	protected abstract void row(Row row) throws Exception;
+
+	/*
+	 * Ends an output line and pauses at the end of each page.
+	 */
+	protected void endLine() throws IOException, Stopped {
+		this.out.write('\n');
+		if (this.pageSize <= 0 || ++this.linesOnPage < this.pageSize)
+			return;
+		this.linesOnPage = 0;
+		this.out.write("-- more -- (Enter to continue, q to quit) ");
+		this.out.flush();
+		String answer = this.pagerInput.readLine();
+		if (answer == null || answer.trim().equalsIgnoreCase("q"))
+			throw new Stopped();
+	}
+
+	protected void writeValue(String s) throws IOException {
+		if (s != null)
+			this.out.write(s, 0, s.length());
+	}
+
+	/**
+	 * Tab separated values; tabs and line breaks inside a value become spaces.
+	 */
+	static class Tsv extends ResultRenderer {
+		Tsv(Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+			super(out, closeOut, pageSize, pagerInput);
+		}
+
+		protected void header() throws Exception {
+			for (int i = 0; i < this.names.length; ++i) {
+				if (i > 0) this.out.write('\t');
+				writeCell(this.names[i]);
+			}
+			endLine();
+		}
+
+		protected void row(Row row) throws Exception {
+			for (int i = 1; i <= this.names.length; ++i) {
+				if (i > 1) this.out.write('\t');
+				writeCell(row.getString(i));
+			}
+			endLine();
+		}
+
+		private void writeCell(String s) throws IOException {
+			if (s == null)
+				return;
+			int n = s.length();
+			int from = 0;
+			for (int i = 0; i < n; ++i) {
+				char c = s.charAt(i);
+				if (c == '\t' || c == '\n' || c == '\r') {
+					this.out.write(s, from, i - from);
+					this.out.write(' ');
+					from = i + 1;
+				}
+			}
+			this.out.write(s, from, n - from);
+		}
+	}
+
+	/**
+	 * Comma separated values quoted per RFC 4180, with CRLF line breaks.
+	 */
+	static class Csv extends ResultRenderer {
+		Csv(Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+			super(out, closeOut, pageSize, pagerInput);
+		}
+
+		protected void header() throws Exception {
+			for (int i = 0; i < this.names.length; ++i) {
+				if (i > 0) this.out.write(',');
+				writeCell(this.names[i]);
+			}
+			this.out.write('\r');
+			endLine();
+		}
+
+		protected void row(Row row) throws Exception {
+			for (int i = 1; i <= this.names.length; ++i) {
+				if (i > 1) this.out.write(',');
+				writeCell(row.getString(i));
+			}
+			this.out.write('\r');
+			endLine();
+		}
+
+		private void writeCell(String s) throws IOException {
+			if (s == null)
+				return;
+			int n = s.length();
+			boolean quote = false;
+			for (int i = 0; i < n && !quote; ++i) {
+				char c = s.charAt(i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quote) {
+				this.out.write(s, 0, n);
+				return;
+			}
+			this.out.write('"');
+			int from = 0;
+			for (int i = 0; i < n; ++i) {
+				if (s.charAt(i) == '"') {
+					//write through the quote, then double it
+					this.out.write(s, from, i - from + 1);
+					this.out.write('"');
+					from = i + 1;
+				}
+			}
+			this.out.write(s, from, n - from);
+			this.out.write('"');
+		}
+	}
+
+	/**
+	 * JSON Lines: one object per row, keyed by column name, values as strings.
+	 */
+	static class JsonLines extends ResultRenderer {
+		JsonLines(Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+			super(out, closeOut, pageSize, pagerInput);
+		}
+
+		protected void header() {
+		}
+
+		protected void row(Row row) throws Exception {
+			this.out.write('{');
+			for (int i = 1; i <= this.names.length; ++i) {
+				if (i > 1) this.out.write(',');
+				writeString(this.out, this.names[i - 1]);
+				this.out.write(':');
+				String s = row.getString(i);
+				if (s == null)
+					this.out.write("null");
+				else
+					writeString(this.out, s);
+			}
+			this.out.write('}');
+			endLine();
+		}
+	}
+
+	/**
+	 * Method to write a JSON string literal, escaping in place.
+	 *
+	 * @param out the destination
+	 * @param s the string to quote
+	 * @throws java.io.IOException when the write fails
+	 */
+	static void writeString(Writer out, String s) throws IOException {
+		out.write('"');
+		int n = s.length();
+		int from = 0;
+		for (int i = 0; i < n; ++i) {
+			char c = s.charAt(i);
+			if (c != '"' && c != '\\' && c >= 0x20)
+				continue;
+			out.write(s, from, i - from);
+			from = i + 1;
+			switch (c) {
+				case '"': out.write("\\\""); break;
+				case '\\': out.write("\\\\"); break;
+				case '\n': out.write("\\n"); break;
+				case '\r': out.write("\\r"); break;
+				case '\t': out.write("\\t"); break;
+				default:
+					out.write("\\u00");
+					out.write(Character.forDigit(c >> 4, 16));
+					out.write(Character.forDigit(c & 0xf, 16));
+			}
+		}
+		out.write(s, from, n - from);
+		out.write('"');
+	}
+
+	/**
+	 * Columns padded to a common width.  Rows are held back one page (or 100
+	 * rows when not paging) at a time so widths can be measured.
+	 */
+	static class Table extends ResultRenderer {
+		private final int batch;
+		private final List<String[]> pending = new ArrayList<String[]>();
+
+		Table(Writer out, boolean closeOut, int pageSize, BufferedReader pagerInput) {
+			super(out, closeOut, pageSize, pagerInput);
+			this.batch = pageSize > 1 ? pageSize - 1 : 100;
+		}
+
+		protected void header() {
+		}
+
+		protected void row(Row row) throws Exception {
+			String[] cells = new String[this.names.length];
+			for (int i = 0; i < cells.length; ++i)
+				cells[i] = row.getString(i + 1);
+			this.pending.add(cells);
+			if (this.pending.size() >= this.batch)
+				flushPending();
+		}
+
+		public void finish() throws IOException {
+			try {
+				flushPending();
+			} catch (Stopped e) {
+				// nothing left to show.
+			}
+			super.finish();
+		}
+
+		private void flushPending() throws IOException, Stopped {
+			if (this.pending.isEmpty())
+				return;
+			int[] width = new int[this.names.length];
+			for (int i = 0; i < width.length; ++i)
+				width[i] = this.names[i].length();
+			for (String[] cells : this.pending)
+				for (int i = 0; i < width.length; ++i)
+					if (cells[i] != null && cells[i].length() > width[i])
+						width[i] = cells[i].length();
+			writeLine(this.names, width);
+			for (String[] cells : this.pending)
+				writeLine(cells, width);
+			this.pending.clear();
+		}
+
+		private void writeLine(String[] cells, int[] width) throws IOException, Stopped {
+			for (int i = 0; i < cells.length; ++i) {
+				if (i > 0) this.out.write(" | ");
+				writeValue(cells[i]);
+				if (i < cells.length - 1)
+					for (int pad = cells[i] == null ? 0 : cells[i].length(); pad < width[i]; ++pad)
+						this.out.write(' ');
+			}
+			endLine();
+		}
+	}
+}
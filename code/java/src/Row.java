@@ -0,0 +1,132 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * A read-only view of the current row of a streaming query.  The same Row
+ * object is reused for every row of a result, so handlers must copy out any
+ * values they want to keep.  Columns are numbered from 1, as in JDBC.
+ *
+ * A Row is backed either by a JDBC result set or, for results computed in
+ * memory, by an array of values that is replaced for each row.
+ *
+ */
+public class Row {
+	private final ResultSet rs;
+	private final String[] names;
+	private Object[] values;
+	private boolean lastNull = false;
+	private long number = 0;
+
+	/**
+	 * Creates an array-backed row; see next(Object[]).
+	 *
+	 * @param names the column names
+	 */
+	public Row(String... names) {
+		this.rs = null;
+		this.names = names;
+	}
+
+	Row(ResultSet rs) throws SQLException {
+		this.rs = rs;
+		ResultSetMetaData rsmd = rs.getMetaData();
+		this.names = new String[rsmd.getColumnCount()];
+		for (int i = 0; i < this.names.length; ++i)
+			this.names[i] = rsmd.getColumnName(i + 1);
+	}
+
+	/**
+	 * Method to move an array-backed row on to the next set of values.
+	 *
+	 * @param values the column values, in column order
+	 * @return this row
+	 */
+	public Row next(Object... values) {
+		this.values = values;
+		++this.number;
+		return this;
+	}
+
+	boolean advance() throws SQLException {
+		if (!this.rs.next())
+			return false;
+		++this.number;
+		return true;
+	}
+
+	/**
+	 * @return the 1-based position of this row in the result
+	 */
+	public long getRowNumber() {
+		return this.number;
+	}
+
+	public int getColumnCount() {
+		return this.names.length;
+	}
+
+	public String getColumnName(int column) {
+		return this.names[column - 1];
+	}
+
+	public String getString(int column) throws SQLException {
+		if (this.rs != null)
+			return this.rs.getString(column);
+		Object v = value(column);
+		return v == null ? null : v.toString();
+	}
+
+	public int getInt(int column) throws SQLException {
+		if (this.rs != null)
+			return this.rs.getInt(column);
+		Object v = value(column);
+		return v == null ? 0 : v instanceof Number ? ((Number) v).intValue() : Integer.parseInt(v.toString());
+	}
+
+	public long getLong(int column) throws SQLException {
+		if (this.rs != null)
+			return this.rs.getLong(column);
+		Object v = value(column);
+		return v == null ? 0 : v instanceof Number ? ((Number) v).longValue() : Long.parseLong(v.toString());
+	}
+
+	public double getDouble(int column) throws SQLException {
+		if (this.rs != null)
+			return this.rs.getDouble(column);
+		Object v = value(column);
+		return v == null ? 0 : v instanceof Number ? ((Number) v).doubleValue() : Double.parseDouble(v.toString());
+	}
+
+	public java.sql.Timestamp getTimestamp(int column) throws SQLException {
+		if (this.rs != null)
+			return this.rs.getTimestamp(column);
+		return (java.sql.Timestamp) value(column);
+	}
+
+	private Object value(int column) {
+		Object v = this.values[column - 1];
+		this.lastNull = v == null;
+		return v;
+	}
+
+	/**
+	 * @return true when the column read last was SQL NULL
+	 */
+	public boolean wasNull() throws SQLException {
+		return this.rs != null ? this.rs.wasNull() : this.lastNull;
+	}
+}
@@ -0,0 +1,27 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Callback that receives the rows of a streaming query one at a time.
+ *
+ */
+public interface RowHandler {
+
+	/**
+	 * Called once per row, in result order.
+	 *
+	 * @param row the current row; only valid for the duration of the call
+	 * @throws Exception to abort the query
+	 */
+	void handle(Row row) throws Exception;
+}
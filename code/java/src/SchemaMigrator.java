@@ -0,0 +1,205 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Applies the versioned schema scripts in code/sql.  Scripts are named
+ * V<version>__<description>.sql and run in version order, each in its own
+ * transaction; the versions applied so far are recorded in schema_version.
+ *
+ * A database whose shop tables were created before versioning (e.g. by the
+ * course setup scripts) is baselined: version 1 is recorded without being
+ * run.
+ *
+ */
+public class SchemaMigrator {
+	private static final Pattern SCRIPT = Pattern.compile("V(\\d+)__(.+)\\.sql");
+	//the oldest schema the client runs against: V5 brings Closed_Rid and the partitioned requests,
+	//V6 the create_month_partitions that drains the default partition
+	static final int REQUIRED_VERSION = 6;
+
+	private final ConnectionPool pool;
+	private final File dir;
+
+	public SchemaMigrator(ConnectionPool pool, File dir) {
+		this.pool = pool;
+		this.dir = dir;
+	}
+
+	/**
+	 * Method to apply every script newer than the recorded schema version.
+	 *
+	 * @return the number of scripts applied
+	 * @throws Exception when a script cannot be read or fails
+	 */
+	public int migrate() throws Exception {
+		File[] scripts = this.dir.listFiles();
+		if (scripts == null)
+			throw new IOException("Cannot list " + this.dir.getPath());
+		Arrays.sort(scripts, new Comparator<File>() {
+			public int compare(File a, File b) {
+				return Integer.compare(version(a), version(b));
+			}
+		});
+
+		int applied = 0;
+		try (PooledConnection conn = this.pool.acquire()) {
+			Connection c = conn.getConnection();
+			Set<Integer> done = prepareVersionTable(c);
+			for (File script : scripts) {
+				Matcher m = SCRIPT.matcher(script.getName());
+				if (!m.matches())
+					continue;
+				int version = Integer.parseInt(m.group(1));
+				if (done.contains(version))
+					continue;
+				String sql = new String(Files.readAllBytes(script.toPath()), StandardCharsets.UTF_8);
+				long start = System.nanoTime();
+				c.setAutoCommit(false);
+				Statement stmt = c.createStatement();
+				try {
+					stmt.execute(sql);
+				} finally {
+					stmt.close();
+				}
+				record(c, version, m.group(2));
+				c.commit();
+				c.setAutoCommit(true);
+				System.out.printf("applied %s in %.2f s%n", script.getName(), (System.nanoTime() - start) / 1e9);
+				++applied;
+			}//end for
+		}
+		return applied;
+	}
+
+	/**
+	 * Method to read the schema version of a database without changing it.
+	 *
+	 * @param pool the database
+	 * @return the highest version applied, 1 for shop tables from before
+	 *         versioning, or 0 for a database without shop tables
+	 * @throws java.sql.SQLException when the version cannot be read
+	 */
+	public static int currentVersion(ConnectionPool pool) throws SQLException {
+		try (PooledConnection conn = pool.acquire()) {
+			Statement stmt = conn.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(
+					"SELECT to_regclass('schema_version') IS NOT NULL, to_regclass('customer') IS NOT NULL");
+				rs.next();
+				boolean versioned = rs.getBoolean(1);
+				boolean haveTables = rs.getBoolean(2);
+				rs.close();
+				if (!versioned)
+					return haveTables ? 1 : 0;
+				rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version");
+				rs.next();
+				int version = rs.getInt(1);
+				rs.close();
+				return version;
+			} finally {
+				stmt.close();
+			}
+		}
+	}
+
+	/**
+	 * Method to make sure the request tables have a partition for the current
+	 * month and the months after it, so new requests stay out of the default
+	 * partition.  Months that already exist are left alone.
+	 *
+	 * @param pool the database
+	 * @param monthsAhead how many months after the current one to cover
+	 * @return the number of partitions created
+	 * @throws java.sql.SQLException when a partition cannot be created
+	 */
+	public static int ensurePartitions(ConnectionPool pool, int monthsAhead) throws SQLException {
+		int created = 0;
+		try (PooledConnection conn = pool.acquire()) {
+			PreparedStatement stmt = conn.getConnection().prepareStatement(
+				"SELECT create_month_partitions(?, now()::date, (now() + make_interval(months => ?))::date)");
+			try {
+				for (String table : new String[] { "service_request", "closed_request" }) {
+					stmt.setString(1, table);
+					stmt.setInt(2, Math.max(0, monthsAhead));
+					ResultSet rs = conn.executeQuery(stmt);
+					rs.next();
+					created += rs.getInt(1);
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+		}
+		return created;
+	}
+
+	private Set<Integer> prepareVersionTable(Connection c) throws SQLException {
+		Set<Integer> done = new HashSet<Integer>();
+		Statement stmt = c.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(
+				"SELECT to_regclass('schema_version') IS NULL, to_regclass('customer') IS NOT NULL");
+			rs.next();
+			boolean fresh = rs.getBoolean(1);
+			boolean haveTables = rs.getBoolean(2);
+			rs.close();
+			if (fresh) {
+				stmt.execute("CREATE TABLE schema_version (version INTEGER PRIMARY KEY, description TEXT NOT NULL, " +
+					"applied_at TIMESTAMP NOT NULL DEFAULT now())");
+				if (haveTables) {
+					record(c, 1, "baseline");
+					System.out.println("existing shop tables recorded as schema version 1");
+				}
+			}
+			rs = stmt.executeQuery("SELECT version FROM schema_version");
+			while (rs.next())
+				done.add(rs.getInt(1));
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+		return done;
+	}
+
+	private static void record(Connection c, int version, String description) throws SQLException {
+		PreparedStatement stmt = c.prepareStatement("INSERT INTO schema_version (version, description) VALUES (?, ?)");
+		try {
+			stmt.setInt(1, version);
+			stmt.setString(2, description);
+			stmt.executeUpdate();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static int version(File f) {
+		Matcher m = SCRIPT.matcher(f.getName());
+		return m.matches() ? Integer.parseInt(m.group(1)) : Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,346 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * In-process answer to report 9, "the k cars with the most services".
+ * Counts are kept per VIN in a list of buckets ordered by count, highest
+ * first, each bucket holding the VINs with exactly that count.  Recording a
+ * service moves one VIN to the neighbouring bucket in O(1), and the top k
+ * cars are read off the front of the list in O(k).
+ *
+ * The counter is seeded with one GROUP BY at startup and then follows the
+ * service requests inserted by this client only; requests written by other
+ * clients show up after the next reseed().  The SQL report remains available
+ * through verify() as a consistency check.
+ *
+ * A car's requests may be spread over several shards, so the seed adds up
+ * the counts of every shard.
+ *
+ */
+public class ServiceCounter {
+
+	/**
+	 * One car and its number of service requests.
+	 */
+	public static final class Car {
+		public final String vin;
+		public final int year;
+		public final String make;
+		public final String model;
+		long count;
+		Bucket bucket;
+
+		Car(String vin, int year, String make, String model) {
+			this.vin = vin;
+			this.year = year;
+			this.make = make;
+			this.model = model;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+	}
+
+	private static final class Bucket {
+		final long count;
+		//insertion ordered, so ties list the car that reached the count first
+		final LinkedHashSet<Car> cars = new LinkedHashSet<Car>();
+		Bucket higher;
+		Bucket lower;
+
+		Bucket(long count) {
+			this.count = count;
+		}
+	}
+
+	static final String SEED =
+		"SELECT c.vin, c.year, c.make, c.model, COUNT(sr.rid) FROM Car c, Service_Request sr " +
+		"WHERE c.vin = sr.car_vin GROUP BY c.vin, c.year, c.make, c.model";
+	static final String CAR_BY_VIN = "SELECT c.vin, c.year, c.make, c.model FROM Car c WHERE c.vin = ?";
+
+	private final ShardRouter shards;
+	private final HashMap<String, Car> cars = new HashMap<String, Car>();
+	//highest count first
+	private Bucket top = null;
+	//lowest count, where new cars join
+	private Bucket bottom = null;
+	private boolean seeded = false;
+
+	public ServiceCounter(ShardRouter shards) {
+		this.shards = shards;
+	}
+
+	/**
+	 * Method to reload every count from the database.
+	 *
+	 * @throws java.sql.SQLException when the seed query fails
+	 */
+	public void reseed() throws SQLException {
+		List<Car> loaded = new ArrayList<Car>();
+		HashMap<String, Car> merged = new HashMap<String, Car>();
+		for (ConnectionPool pool : this.shards.all())
+			load(pool, loaded, merged);
+		seed(loaded);
+	}
+
+	/*
+	 * Replaces every count with the given cars, in the order given.
+	 */
+	void seed(List<Car> loaded) {
+		//group by count, then link the buckets from the highest count down
+		HashMap<Long, Bucket> byCount = new HashMap<Long, Bucket>();
+		for (Car car : loaded) {
+			Bucket b = byCount.get(car.count);
+			if (b == null)
+				byCount.put(car.count, b = new Bucket(car.count));
+			b.cars.add(car);
+			car.bucket = b;
+		}
+		List<Long> counts = new ArrayList<Long>(byCount.keySet());
+		Collections.sort(counts, Collections.reverseOrder());
+
+		synchronized (this) {
+			this.cars.clear();
+			for (Car car : loaded)
+				this.cars.put(car.vin, car);
+			this.top = null;
+			this.bottom = null;
+			Bucket prev = null;
+			for (Long count : counts) {
+				Bucket b = byCount.get(count);
+				b.higher = prev;
+				if (prev == null)
+					this.top = b;
+				else
+					prev.lower = b;
+				prev = b;
+			}
+			this.bottom = prev;
+			this.seeded = true;
+		}
+	}
+
+	/**
+	 * Method to count one more service request for a car.  Cars not seen
+	 * before are looked up once in the Car table.
+	 *
+	 * @param vin the serviced car
+	 * @throws java.sql.SQLException when the car is not in the Car table
+	 *         (SQLSTATE 23503) or cannot be looked up
+	 */
+	public void recordService(String vin) throws SQLException {
+		ensureSeeded();
+		Car car;
+		synchronized (this) {
+			car = this.cars.get(vin);
+		}
+		if (car == null)
+			car = lookupCar(vin);
+		synchronized (this) {
+			Car known = this.cars.get(vin);
+			if (known == null)
+				this.cars.put(vin, known = car);
+			increment(known);
+		}
+	}
+
+	/**
+	 * Method to list the k cars with the most service requests, most first.
+	 *
+	 * @param k how many cars to return
+	 * @return at most k cars
+	 * @throws java.sql.SQLException when the counter has to be seeded and cannot be
+	 */
+	public List<Car> top(int k) throws SQLException {
+		ensureSeeded();
+		List<Car> result = new ArrayList<Car>(Math.max(0, Math.min(k, 1024)));
+		synchronized (this) {
+			for (Bucket b = this.top; b != null && result.size() < k; b = b.lower) {
+				Iterator<Car> it = b.cars.iterator();
+				while (it.hasNext() && result.size() < k)
+					result.add(it.next());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Method to stream the top k cars to a handler with the same columns as
+	 * the SQL report.
+	 *
+	 * @return the number of rows handed over
+	 */
+	public long top(int k, RowHandler handler) throws Exception {
+		Row row = new Row("car_vin", "year", "make", "model", "count");
+		List<Car> cars = top(k);
+		for (Car car : cars)
+			handler.handle(row.next(car.vin, car.year, car.make, car.model, car.getCount()));
+		return cars.size();
+	}
+
+	/**
+	 * Method to compare the in-memory answer with the SQL report, merged
+	 * over every shard.  Ties may be listed in a different order, so only
+	 * the counts are compared.
+	 *
+	 * @param esql the client to run the SQL report on
+	 * @param k how many cars to compare
+	 * @return null when both agree, otherwise a description of the mismatch
+	 * @throws java.sql.SQLException when the SQL report fails
+	 */
+	public String verify(MechanicShop esql, int k) throws SQLException {
+		final List<Long> expected = new ArrayList<Long>();
+		try {
+			esql.streamReportQuery(9, k, new RowHandler() {
+				public void handle(Row row) throws SQLException {
+					expected.add(row.getLong(5));
+				}
+			});
+		} catch (SQLException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException(e);
+		}
+		List<Car> actual = top(k);
+		if (expected.size() != actual.size())
+			return "SQL returned " + expected.size() + " cars, counter " + actual.size();
+		for (int i = 0; i < actual.size(); ++i) {
+			long want = expected.get(i);
+			if (want != actual.get(i).getCount())
+				return "rank " + (i + 1) + ": SQL count " + want + ", counter " + actual.get(i).getCount() +
+					" (" + actual.get(i).vin + ")";
+		}
+		return null;
+	}
+
+	/*
+	 * Adds one shard's counts, merging cars already loaded from another.
+	 */
+	private static void load(ConnectionPool pool, List<Car> loaded, HashMap<String, Car> merged) throws SQLException {
+		try (PooledConnection conn = pool.acquire()) {
+			conn.getConnection().setAutoCommit(false);
+			PreparedStatement stmt = conn.prepare(SEED);
+			stmt.setFetchSize(10000);
+			ResultSet rs = conn.executeQuery(stmt);
+			try {
+				while (rs.next()) {
+					Car car = merged.get(rs.getString(1));
+					if (car == null) {
+						car = new Car(rs.getString(1), rs.getInt(2), rs.getString(3), rs.getString(4));
+						merged.put(car.vin, car);
+						loaded.add(car);
+					}
+					car.count += rs.getLong(5);
+				}
+			} finally {
+				rs.close();
+			}
+		}
+	}
+
+	private void ensureSeeded() throws SQLException {
+		boolean done;
+		synchronized (this) {
+			done = this.seeded;
+		}
+		if (!done)
+			reseed();
+	}
+
+	/*
+	 * Finds a car on the first shard that has it.  Cars are copied to every
+	 * shard, so this is normally shard 0; the others cover a copy that is
+	 * missing or still on its way.
+	 */
+	Car lookupCar(String vin) throws SQLException {
+		for (ConnectionPool pool : this.shards.all()) {
+			try (PooledConnection conn = pool.acquire()) {
+				PreparedStatement stmt = conn.prepare(CAR_BY_VIN);
+				stmt.setString(1, vin);
+				ResultSet rs = conn.executeQuery(stmt);
+				try {
+					if (rs.next())
+						return new Car(rs.getString(1), rs.getInt(2), rs.getString(3), rs.getString(4));
+				} finally {
+					rs.close();
+				}
+			}
+		}
+		throw new SQLException("No car " + vin, "23503");
+	}
+
+	/*
+	 * Moves a car from its bucket to the bucket for count + 1, creating it
+	 * just above the old one when needed.  Caller holds the lock.
+	 */
+	private void increment(Car car) {
+		Bucket from = car.bucket;
+		long count = car.count + 1;
+		Bucket to;
+		if (from == null) {
+			//a new car joins the bottom bucket
+			if (this.bottom != null && this.bottom.count == count)
+				to = this.bottom;
+			else
+				to = link(new Bucket(count), this.bottom, null);
+		} else if (from.higher != null && from.higher.count == count) {
+			to = from.higher;
+		} else {
+			to = link(new Bucket(count), from.higher, from);
+		}
+		if (from != null) {
+			from.cars.remove(car);
+			if (from.cars.isEmpty())
+				unlink(from);
+		}
+		to.cars.add(car);
+		car.bucket = to;
+		car.count = count;
+	}
+
+	private Bucket link(Bucket b, Bucket higher, Bucket lower) {
+		b.higher = higher;
+		b.lower = lower;
+		if (higher == null)
+			this.top = b;
+		else
+			higher.lower = b;
+		if (lower == null)
+			this.bottom = b;
+		else
+			lower.higher = b;
+		return b;
+	}
+
+	private void unlink(Bucket b) {
+		if (b.higher == null)
+			this.top = b.lower;
+		else
+			b.higher.lower = b.lower;
+		if (b.lower == null)
+			this.bottom = b.higher;
+		else
+			b.lower.higher = b.higher;
+	}
+}
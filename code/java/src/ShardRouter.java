@@ -0,0 +1,199 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Places each customer, with its ownerships, service requests and closed
+ * requests, on one of N shop databases: shard floorMod(customer_id, N).
+ * Shard 0 is the database the client was started on; it also holds the id
+ * sequences, so ids stay unique across shards.  Mechanic and Car are
+ * reference tables written to every shard, so the joins of every report stay
+ * local to a shard.
+ *
+ * The other shards are listed, as JDBC URLs, in mechanicshop.shards.
+ * Without it there is one shard and every call resolves to the primary pool.
+ *
+ */
+public class ShardRouter {
+
+	/**
+	 * Work done on one shard by scatter().
+	 */
+	public interface Task<T> {
+		T run(int shard, ConnectionPool pool) throws Exception;
+	}
+
+	private final List<ConnectionPool> shards = new ArrayList<ConnectionPool>();
+	private ExecutorService workers = null;
+
+	/**
+	 * @param primary the pool of shard 0
+	 * @param urls JDBC URLs of shards 1 to N-1, possibly none
+	 * @param user the database user, the same on every shard
+	 * @param passwd the password
+	 * @param poolSize connections per shard pool
+	 * @param statementCacheSize prepared statements cached per connection
+	 * @param acquireTimeoutMillis wait for a free shard connection
+	 */
+	public ShardRouter(ConnectionPool primary, List<String> urls, String user, String passwd,
+			int poolSize, int statementCacheSize, long acquireTimeoutMillis) {
+		this.shards.add(primary);
+		for (String url : urls)
+			this.shards.add(new ConnectionPool(url, user, passwd, poolSize, statementCacheSize, acquireTimeoutMillis));
+	}
+
+	/**
+	 * Method to build a router from the comma separated JDBC URLs in
+	 * mechanicshop.shards.  Shard pools are sized like the primary's.
+	 *
+	 * @param primary the pool of shard 0
+	 * @param user the database user
+	 * @param passwd the password
+	 * @return a router, with the primary as its only shard when none are configured
+	 */
+	public static ShardRouter fromProperties(ConnectionPool primary, String user, String passwd) {
+		List<String> urls = new ArrayList<String>();
+		for (String url : System.getProperty("mechanicshop.shards", "").split(","))
+			if (!url.trim().isEmpty())
+				urls.add(url.trim());
+		return new ShardRouter(primary, urls, user, passwd,
+			primary.getMaxSize(),
+			Integer.getInteger("mechanicshop.stmtcache.size", 64),
+			Long.getLong("mechanicshop.pool.timeout", 30000L));
+	}
+
+	/**
+	 * @return the number of shards, at least 1
+	 */
+	public int count() {
+		return this.shards.size();
+	}
+
+	public boolean isSharded() {
+		return this.shards.size() > 1;
+	}
+
+	/**
+	 * @return the shard holding a customer's rows
+	 */
+	public int shardOf(int customerId) {
+		return Math.floorMod(customerId, this.shards.size());
+	}
+
+	public ConnectionPool get(int shard) {
+		return this.shards.get(shard);
+	}
+
+	public ConnectionPool forCustomer(int customerId) {
+		return this.shards.get(shardOf(customerId));
+	}
+
+	/**
+	 * @return every shard pool, shard 0 first
+	 */
+	public List<ConnectionPool> all() {
+		return Collections.unmodifiableList(this.shards);
+	}
+
+	/**
+	 * Method to run a task on every shard at once.  With one shard the
+	 * task runs on the calling thread.
+	 *
+	 * @param task the work for one shard
+	 * @return the results, in shard order
+	 * @throws Exception the first failure, by shard order
+	 */
+	public <T> List<T> scatter(final Task<T> task) throws Exception {
+		List<T> results = new ArrayList<T>(this.shards.size());
+		if (!isSharded()) {
+			results.add(task.run(0, this.shards.get(0)));
+			return results;
+		}
+		List<Future<T>> futures = new ArrayList<Future<T>>(this.shards.size());
+		for (int i = 0; i < this.shards.size(); ++i) {
+			final int shard = i;
+			futures.add(executor().submit(new Callable<T>() {
+				public T call() throws Exception {
+					return task.run(shard, ShardRouter.this.shards.get(shard));
+				}
+			}));
+		}
+		Exception failure = null;
+		for (Future<T> f : futures) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				if (failure == null)
+					failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+		return results;
+	}
+
+	/**
+	 * Method to start a task on a worker thread, e.g. one producer of a
+	 * scatter-gather merge.
+	 */
+	<T> Future<T> submit(Callable<T> task) {
+		return executor().submit(task);
+	}
+
+	/**
+	 * @return the pool counters of every shard but the primary, whose
+	 *         counters are printed on their own
+	 */
+	public String stats() {
+		StringBuilder sb = new StringBuilder("shards[n=").append(this.shards.size());
+		for (int i = 1; i < this.shards.size(); ++i)
+			sb.append(", ").append(i).append('=').append(this.shards.get(i).getUrl())
+				.append(" active=").append(this.shards.get(i).getActiveCount())
+				.append(" waits=").append(this.shards.get(i).getWaits());
+		return sb.append(']').toString();
+	}
+
+	/**
+	 * Method to close the pools of shards 1 to N-1; the primary pool
+	 * belongs to the client.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (this.workers != null)
+				this.workers.shutdownNow();
+		}
+		for (int i = 1; i < this.shards.size(); ++i)
+			this.shards.get(i).close();
+	}
+
+	private synchronized ExecutorService executor() {
+		if (this.workers == null)
+			this.workers = Executors.newCachedThreadPool(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "shard-worker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		return this.workers;
+	}
+}
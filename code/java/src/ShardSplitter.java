@@ -0,0 +1,185 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a directory of shop CSV files, e.g. code/data or a DataGenerator
+ * data set, into one directory per shard, <out dir>/shard0 to shard<N-1>,
+ * with the placement ShardRouter uses: Customer, Owns and Service_Request
+ * rows go to the shard of their customer, Closed_Request rows to the shard
+ * of their request, and Car and Mechanic to every shard.  Each directory is
+ * then loaded into its shard with --load, run without mechanicshop.shards.
+ *
+ */
+public class ShardSplitter {
+	private final File in;
+	private final int shards;
+
+	public ShardSplitter(File in, int shards) {
+		if (shards < 1)
+			throw new IllegalArgumentException("at least one shard is needed");
+		this.in = in;
+		this.shards = shards;
+	}
+
+	/**
+	 * Method to write the shard directories.
+	 *
+	 * @param out the directory receiving shard0 to shard<N-1>
+	 * @throws java.io.IOException when a file cannot be read or written
+	 */
+	public void split(File out) throws IOException {
+		for (int i = 0; i < this.shards; ++i) {
+			File dir = new File(out, "shard" + i);
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Cannot create " + dir.getPath());
+		}
+		copy(out, "car.csv");
+		copy(out, "mechanic.csv");
+		route(out, "customer.csv", 0, false);
+		route(out, "owns.csv", 1, false);
+		//closed requests carry no customer; their request's customer is looked up by rid
+		int[] customerOf = route(out, "service_request.csv", 1, true);
+		routeClosed(out, customerOf);
+	}
+
+	private void copy(File out, String name) throws IOException {
+		Writer[] w = open(out, name);
+		try (BufferedReader r = reader(name)) {
+			for (String line = r.readLine(); line != null; line = r.readLine())
+				if (!line.isEmpty())
+					for (Writer shard : w)
+						shard.write(line + "\r\n");
+		} finally {
+			close(w);
+		}
+	}
+
+	/*
+	 * Writes each line to the shard of the customer id in a column.  With
+	 * record on, returns the customer of every id in column 0, plus one so
+	 * that 0 means none.
+	 */
+	private int[] route(File out, String name, int column, boolean record) throws IOException {
+		int[] customerOf = new int[record ? 1024 : 0];
+		Writer[] w = open(out, name);
+		try (BufferedReader r = reader(name)) {
+			for (String line = r.readLine(); line != null; line = r.readLine()) {
+				if (line.isEmpty())
+					continue;
+				int customer = field(line, column, name);
+				if (record) {
+					int id = field(line, 0, name);
+					if (id >= customerOf.length)
+						customerOf = Arrays.copyOf(customerOf, Math.max(id + 1, customerOf.length * 2));
+					customerOf[id] = customer + 1;
+				}
+				w[Math.floorMod(customer, this.shards)].write(line + "\r\n");
+			}
+		} finally {
+			close(w);
+		}
+		return customerOf;
+	}
+
+	private void routeClosed(File out, int[] customerOf) throws IOException {
+		Writer[] w = open(out, "closed_request.csv");
+		try (BufferedReader r = reader("closed_request.csv")) {
+			for (String line = r.readLine(); line != null; line = r.readLine()) {
+				if (line.isEmpty())
+					continue;
+				int rid = field(line, 1, "closed_request.csv");
+				if (rid < 0 || rid >= customerOf.length || customerOf[rid] == 0)
+					throw new IOException("closed_request.csv closes unknown request " + rid);
+				w[Math.floorMod(customerOf[rid] - 1, this.shards)].write(line + "\r\n");
+			}
+		} finally {
+			close(w);
+		}
+	}
+
+	private BufferedReader reader(String name) throws IOException {
+		return new BufferedReader(new InputStreamReader(
+			new FileInputStream(new File(this.in, name)), StandardCharsets.UTF_8), 1 << 16);
+	}
+
+	private Writer[] open(File out, String name) throws IOException {
+		Writer[] w = new Writer[this.shards];
+		try {
+			for (int i = 0; i < w.length; ++i)
+				w[i] = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(new File(out, "shard" + i), name)), StandardCharsets.UTF_8), 1 << 16);
+		} catch (IOException e) {
+			close(w);
+			throw e;
+		}
+		return w;
+	}
+
+	private static void close(Writer[] w) throws IOException {
+		IOException failure = null;
+		for (Writer shard : w) {
+			if (shard == null)
+				continue;
+			try {
+				shard.close();
+			} catch (IOException e) {
+				if (failure == null)
+					failure = e;
+			}
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/*
+	 * Reads the integer in a column of a CSV line; the id columns are never quoted.
+	 */
+	private static int field(String line, int column, String name) throws IOException {
+		int from = 0;
+		for (int i = 0; i < column; ++i) {
+			from = line.indexOf(',', from) + 1;
+			if (from == 0)
+				throw new IOException(name + ": missing column " + (column + 1) + " in " + line);
+		}
+		int to = line.indexOf(',', from);
+		try {
+			return Integer.parseInt(line.substring(from, to < 0 ? line.length() : to).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException(name + ": bad id in " + line);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 3) {
+			System.err.println("Usage: java [-classpath <classpath>] ShardSplitter <csv dir> <shards> <out dir>");
+			return;
+		}
+		long start = System.nanoTime();
+		File out = new File(args[2]);
+		new ShardSplitter(new File(args[0]), Integer.parseInt(args[1])).split(out);
+		System.out.printf("%s split into %s shards under %s in %.2f s%n", args[0], args[1], out.getPath(),
+			(System.nanoTime() - start) / 1e9);
+	}
+}
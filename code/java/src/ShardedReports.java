@@ -0,0 +1,299 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs reports 6-10 on every shard at once and merges the partial results.
+ * Each shard streams its rows into a bounded queue from a worker thread, and
+ * the caller's thread merges the queues as rows arrive:
+ *
+ *   6, 8, 10  every shard returns its rows in report order, so a k-way merge
+ *             on the sort column gives the global order without buffering
+ *   7         customers never span shards, so the shard results are appended
+ *   9         a car's requests may sit on several shards, so every shard
+ *             returns its full per-car counts, which are summed before the
+ *             top k are taken
+ *
+ * Report 10 needs no sum: a customer's bills all live on the customer's
+ * shard, so each shard's totals are already final.
+ *
+ */
+public class ShardedReports {
+	//end of a shard's rows
+	private static final String[] END = new String[0];
+
+	private final MechanicShop esql;
+	private final ShardRouter shards;
+	private final int queueSize;
+
+	/**
+	 * @param esql the client whose shard connections run the queries
+	 * @param shards the shards to query
+	 * @param queueSize rows buffered per shard ahead of the merge
+	 */
+	public ShardedReports(MechanicShop esql, ShardRouter shards, int queueSize) {
+		this.esql = esql;
+		this.shards = shards;
+		this.queueSize = Math.max(1, queueSize);
+	}
+
+	/**
+	 * Method to run one of the menu reports (options 6-10) on every shard.
+	 *
+	 * @param report the menu number of the report
+	 * @param k the number of cars for report 9, ignored otherwise
+	 * @param handler receives every merged row, in order
+	 * @return the number of rows handed over
+	 * @throws Exception when a shard query or the handler fails
+	 */
+	public long report(int report, int k, RowHandler handler) throws Exception {
+		switch (report) {
+			case 6: return merge(MechanicShop.REPORT_BILL_LESS_THAN_100, 4, handler);
+			case 7: return merge(MechanicShop.REPORT_MORE_THAN_20_CARS, 0, handler);
+			case 8: return merge(MechanicShop.REPORT_CARS_BEFORE_1995, 5, handler);
+			case 9: return topK(withoutLimit(MechanicShop.REPORT_K_MOST_SERVICED), k, handler);
+			case 10: return merge(MechanicShop.REPORT_TOTAL_BILL, 3, handler);
+			default:
+				throw new IllegalArgumentException("No report " + report);
+		}
+	}
+
+	/**
+	 * Method to run the date-range variant of report 6, 9 or 10 on every
+	 * shard.
+	 *
+	 * @return the number of rows handed over
+	 * @throws Exception when a shard query or the handler fails
+	 */
+	public long report(int report, int k, Timestamp from, Timestamp to, RowHandler handler) throws Exception {
+		switch (report) {
+			case 6: return merge(MechanicShop.REPORT_BILL_LESS_THAN_100_BETWEEN, 4, handler, from, to, to);
+			case 9: return topK(withoutLimit(MechanicShop.REPORT_K_MOST_SERVICED_BETWEEN), k, handler, from, to);
+			case 10: return merge(MechanicShop.REPORT_TOTAL_BILL_BETWEEN, 3, handler, from, to, to);
+			default:
+				throw new IllegalArgumentException("No date-range variant of report " + report);
+		}
+	}
+
+	static String withoutLimit(String query) {
+		if (!query.endsWith(" LIMIT ?"))
+			throw new IllegalArgumentException("Not a top-k query: " + query);
+		return query.substring(0, query.length() - " LIMIT ?".length());
+	}
+
+	/**
+	 * Method to run a query on every shard and merge the results.
+	 *
+	 * @param query the query, run unchanged on every shard
+	 * @param orderColumn the integer column every shard sorts by, descending,
+	 *        or 0 to append the shard results in shard order
+	 * @param handler receives every row
+	 * @param params values for the ? placeholders of the query
+	 * @return the number of rows handed over
+	 * @throws Exception when a shard query or the handler fails
+	 */
+	public long merge(String query, final int orderColumn, RowHandler handler, Object... params) throws Exception {
+		Scatter scatter = new Scatter(query, params);
+		try {
+			Row out = null;
+			long rows = 0;
+			if (orderColumn <= 0) {
+				for (int shard = 0; shard < this.shards.count(); ++shard)
+					for (String[] row = scatter.take(shard); row != END; row = scatter.take(shard)) {
+						if (out == null)
+							out = new Row(scatter.names);
+						handler.handle(out.next((Object[]) row));
+						++rows;
+					}
+				return rows;
+			}
+
+			//highest value first; ties keep shard order
+			PriorityQueue<Head> heads = new PriorityQueue<Head>(this.shards.count(), new Comparator<Head>() {
+				public int compare(Head a, Head b) {
+					int c = Long.compare(b.key, a.key);
+					return c != 0 ? c : Integer.compare(a.shard, b.shard);
+				}
+			});
+			for (int shard = 0; shard < this.shards.count(); ++shard) {
+				String[] row = scatter.take(shard);
+				if (row != END)
+					heads.add(new Head(shard, row, orderColumn));
+			}
+			while (!heads.isEmpty()) {
+				Head head = heads.poll();
+				if (out == null)
+					out = new Row(scatter.names);
+				handler.handle(out.next((Object[]) head.row));
+				++rows;
+				String[] row = scatter.take(head.shard);
+				if (row != END)
+					heads.add(new Head(head.shard, row, orderColumn));
+			}
+			return rows;
+		} finally {
+			scatter.abandon();
+		}
+	}
+
+	/**
+	 * Method to run a per-car count on every shard and hand over the k cars
+	 * with the highest total.
+	 *
+	 * @param query a query returning vin, year, make, model and count, without a LIMIT
+	 * @param k how many cars to hand over
+	 * @param handler receives at most k rows, highest count first
+	 * @param params values for the ? placeholders of the query
+	 * @return the number of rows handed over
+	 * @throws Exception when a shard query or the handler fails
+	 */
+	public long topK(String query, int k, RowHandler handler, Object... params) throws Exception {
+		Scatter scatter = new Scatter(query, params);
+		final HashMap<String, String[]> byVin = new HashMap<String, String[]>();
+		final HashMap<String, Long> counts = new HashMap<String, Long>();
+		//first seen first, so ties are listed in shard order
+		List<String> vins = new ArrayList<String>();
+		try {
+			for (int shard = 0; shard < this.shards.count(); ++shard)
+				for (String[] row = scatter.take(shard); row != END; row = scatter.take(shard)) {
+					Long count = counts.get(row[0]);
+					long n = parseLong(row[4]);
+					if (count == null) {
+						byVin.put(row[0], row);
+						vins.add(row[0]);
+						counts.put(row[0], n);
+					} else {
+						counts.put(row[0], count + n);
+					}
+				}
+		} finally {
+			scatter.abandon();
+		}
+		Collections.sort(vins, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return Long.compare(counts.get(b), counts.get(a));
+			}
+		});
+		Row out = new Row(scatter.names != null ? scatter.names : new String[] { "car_vin", "year", "make", "model", "count" });
+		long rows = 0;
+		for (String vin : vins) {
+			if (rows >= k)
+				break;
+			String[] row = byVin.get(vin);
+			handler.handle(out.next(row[0], row[1], row[2], row[3], counts.get(vin)));
+			++rows;
+		}
+		return rows;
+	}
+
+	/*
+	 * Streams one shard's rows; the merge reads every shard through here.
+	 */
+	long stream(int shard, String query, RowHandler handler, Object... params) throws Exception {
+		return this.esql.streamShard(shard, query, handler, params);
+	}
+
+	private static long parseLong(String s) {
+		return s == null ? Long.MIN_VALUE : Long.parseLong(s);
+	}
+
+	private static final class Head {
+		final int shard;
+		final String[] row;
+		final long key;
+
+		Head(int shard, String[] row, int orderColumn) {
+			this.shard = shard;
+			this.row = row;
+			this.key = parseLong(row[orderColumn - 1]);
+		}
+	}
+
+	/*
+	 * One query running on every shard, each feeding its own queue.  A
+	 * shard's rows end with END, after its failure if any has been recorded.
+	 */
+	private final class Scatter {
+		final List<BlockingQueue<String[]>> queues = new ArrayList<BlockingQueue<String[]>>();
+		final Exception[] failures;
+		volatile String[] names = null;
+		volatile boolean abandoned = false;
+
+		Scatter(final String query, final Object[] params) {
+			this.failures = new Exception[ShardedReports.this.shards.count()];
+			for (int i = 0; i < this.failures.length; ++i) {
+				final int shard = i;
+				final BlockingQueue<String[]> queue = new ArrayBlockingQueue<String[]>(ShardedReports.this.queueSize);
+				this.queues.add(queue);
+				ShardedReports.this.shards.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try {
+							ShardedReports.this.stream(shard, query, new RowHandler() {
+								public void handle(Row row) throws Exception {
+									String[] values = new String[row.getColumnCount()];
+									for (int c = 0; c < values.length; ++c)
+										values[c] = row.getString(c + 1);
+									if (Scatter.this.names == null) {
+										String[] n = new String[values.length];
+										for (int c = 0; c < n.length; ++c)
+											n[c] = row.getColumnName(c + 1);
+										Scatter.this.names = n;
+									}
+									if (!put(queue, values))
+										throw new InterruptedException("merge abandoned");
+								}
+							}, params);
+						} catch (Exception e) {
+							Scatter.this.failures[shard] = e;
+						} finally {
+							put(queue, END);
+						}
+						return null;
+					}
+				});
+			}
+		}
+
+		/*
+		 * Waits for room in the queue, giving up once the merge is abandoned.
+		 */
+		boolean put(BlockingQueue<String[]> queue, String[] row) throws InterruptedException {
+			while (!this.abandoned)
+				if (queue.offer(row, 100, TimeUnit.MILLISECONDS))
+					return true;
+			return false;
+		}
+
+		String[] take(int shard) throws Exception {
+			String[] row = this.queues.get(shard).take();
+			if (row == END && this.failures[shard] != null)
+				throw this.failures[shard];
+			return row;
+		}
+
+		void abandon() {
+			this.abandoned = true;
+		}
+	}
+}
@@ -0,0 +1,384 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves the menu operations over a small HTTP/JSON API on localhost:
+ *
+ *   POST /customers            {"fname", "lname", "phone", "address"}    -> {"id"}
+ *   POST /mechanics            {"fname", "lname", "experience"}          -> {"id"}
+ *   POST /cars                 {"customer_id", "vin", "make", "model", "year"} -> {"ownership_id"}
+ *   POST /requests             {"customer_id", "vin", "odometer", "complain"[, "date"]}  -> {"rid"}
+ *   POST /requests/<rid>/close {"mid", "comment", "bill"[, "date"]}      -> {"wid"}, 404 for an unknown
+ *                              request or mechanic, 409 if already closed
+ *   GET  /reports/<6-10>[?k=]  rows as JSON Lines, streamed
+ *   GET  /reports/<6|9|10>?from=&to=[&k=]  the same over a date range
+ *   GET  /stats                pool, replica and admission counters
+ *
+ * Each exchange runs on its own virtual thread when the JVM has them (Java
+ * 21 and later), otherwise on a bounded platform thread pool.  Database work
+ * is admitted through a semaphore sized to the connection pool, so admitted
+ * requests find a connection rather than wait out the pool's acquire
+ * timeout: a request that cannot be admitted within the queue timeout, or
+ * that still times out waiting for a connection, is answered 503 with
+ * Retry-After so clients back off instead of piling up behind the pool.
+ *
+ * A body naming a customer or car that does not exist, or a car the
+ * customer does not own, is answered 422; a duplicate key 409.
+ *
+ */
+public class ShopServer {
+	private final MechanicShop esql;
+	private final HttpServer http;
+	private final ExecutorService executor;
+	private final Semaphore admission;
+	private final int maxInFlight;
+	private final long queueTimeoutMillis;
+
+	private final AtomicLong admitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param esql the connected client whose pool serves every request
+	 * @param port the TCP port to listen on, on the loopback interface
+	 * @param maxInFlight requests allowed to work on the database at once
+	 * @param queueTimeoutMillis how long a request may wait to be admitted
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public ShopServer(MechanicShop esql, int port, int maxInFlight, long queueTimeoutMillis) throws IOException {
+		this.esql = esql;
+		this.maxInFlight = maxInFlight;
+		this.queueTimeoutMillis = queueTimeoutMillis;
+		this.admission = new Semaphore(maxInFlight, true);
+		this.executor = newExecutor(Integer.getInteger("mechanicshop.server.threads", 64));
+		this.http = HttpServer.create(new InetSocketAddress("localhost", port), Integer.getInteger("mechanicshop.server.backlog", 128));
+		this.http.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+		this.http.setExecutor(this.executor);
+	}
+
+	/*
+	 * Executors.newVirtualThreadPerTaskExecutor() exists from Java 21 on; it
+	 * is looked up reflectively so the client still builds for older JDKs.
+	 */
+	static ExecutorService newExecutor(int platformThreads) {
+		try {
+			Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (Exception e) {
+			return Executors.newFixedThreadPool(platformThreads);
+		}
+	}
+
+	public void start() {
+		this.http.start();
+	}
+
+	/**
+	 * Method to stop accepting requests, give running ones a second to
+	 * finish and stop the worker threads.
+	 */
+	public void stop() {
+		this.http.stop(1);
+		this.executor.shutdown();
+		try {
+			this.executor.awaitTermination(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getPort() {
+		return this.http.getAddress().getPort();
+	}
+
+	/**
+	 * @return the admission counters, in the style of ConnectionPool.stats()
+	 */
+	public String stats() {
+		return "server[inflight=" + (this.maxInFlight - this.admission.availablePermits()) +
+			", max=" + this.maxInFlight +
+			", admitted=" + this.admitted.get() +
+			", rejected=" + this.rejected.get() +
+			", failed=" + this.failed.get() + "]";
+	}
+
+	/**
+	 * Signals an unusable request; answered 400 or 404.
+	 */
+	static class BadRequest extends Exception {
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		BadRequest(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	private void dispatch(HttpExchange exchange) throws IOException {
+		try {
+			String method = exchange.getRequestMethod();
+			String[] path = exchange.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+			if (method.equals("GET") && path.length == 1 && path[0].equals("stats")) {
+				respond(exchange, 200, "{\"pool\":" + quote(this.esql.getPool().stats()) + ",\"keys\":" + quote(this.esql.getKeyCache().stats()) +
+					",\"replicas\":" + quote(this.esql.getReplicaRouter().stats()) + ",\"shards\":" + quote(this.esql.getShardRouter().stats()) +
+					(this.esql.getIntakeJournal() != null ? ",\"journal\":" + quote(this.esql.getIntakeJournal().stats()) : "") +
+					",\"server\":" + quote(stats()) + "}");
+				return;
+			}
+			if (!this.admission.tryAcquire(this.queueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+				this.rejected.incrementAndGet();
+				busy(exchange, "Too many requests in flight");
+				return;
+			}
+			this.admitted.incrementAndGet();
+			try {
+				route(exchange, method, path);
+			} finally {
+				this.admission.release();
+			}
+		} catch (BadRequest e) {
+			respond(exchange, e.status, error(e.getMessage()));
+		} catch (SQLException e) {
+			if (e.getSQLState() != null && e.getSQLState().startsWith("53")) {
+				this.rejected.incrementAndGet();
+				busy(exchange, e.getMessage());
+			} else if ("23503".equals(e.getSQLState())) {
+				respond(exchange, 422, error(e.getMessage()));
+			} else if (e.getSQLState() != null && e.getSQLState().startsWith("23")) {
+				respond(exchange, 409, error(e.getMessage()));
+			} else {
+				this.failed.incrementAndGet();
+				respond(exchange, 500, error(e.getMessage()));
+			}
+		} catch (Exception e) {
+			this.failed.incrementAndGet();
+			respond(exchange, 500, error(String.valueOf(e.getMessage())));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange, String method, String[] path) throws Exception {
+		Timestamp now = new Timestamp(System.currentTimeMillis());
+		if (method.equals("POST") && path.length == 1) {
+			BatchRunner.Fields f = body(exchange);
+			if (path[0].equals("customers")) {
+				int id = this.esql.addCustomer(text(f, "fname"), text(f, "lname"), text(f, "phone"), text(f, "address"));
+				respond(exchange, 201, "{\"id\":" + id + "}");
+				return;
+			}
+			if (path[0].equals("mechanics")) {
+				int id = this.esql.addMechanic(text(f, "fname"), text(f, "lname"), integer(f, "experience"));
+				respond(exchange, 201, "{\"id\":" + id + "}");
+				return;
+			}
+			if (path[0].equals("cars")) {
+				int id = this.esql.addCar(integer(f, "customer_id"), text(f, "vin"), text(f, "make"), text(f, "model"), integer(f, "year"));
+				respond(exchange, 201, "{\"ownership_id\":" + id + "}");
+				return;
+			}
+			if (path[0].equals("requests")) {
+				int rid = this.esql.insertServiceRequest(integer(f, "customer_id"), text(f, "vin"), date(f, now),
+					integer(f, "odometer"), f.optional("complain", 0, ""));
+				respond(exchange, 201, "{\"rid\":" + rid + "}");
+				return;
+			}
+		}
+		if (method.equals("POST") && path.length == 3 && path[0].equals("requests") && path[2].equals("close")) {
+			int rid = parseInt("rid", path[1]);
+			BatchRunner.Fields f = body(exchange);
+			int wid;
+			try {
+				wid = this.esql.closeServiceRequest(rid, integer(f, "mid"), date(f, now), f.optional("comment", 0, ""), integer(f, "bill"));
+			} catch (SQLException e) {
+				//the request or the mechanic is unknown
+				if ("23503".equals(e.getSQLState()))
+					throw new BadRequest(404, e.getMessage());
+				throw e;
+			}
+			if (wid < 0)
+				respond(exchange, 409, error("Request " + rid + " is already closed"));
+			else
+				respond(exchange, 201, "{\"wid\":" + wid + "}");
+			return;
+		}
+		if (method.equals("GET") && path.length == 2 && path[0].equals("reports")) {
+			report(exchange, parseInt("report", path[1]));
+			return;
+		}
+		throw new BadRequest(404, "No route for " + method + " " + exchange.getRequestURI().getPath());
+	}
+
+	/*
+	 * Streams the report as JSON Lines.  The status line goes out with the
+	 * first buffered chunk, so a query that fails before producing output
+	 * still gets a proper error status.
+	 */
+	private void report(final HttpExchange exchange, int report) throws Exception {
+		if (report < 6 || report > 10)
+			throw new BadRequest(404, "No report " + report);
+		int k = 10;
+		Timestamp from = null;
+		Timestamp to = null;
+		String query = exchange.getRequestURI().getQuery();
+		if (query != null)
+			for (String pair : query.split("&")) {
+				if (pair.startsWith("k="))
+					k = parseInt("k", pair.substring(2));
+				else if (pair.startsWith("from="))
+					from = parseTimestamp("from", pair.substring(5));
+				else if (pair.startsWith("to="))
+					to = parseTimestamp("to", pair.substring(3));
+			}
+		if ((from == null) != (to == null))
+			throw new BadRequest(400, "A date range needs both from and to");
+		if (from != null && report != 6 && report != 9 && report != 10)
+			throw new BadRequest(400, "Report " + report + " has no date-range variant");
+
+		exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+		final boolean[] started = { false };
+		OutputStream body = new OutputStream() {
+			private OutputStream out() throws IOException {
+				if (!started[0]) {
+					started[0] = true;
+					exchange.sendResponseHeaders(200, 0);
+				}
+				return exchange.getResponseBody();
+			}
+
+			public void write(int b) throws IOException {
+				out().write(b);
+			}
+
+			public void write(byte[] b, int off, int len) throws IOException {
+				out().write(b, off, len);
+			}
+		};
+		Writer out = new OutputStreamWriter(body, StandardCharsets.UTF_8);
+		ResultRenderer renderer = ResultRenderer.create("json", out, false, 0, null);
+		if (from != null)
+			this.esql.streamReport(report, k, from, to, renderer);
+		else
+			this.esql.streamReport(report, k, renderer);
+		renderer.finish();
+		if (!started[0])
+			exchange.sendResponseHeaders(200, -1);
+	}
+
+	private static BatchRunner.Fields body(HttpExchange exchange) throws IOException, BadRequest {
+		InputStream in = exchange.getRequestBody();
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		byte[] chunk = new byte[4096];
+		int n;
+		while ((n = in.read(chunk)) > 0)
+			buf.write(chunk, 0, n);
+		try {
+			return BatchRunner.Fields.json(new String(buf.toByteArray(), StandardCharsets.UTF_8));
+		} catch (IllegalArgumentException e) {
+			throw new BadRequest(400, e.getMessage());
+		}
+	}
+
+	private static String text(BatchRunner.Fields f, String name) throws BadRequest {
+		String v = f.optional(name, 0, null);
+		if (v == null)
+			throw new BadRequest(400, "Missing field " + name);
+		return v;
+	}
+
+	private static int integer(BatchRunner.Fields f, String name) throws BadRequest {
+		return parseInt(name, text(f, name));
+	}
+
+	private static Timestamp date(BatchRunner.Fields f, Timestamp dflt) throws BadRequest {
+		try {
+			return f.date("date", 0, dflt);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequest(400, e.getMessage());
+		}
+	}
+
+	private static Timestamp parseTimestamp(String name, String v) throws BadRequest {
+		try {
+			return MechanicShop.parseTimestamp(URLDecoder.decode(v, "UTF-8"));
+		} catch (IllegalArgumentException | UnsupportedEncodingException e) {
+			throw new BadRequest(400, "Field " + name + ": " + e.getMessage());
+		}
+	}
+
+	private static int parseInt(String name, String v) throws BadRequest {
+		try {
+			return Integer.parseInt(v.trim());
+		} catch (NumberFormatException e) {
+			throw new BadRequest(400, "Field " + name + " is not an integer: " + v);
+		}
+	}
+
+	private static void busy(HttpExchange exchange, String message) throws IOException {
+		exchange.getResponseHeaders().set("Retry-After", "1");
+		respond(exchange, 503, error(message));
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		if (exchange.getResponseCode() != -1)
+			return;//a streamed report failed midway; closing the exchange cuts it short
+		byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(status, bytes.length);
+		exchange.getResponseBody().write(bytes);
+	}
+
+	private static String error(String message) {
+		return "{\"error\":" + quote(message) + "}";
+	}
+
+	private static String quote(String s) {
+		StringWriter w = new StringWriter();
+		try {
+			ResultRenderer.writeString(w, s == null ? "" : s);
+		} catch (IOException e) {
+			// cannot happen for a StringWriter.
+		}
+		return w.toString();
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+/**
+ * Checks shared by the unit tests.  Each throws an AssertionError with the
+ * given message on failure, which ends the test's main() with a stack trace
+ * and a non-zero exit status.
+ *
+ */
+public final class Check {
+	private Check() {
+	}
+
+	/**
+	 * Code run by fails(), expected to throw.
+	 */
+	public interface Body {
+		void run() throws Exception;
+	}
+
+	public static void isTrue(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+	public static void equal(Object expected, Object actual, String message) {
+		if (expected == null ? actual != null : !expected.equals(actual))
+			throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	public static void equal(long expected, long actual, String message) {
+		if (expected != actual)
+			throw new AssertionError(message + ": expected <" + expected + "> but was <" + actual + ">");
+	}
+
+	/**
+	 * Method to check that some code throws.
+	 *
+	 * @param type the exception expected, or a superclass of it
+	 * @param body the code to run
+	 * @param message describes the check
+	 * @return the exception thrown, for further checks
+	 */
+	public static <T extends Throwable> T fails(Class<T> type, Body body, String message) {
+		try {
+			body.run();
+		} catch (Throwable t) {
+			if (type.isInstance(t))
+				return type.cast(t);
+			AssertionError e = new AssertionError(message + ": expected " + type.getName() + " but got " + t);
+			e.initCause(t);
+			throw e;
+		}
+		throw new AssertionError(message + ": expected " + type.getName() + " but nothing was thrown");
+	}
+}
@@ -0,0 +1,409 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * IntakeJournal: records survive a reopen, a torn or corrupt tail is cut
+ * off, the committed offset skips what is in the database, the file is cut
+ * back once idle, and refused requests go to the rejects file instead of
+ * the listener.  The database is a list; the journal's inserts are routed
+ * to it.
+ *
+ */
+public class IntakeJournalTest {
+	static final Timestamp DATE = Timestamp.valueOf("2026-01-02 03:04:05.123456789");
+
+	public static void main(String[] args) throws Exception {
+		recoveredOnReopen();
+		committedRecordsAreSkipped();
+		tornTailIsCutOff();
+		corruptRecordEndsTheScan();
+		notAJournal();
+		rejectedRequests();
+		failedFsyncWithdraws();
+		listenerHearsAfterCommit();
+		truncatedWhenIdle();
+	}
+
+	/*
+	 * The database and the listener of one test.
+	 */
+	static class Shop implements IntakeJournal.Listener {
+		final List<IntakeJournal.Entry> rows = Collections.synchronizedList(new ArrayList<IntakeJournal.Entry>());
+		//rids the listener heard of, negated when heard before the commit
+		final List<Integer> heard = Collections.synchronizedList(new ArrayList<Integer>());
+		final Set<Integer> refused = new HashSet<Integer>();
+		volatile int outages = 0;
+		volatile int fsyncFailures = 0;
+		volatile CountDownLatch gate = null;
+
+		public void committed(int rid, int customerId, String vin) {
+			this.heard.add(rids().contains(rid) ? rid : -rid);
+		}
+
+		List<Integer> rids() {
+			List<Integer> rids = new ArrayList<Integer>();
+			synchronized (this.rows) {
+				for (IntakeJournal.Entry e : this.rows)
+					rids.add(e.rid);
+			}
+			return rids;
+		}
+
+		void insert(List<IntakeJournal.Entry> entries) throws SQLException {
+			CountDownLatch g = this.gate;
+			if (g != null) {
+				try {
+					g.await();
+				} catch (InterruptedException e) {
+					throw new SQLException("interrupted", "57014");
+				}
+			}
+			if (this.outages > 0) {
+				--this.outages;
+				throw new SQLException("connection lost", "08006");
+			}
+			for (IntakeJournal.Entry e : entries)
+				if (this.refused.contains(e.rid))
+					throw new SQLException("customer " + e.customerId + " is missing", "23503");
+			this.rows.addAll(entries);
+		}
+
+		/*
+		 * A journal that is not started: records are appended and scanned,
+		 * never committed.
+		 */
+		IntakeJournal journal(File file, ShardRouter shards, long timeoutMillis) throws IOException {
+			return new IntakeJournal(file, shards, new Metrics(true, null, 0), this, 4, timeoutMillis) {
+				void insert(int shard, List<Entry> entries) throws SQLException {
+					Shop.this.insert(entries);
+				}
+
+				void force() throws IOException {
+					if (Shop.this.fsyncFailures > 0) {
+						--Shop.this.fsyncFailures;
+						throw new IOException("fsync failed");
+					}
+					super.force();
+				}
+			};
+		}
+
+		IntakeJournal open(File file, ShardRouter shards, long timeoutMillis) throws IOException, SQLException {
+			IntakeJournal journal = journal(file, shards, timeoutMillis);
+			journal.start();
+			return journal;
+		}
+	}
+
+	static File tempJournal() throws IOException {
+		File file = File.createTempFile("intake", ".journal");
+		file.delete();
+		return file;
+	}
+
+	static void delete(File file) {
+		file.delete();
+		new File(file.getPath() + ".rejects").delete();
+	}
+
+	static void append(IntakeJournal journal, int... rids) throws IOException {
+		for (int rid : rids)
+			journal.append(rid, rid * 10, "VIN" + rid, DATE, 1000 + rid, rid % 2 == 0 ? null : "noise " + rid);
+	}
+
+	static void recoveredOnReopen() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(2);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			IntakeJournal journal = shop.journal(file, shards, 1000);
+			append(journal, 1, 2, 3);
+			journal.close();
+
+			journal = shop.open(file, shards, 1000);
+			try {
+				Check.equal(3, journal.getRecovered(), "records found on reopen");
+				List<Integer> rids = shop.rids();
+				Collections.sort(rids);
+				Check.equal(Arrays.asList(1, 2, 3), rids, "replayed before the journal serves");
+				Check.equal(Collections.<Integer>emptyList(), shop.heard, "replayed requests are not reported");
+				IntakeJournal.Entry second = null;
+				for (IntakeJournal.Entry e : shop.rows)
+					if (e.rid == 2)
+						second = e;
+				Check.equal(20, second.customerId, "customer");
+				Check.equal("VIN2", second.vin, "vin");
+				Check.equal(DATE, second.date, "date to the nanosecond");
+				Check.equal(1002, second.odometer, "odometer");
+				Check.equal(null, second.complain, "null complaint");
+			} finally {
+				journal.close();
+			}
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void committedRecordsAreSkipped() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			IntakeJournal journal = shop.open(file, shards, 5000);
+			append(journal, 1, 2);
+			journal.awaitCommitted(1);
+			journal.awaitCommitted(2);
+			journal.close();
+			Check.equal(Arrays.asList(1, 2), shop.heard, "heard once committed");
+
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(0, journal.getRecovered(), "committed records are past the header offset");
+			append(journal, 3);
+			journal.close();
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(1, journal.getRecovered(), "only the uncommitted record is found");
+			journal.close();
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void tornTailIsCutOff() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			IntakeJournal journal = shop.journal(file, shards, 1000);
+			append(journal, 1);
+			journal.close();
+			long one = file.length();
+			journal = shop.journal(file, shards, 1000);
+			append(journal, 2);
+			journal.close();
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.setLength(raf.length() - 3);
+			}
+
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(1, journal.getRecovered(), "the torn record is dropped");
+			Check.equal(one, file.length(), "the file is cut back to the last whole record");
+			append(journal, 3);
+			journal.close();
+
+			journal = shop.open(file, shards, 1000);
+			journal.close();
+			List<Integer> rids = shop.rids();
+			Collections.sort(rids);
+			Check.equal(Arrays.asList(1, 3), rids, "a record after the cut is read back");
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void corruptRecordEndsTheScan() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			IntakeJournal journal = shop.journal(file, shards, 1000);
+			append(journal, 1, 2, 3);
+			journal.close();
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.seek(IntakeJournal.HEADER);
+				long second = IntakeJournal.HEADER + 8 + raf.readInt();
+				raf.seek(second + 8 + 2);
+				int b = raf.read();
+				raf.seek(second + 8 + 2);
+				raf.write(b ^ 0x40);
+			}
+
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(1, journal.getRecovered(), "the scan stops at the bad checksum");
+			journal.close();
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void notAJournal() throws Exception {
+		final ShardRouter shards = RequestBitmapTest.router(1);
+		final File file = tempJournal();
+		try {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+				raf.writeLong(42);
+				raf.writeLong(16);
+			}
+			Check.fails(IOException.class, new Check.Body() {
+				public void run() throws Exception {
+					new Shop().journal(file, shards, 1000);
+				}
+			}, "a file without the magic is refused");
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void rejectedRequests() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			shop.refused.add(2);
+			//the first group fails outright and is retried
+			shop.outages = 1;
+			IntakeJournal journal = shop.open(file, shards, 5000);
+			append(journal, 1, 2, 3);
+			for (int rid = 1; rid <= 3; ++rid)
+				journal.awaitCommitted(rid);
+			journal.close();
+			Check.equal(Arrays.asList(1, 3), shop.rids(), "the refused request is left out");
+			Check.equal(Arrays.asList(1, 3), shop.heard, "the listener never hears of it");
+			Check.isTrue(journal.stats().contains("rejected=1"), "counted: " + journal.stats());
+
+			List<String> lines = new ArrayList<String>();
+			try (BufferedReader r = new BufferedReader(new InputStreamReader(
+					new FileInputStream(file.getPath() + ".rejects"), StandardCharsets.UTF_8))) {
+				for (String line = r.readLine(); line != null; line = r.readLine())
+					lines.add(line);
+			}
+			Check.equal(1, lines.size(), "one rejects record");
+			Check.equal("{\"op\":\"insert-request\",\"customer_id\":20,\"vin\":\"VIN2\",\"odometer\":1002,\"complain\":null," +
+				"\"date\":\"" + DATE + "\"}\t# rid 2: customer 20 is missing", lines.get(0), "a --batch record with the error");
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void failedFsyncWithdraws() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		final File file = tempJournal();
+		try {
+			final Shop shop = new Shop();
+			shop.fsyncFailures = 1;
+			final IntakeJournal journal = shop.open(file, shards, 5000);
+			Check.fails(IOException.class, new Check.Body() {
+				public void run() throws Exception {
+					append(journal, 1);
+				}
+			}, "the append reports the failed fsync");
+			append(journal, 2);
+			journal.awaitCommitted(1);
+			journal.awaitCommitted(2);
+			journal.close();
+			Check.equal(Arrays.asList(2), shop.rids(), "the withdrawn request is never inserted");
+			Check.equal(Arrays.asList(2), shop.heard, "nor reported");
+
+			shop.fsyncFailures = 1;
+			final IntakeJournal idle = shop.journal(file, shards, 1000);
+			Check.fails(IOException.class, new Check.Body() {
+				public void run() throws Exception {
+					append(idle, 3);
+				}
+			}, "the append reports the failed fsync");
+			append(idle, 4);
+			idle.close();
+			IntakeJournal reopened = shop.open(file, shards, 1000);
+			reopened.close();
+			Check.equal(1, reopened.getRecovered(), "the withdrawn record is not replayed");
+			Check.equal(Arrays.asList(2, 4), shop.rids(), "only the acknowledged request is replayed");
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void listenerHearsAfterCommit() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			final Shop shop = new Shop();
+			shop.gate = new CountDownLatch(1);
+			final IntakeJournal journal = shop.open(file, shards, 200);
+			try {
+				append(journal, 7);
+				SQLException e = Check.fails(SQLException.class, new Check.Body() {
+					public void run() throws Exception {
+						journal.awaitCommitted(7);
+					}
+				}, "a close waits no longer than the timeout");
+				Check.equal("53000", e.getSQLState(), "not committed yet");
+				Check.equal(Collections.<Integer>emptyList(), shop.heard, "nothing heard before the commit");
+				shop.gate.countDown();
+				journal.awaitCommitted(7);
+				Check.equal(Arrays.asList(7), shop.heard, "heard after the commit");
+				journal.awaitCommitted(8);
+			} finally {
+				shop.gate.countDown();
+				journal.close();
+			}
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+
+	static void truncatedWhenIdle() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(1);
+		File file = tempJournal();
+		try {
+			Shop shop = new Shop();
+			char[] big = new char[100 * 1024];
+			Arrays.fill(big, 'x');
+			IntakeJournal journal = shop.open(file, shards, 5000);
+			long records = IntakeJournal.TRUNCATE_AT / big.length + 1;
+			for (int rid = 1; rid <= records; ++rid)
+				journal.append(rid, rid, "VIN" + rid, DATE, rid, new String(big));
+			for (int rid = 1; rid <= records; ++rid)
+				journal.awaitCommitted(rid);
+			journal.close();
+			Check.equal(records, shop.rows.size(), "every record committed");
+			Check.equal((long) IntakeJournal.HEADER, file.length(), "cut back to the header");
+
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(0, journal.getRecovered(), "nothing left to replay");
+			append(journal, 99);
+			journal.close();
+			journal = shop.journal(file, shards, 1000);
+			Check.equal(1, journal.getRecovered(), "appends resume after the header");
+			journal.close();
+		} finally {
+			shards.close();
+			delete(file);
+		}
+	}
+}
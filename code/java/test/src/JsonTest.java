@@ -0,0 +1,99 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Json: values, escapes, nesting and malformed input; and the --batch record
+ * fields read through it and through the CSV splitter.
+ *
+ */
+public class JsonTest {
+	public static void main(String[] args) throws Exception {
+		scalars();
+		strings();
+		nesting();
+		malformed();
+		batchFields();
+	}
+
+	static void scalars() {
+		Check.equal(42L, Json.parse("42"), "integer as Long");
+		Check.equal(-7L, Json.parse(" -7 "), "negative integer, surrounding space");
+		Check.equal(2.5, Json.parse("2.5"), "fraction as Double");
+		Check.equal(1e3, Json.parse("1e3"), "exponent as Double");
+		Check.equal(Boolean.TRUE, Json.parse("true"), "true");
+		Check.equal(Boolean.FALSE, Json.parse("false"), "false");
+		Check.equal(null, Json.parse("null"), "null");
+	}
+
+	static void strings() {
+		Check.equal("plain", Json.parse("\"plain\""), "string without escapes");
+		Check.equal("q\"b\\s/\b\f\n\r\t", Json.parse("\"q\\\"b\\\\s\\/\\b\\f\\n\\r\\t\""), "simple escapes");
+		Check.equal("caf\u00e9 \u20ac", Json.parse("\"caf\\u00e9 \\u20AC\""), "unicode escapes");
+		Check.equal("", Json.parse("\"\""), "empty string");
+	}
+
+	static void nesting() {
+		Map<String, Object> o = Json.parseObject("{\"op\":\"close-request\", \"rid\":17, \"tags\":[1,\"two\",{\"x\":null}], \"e\":{}}");
+		Check.equal(Arrays.asList("op", "rid", "tags", "e"), Arrays.asList(o.keySet().toArray()), "members in document order");
+		Check.equal("close-request", o.get("op"), "string member");
+		Check.equal(17L, o.get("rid"), "number member");
+		List<?> tags = (List<?>) o.get("tags");
+		Check.equal(3, tags.size(), "array length");
+		Check.equal("two", tags.get(1), "array element");
+		Check.isTrue(((Map<?, ?>) tags.get(2)).containsKey("x"), "null member kept");
+		Check.isTrue(((Map<?, ?>) o.get("e")).isEmpty(), "empty object");
+		Check.isTrue(((List<?>) Json.parse("[ ]")).isEmpty(), "empty array");
+	}
+
+	static void malformed() {
+		String[] bad = { "", "{", "{\"a\" 1}", "{\"a\":1,}", "[1 2]", "\"open", "\"\\x\"", "\"\\u12\"", "tru", "1 2", "{a:1}", "-" };
+		for (final String text : bad)
+			Check.fails(IllegalArgumentException.class, new Check.Body() {
+				public void run() {
+					Json.parse(text);
+				}
+			}, "rejects " + text);
+		Check.fails(IllegalArgumentException.class, new Check.Body() {
+			public void run() {
+				Json.parseObject("[1]");
+			}
+		}, "parseObject rejects an array");
+	}
+
+	static void batchFields() throws Exception {
+		BatchRunner.Fields json = BatchRunner.Fields.json(
+			"{\"op\":\"insert-request\",\"customer_id\":3,\"vin\":\"V1\",\"complain\":\"a, \\\"b\\\"\"}");
+		Check.equal("insert-request", json.op(), "JSON op");
+		Check.equal(3, json.integer("customer_id", 1), "JSON integer field");
+		Check.equal("a, \"b\"", json.text("complain", 4), "JSON text field");
+		Check.equal("none", json.optional("date", 5, "none"), "missing JSON field takes the default");
+
+		BatchRunner.Fields csv = BatchRunner.Fields.csv("insert-request,3,V1,1000,\"a, \"\"b\"\"\"");
+		Check.equal("insert-request", csv.op(), "CSV op");
+		Check.equal(1000, csv.integer("odometer", 3), "CSV integer field");
+		Check.equal("a, \"b\"", csv.text("complain", 4), "quoted CSV field");
+		Check.equal(null, csv.optional("date", 5, null), "missing CSV field");
+		final BatchRunner.Fields text = csv;
+		Check.fails(Exception.class, new Check.Body() {
+			public void run() throws Exception {
+				text.integer("vin", 2);
+			}
+		}, "a non-numeric integer field is refused");
+	}
+}
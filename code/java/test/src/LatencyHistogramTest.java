@@ -0,0 +1,99 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+/**
+ * LatencyHistogram: bucket boundaries, percentile accuracy, max, mean and
+ * reset.
+ *
+ */
+public class LatencyHistogramTest {
+	public static void main(String[] args) throws Exception {
+		emptyHistogram();
+		smallValuesAreExact();
+		bucketsCoverEveryValue();
+		percentilesWithinThreePercent();
+		negativeValuesCountAsZero();
+		reset();
+	}
+
+	static void emptyHistogram() {
+		LatencyHistogram h = new LatencyHistogram();
+		Check.equal(0, h.getCount(), "count of an empty histogram");
+		Check.equal(0, h.getValueAtPercentile(50), "p50 of an empty histogram");
+		Check.isTrue(h.getMean() == 0, "mean of an empty histogram");
+	}
+
+	static void smallValuesAreExact() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int v = 1; v <= 31; ++v)
+			h.record(v);
+		Check.equal(16, h.getValueAtPercentile(50), "p50 of 1..31");
+		Check.equal(31, h.getValueAtPercentile(100), "p100 of 1..31");
+		Check.equal(1, h.getValueAtPercentile(0), "p0 of 1..31");
+		Check.equal(31, h.getMax(), "max of 1..31");
+		Check.isTrue(h.getMean() == 16.0, "mean of 1..31 was " + h.getMean());
+	}
+
+	/*
+	 * Every value falls in the bucket whose range holds it, and the buckets
+	 * are in value order without gaps.
+	 */
+	static void bucketsCoverEveryValue() {
+		long[] values = { 0, 1, 31, 32, 33, 63, 64, 65, 1000, 1023, 1024, 123456789L, 1L << 40, Long.MAX_VALUE };
+		for (long v : values) {
+			int i = LatencyHistogram.index(v);
+			Check.isTrue(LatencyHistogram.highestEquivalent(i) >= v, "bucket " + i + " ends below " + v);
+			if (i > 0)
+				Check.isTrue(LatencyHistogram.highestEquivalent(i - 1) < v, "bucket " + (i - 1) + " already covers " + v);
+		}
+		for (int i = 1; i < 2000 && LatencyHistogram.highestEquivalent(i - 1) < Long.MAX_VALUE; ++i)
+			Check.equal(i, LatencyHistogram.index(LatencyHistogram.highestEquivalent(i - 1) + 1),
+				"first value after bucket " + (i - 1));
+	}
+
+	static void percentilesWithinThreePercent() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 1; v <= 100000; ++v)
+			h.record(v * 1000);
+		double[] percentiles = { 50, 90, 99, 99.9 };
+		for (double p : percentiles) {
+			long exact = (long) Math.ceil(p / 100 * 100000) * 1000;
+			long estimate = h.getValueAtPercentile(p);
+			Check.isTrue(estimate >= exact, "p" + p + " estimate " + estimate + " below " + exact);
+			Check.isTrue(estimate <= exact * 1.032, "p" + p + " estimate " + estimate + " too far above " + exact);
+		}
+		Check.equal(100000L * 1000, h.getValueAtPercentile(100), "p100 is the max");
+		Check.equal(100000, h.getCount(), "count");
+	}
+
+	static void negativeValuesCountAsZero() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(-5);
+		Check.equal(1, h.getCount(), "count after a negative value");
+		Check.equal(0, h.getMax(), "max after a negative value");
+		Check.equal(0, h.getValueAtPercentile(99), "p99 after a negative value");
+	}
+
+	static void reset() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(5000);
+		h.reset();
+		Check.equal(0, h.getCount(), "count after reset");
+		Check.equal(0, h.getMax(), "max after reset");
+		Check.equal(0, h.getValueAtPercentile(50), "p50 after reset");
+		h.record(7);
+		Check.equal(7, h.getValueAtPercentile(50), "p50 recorded after reset");
+	}
+}
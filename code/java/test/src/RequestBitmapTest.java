@@ -0,0 +1,102 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * RequestBitmap: states and shard homes of the requests a client opens and
+ * closes.  The shard URLs point nowhere; pools connect lazily, so only a
+ * rid the bitmap has never seen reaches for the database.
+ *
+ */
+public class RequestBitmapTest {
+	public static void main(String[] args) throws Exception {
+		singleShard();
+		shardedHomes();
+		unseenRidsAskTheShards();
+	}
+
+	static ShardRouter router(int shards) {
+		ConnectionPool primary = new ConnectionPool("jdbc:none:shard0", "test", "", 1, 1, 100);
+		String[] urls = new String[shards - 1];
+		for (int i = 0; i < urls.length; ++i)
+			urls[i] = "jdbc:none:shard" + (i + 1);
+		return new ShardRouter(primary, Arrays.asList(urls), "test", "", 1, 1, 100);
+	}
+
+	static void singleShard() throws Exception {
+		ShardRouter shards = router(1);
+		try {
+			RequestBitmap bitmap = new RequestBitmap(shards);
+			bitmap.opened(5);
+			Check.equal(RequestBitmap.State.OPEN, bitmap.state(5), "opened rid");
+			Check.equal(0, bitmap.shardOf(5), "single shard home");
+			bitmap.closed(5);
+			Check.equal(RequestBitmap.State.CLOSED, bitmap.state(5), "closed rid");
+			bitmap.closed(9);
+			Check.equal(RequestBitmap.State.CLOSED, bitmap.state(9), "closed without being seen open");
+			Check.equal(RequestBitmap.State.UNKNOWN, bitmap.state(-1), "negative rid");
+			Check.equal(-1, bitmap.shardOf(-1), "negative rid has no shard");
+			Check.equal("requests[known=2, closed=2, bytes=16]", bitmap.stats(), "stats");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void shardedHomes() throws Exception {
+		ShardRouter shards = router(3);
+		try {
+			RequestBitmap bitmap = new RequestBitmap(shards);
+			bitmap.opened(1, 2);
+			bitmap.opened(2, 0);
+			bitmap.opened(100000, 1);
+			Check.equal(2, bitmap.shardOf(1), "home of rid 1");
+			Check.equal(0, bitmap.shardOf(2), "home of rid 2");
+			Check.equal(1, bitmap.shardOf(100000), "home of a rid past the initial array");
+			Check.equal(2, bitmap.shardOf(1), "home kept when the array grows");
+			bitmap.closed(1);
+			Check.equal(RequestBitmap.State.CLOSED, bitmap.state(1), "closed on its shard");
+			Check.equal(2, bitmap.shardOf(1), "closing keeps the home");
+			bitmap.opened(3);
+			Check.equal(0, bitmap.shardOf(3), "opened without a shard goes to shard 0");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void unseenRidsAskTheShards() throws Exception {
+		for (int n : new int[] { 1, 3 }) {
+			ShardRouter shards = router(n);
+			try {
+				final RequestBitmap bitmap = new RequestBitmap(shards);
+				bitmap.opened(1, 0);
+				Check.fails(SQLException.class, new Check.Body() {
+					public void run() throws Exception {
+						bitmap.state(2);
+					}
+				}, "an unseen rid is looked up on " + n + " shard(s)");
+				Check.equal(RequestBitmap.State.OPEN, bitmap.state(1), "a seen rid needs no lookup");
+			} finally {
+				shards.close();
+			}
+		}
+		Check.fails(IllegalArgumentException.class, new Check.Body() {
+			public void run() {
+				new RequestBitmap(router(Byte.MAX_VALUE + 1));
+			}
+		}, "too many shards for a byte home");
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * ResultRenderer: escaping of tabs and line breaks in TSV, RFC 4180 quoting
+ * in CSV, JSON string escapes, NULL handling and the pager's quit.
+ *
+ */
+public class ResultRendererTest {
+	public static void main(String[] args) throws Exception {
+		tsv();
+		csv();
+		json();
+		jsonControlCharacters();
+		table();
+		pagerStops();
+	}
+
+	static String render(String format, Object[]... rows) throws Exception {
+		StringWriter out = new StringWriter();
+		ResultRenderer r = ResultRenderer.create(format, out, false, 0, null);
+		Row row = new Row("id", "note");
+		for (Object[] values : rows)
+			r.handle(row.next(values));
+		r.finish();
+		return out.toString();
+	}
+
+	static void tsv() throws Exception {
+		Check.equal("id\tnote\n1\tplain\n2\ta b c d\n3\t\n",
+			render("tsv", new Object[] { 1, "plain" }, new Object[] { 2, "a\tb\nc\rd" }, new Object[] { 3, null }),
+			"tabs and line breaks become spaces, NULL is empty");
+	}
+
+	static void csv() throws Exception {
+		Check.equal("id,note\r\n1,plain\r\n2,\"a,b\"\r\n3,\"say \"\"hi\"\"\"\r\n4,\"two\nlines\"\r\n5,\r\n",
+			render("csv", new Object[] { 1, "plain" }, new Object[] { 2, "a,b" }, new Object[] { 3, "say \"hi\"" },
+				new Object[] { 4, "two\nlines" }, new Object[] { 5, null }),
+			"RFC 4180 quoting with CRLF rows");
+	}
+
+	static void json() throws Exception {
+		Check.equal("{\"id\":\"1\",\"note\":\"q\\\"b\\\\s\\n\\t\\r\"}\n{\"id\":\"2\",\"note\":null}\n",
+			render("json", new Object[] { 1, "q\"b\\s\n\t\r" }, new Object[] { 2, null }),
+			"JSON Lines escapes and null");
+	}
+
+	static void jsonControlCharacters() throws Exception {
+		StringWriter out = new StringWriter();
+		ResultRenderer.writeString(out, "a\u0001b\u001fcé");
+		Check.equal("\"a\\u0001b\\u001fcé\"", out.toString(), "control characters as \\u escapes, others kept");
+	}
+
+	static void table() throws Exception {
+		Check.equal("id | note\n1  | x\n22 | wide\n",
+			render("table", new Object[] { 1, "x" }, new Object[] { 22, "wide" }),
+			"columns but the last padded to the widest cell");
+	}
+
+	static void pagerStops() throws Exception {
+		StringWriter out = new StringWriter();
+		BufferedReader keys = new BufferedReader(new StringReader("q\n"));
+		final ResultRenderer r = ResultRenderer.create("tsv", out, false, 2, keys);
+		final Row row = new Row("id", "note");
+		Check.fails(ResultRenderer.Stopped.class, new Check.Body() {
+			public void run() throws Exception {
+				for (int i = 1; i < 10; ++i)
+					r.handle(row.next(i, "a"));
+			}
+		}, "q at the pager stops the output");
+		r.finish();
+		Check.equal("id\tnote\n1\ta\n-- more -- (Enter to continue, q to quit) ", out.toString(),
+			"the header and first row fill a two-line page");
+	}
+}
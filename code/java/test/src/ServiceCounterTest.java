@@ -0,0 +1,164 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ServiceCounter: the bucket list against a plain map of counts, seeded
+ * through seed() and with lookupCar() answered in memory, so no database is
+ * needed.
+ *
+ */
+public class ServiceCounterTest {
+	/*
+	 * A counter whose Car table is a map; unknown VINs fail like a missing row.
+	 */
+	static ServiceCounter counter(final HashMap<String, ServiceCounter.Car> table) {
+		return new ServiceCounter(null) {
+			ServiceCounter.Car lookupCar(String vin) throws SQLException {
+				ServiceCounter.Car car = table.get(vin);
+				if (car == null)
+					throw new SQLException("No car " + vin, "23503");
+				return new ServiceCounter.Car(car.vin, car.year, car.make, car.model);
+			}
+		};
+	}
+
+	static ServiceCounter.Car car(String vin, long count) {
+		ServiceCounter.Car car = new ServiceCounter.Car(vin, 2000, "Make", "Model");
+		car.count = count;
+		return car;
+	}
+
+	public static void main(String[] args) throws Exception {
+		seedOrder();
+		increments();
+		newCarsJoinTheBottom();
+		unknownCar();
+		randomAgainstMap();
+	}
+
+	static void seedOrder() throws Exception {
+		ServiceCounter c = counter(new HashMap<String, ServiceCounter.Car>());
+		c.seed(Arrays.asList(car("A", 2), car("B", 5), car("C", 2), car("D", 9)));
+		Check.equal("D=9 B=5 A=2 C=2", describe(c.top(10)), "highest first, ties in seed order");
+		Check.equal("D=9 B=5", describe(c.top(2)), "top k stops at k");
+		Check.equal("", describe(c.top(0)), "top 0");
+	}
+
+	static void increments() throws Exception {
+		ServiceCounter c = counter(new HashMap<String, ServiceCounter.Car>());
+		c.seed(Arrays.asList(car("A", 1), car("B", 1), car("C", 3)));
+		c.recordService("B");
+		Check.equal("C=3 B=2 A=1", describe(c.top(10)), "B moves into a new bucket between C and A");
+		c.recordService("B");
+		Check.equal("C=3 B=3 A=1", describe(c.top(10)), "B joins C's bucket, after C");
+		c.recordService("B");
+		c.recordService("A");
+		Check.equal("B=4 C=3 A=2", describe(c.top(10)), "B passes C, A leaves the bottom");
+	}
+
+	static void newCarsJoinTheBottom() throws Exception {
+		HashMap<String, ServiceCounter.Car> table = new HashMap<String, ServiceCounter.Car>();
+		table.put("N1", car("N1", 0));
+		table.put("N2", car("N2", 0));
+		ServiceCounter c = counter(table);
+		c.seed(Arrays.asList(car("A", 3), car("B", 2)));
+		c.recordService("N1");
+		Check.equal("A=3 B=2 N1=1", describe(c.top(10)), "a new car gets a count-1 bucket at the bottom");
+		c.recordService("N2");
+		Check.equal("A=3 B=2 N1=1 N2=1", describe(c.top(10)), "a second new car shares the bottom bucket");
+		c.recordService("N1");
+		c.recordService("N2");
+		Check.equal("A=3 B=2 N1=2 N2=2", describe(c.top(10)), "the emptied bottom bucket is unlinked");
+		table.put("N3", car("N3", 0));
+		c.recordService("N3");
+		Check.equal("A=3 B=2 N1=2 N2=2 N3=1", describe(c.top(10)), "the bottom pointer followed the unlink");
+
+		ServiceCounter empty = counter(table);
+		empty.seed(new ArrayList<ServiceCounter.Car>());
+		empty.recordService("N1");
+		Check.equal("N1=1", describe(empty.top(10)), "first car of an empty counter");
+	}
+
+	static void unknownCar() throws Exception {
+		final ServiceCounter c = counter(new HashMap<String, ServiceCounter.Car>());
+		c.seed(Arrays.asList(car("A", 1)));
+		SQLException e = Check.fails(SQLException.class, new Check.Body() {
+			public void run() throws Exception {
+				c.recordService("NOPE");
+			}
+		}, "an unknown car is refused");
+		Check.equal("23503", e.getSQLState(), "SQLSTATE of an unknown car");
+		Check.equal("A=1", describe(c.top(10)), "counts unchanged after the refusal");
+	}
+
+	/*
+	 * Random services against a map of counts; after each step the counter's
+	 * ranking must list the same counts, highest first.
+	 */
+	static void randomAgainstMap() throws Exception {
+		Random random = new Random(7);
+		HashMap<String, ServiceCounter.Car> table = new HashMap<String, ServiceCounter.Car>();
+		List<ServiceCounter.Car> seeded = new ArrayList<ServiceCounter.Car>();
+		final HashMap<String, Long> expected = new HashMap<String, Long>();
+		for (int i = 0; i < 200; ++i) {
+			String vin = "V" + i;
+			table.put(vin, car(vin, 0));
+			if (i < 100) {
+				long n = 1 + random.nextInt(5);
+				seeded.add(car(vin, n));
+				expected.put(vin, n);
+			}
+		}
+		ServiceCounter c = counter(table);
+		c.seed(seeded);
+		for (int step = 0; step < 5000; ++step) {
+			String vin = "V" + random.nextInt(200);
+			c.recordService(vin);
+			expected.put(vin, expected.containsKey(vin) ? expected.get(vin) + 1 : 1L);
+			if (step % 250 != 0)
+				continue;
+			List<ServiceCounter.Car> top = c.top(Integer.MAX_VALUE);
+			Check.equal(expected.size(), top.size(), "cars counted at step " + step);
+			for (int i = 0; i < top.size(); ++i) {
+				Check.equal((long) expected.get(top.get(i).vin), top.get(i).getCount(), "count of " + top.get(i).vin);
+				if (i > 0)
+					Check.isTrue(top.get(i - 1).getCount() >= top.get(i).getCount(), "ranking out of order at " + i);
+			}
+		}
+		List<String> byCount = new ArrayList<String>(expected.keySet());
+		Collections.sort(byCount, new Comparator<String>() {
+			public int compare(String a, String b) {
+				return Long.compare(expected.get(b), expected.get(a));
+			}
+		});
+		Check.equal((long) expected.get(byCount.get(0)), c.top(1).get(0).getCount(), "top 1 has the highest count");
+	}
+
+	static String describe(List<ServiceCounter.Car> cars) {
+		StringBuilder sb = new StringBuilder();
+		for (ServiceCounter.Car car : cars)
+			sb.append(sb.length() > 0 ? " " : "").append(car.vin).append('=').append(car.getCount());
+		return sb.toString();
+	}
+}
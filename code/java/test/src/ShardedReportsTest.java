@@ -0,0 +1,173 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * ShardedReports: the k-way merge, the appending merge and the summed top k
+ * over shards whose rows come from memory instead of a database.
+ *
+ */
+public class ShardedReportsTest {
+	public static void main(String[] args) throws Exception {
+		orderedMerge();
+		appendingMerge();
+		topKSumsAcrossShards();
+		shardFailure();
+		handlerFailureStopsTheShards();
+		withoutLimit();
+	}
+
+	/*
+	 * Reports over fixed rows per shard; a null shard fails its query.
+	 */
+	static ShardedReports reports(ShardRouter shards, final String[][][] rows, int queueSize) {
+		return new ShardedReports(null, shards, queueSize) {
+			long stream(int shard, String query, RowHandler handler, Object... params) throws Exception {
+				if (rows[shard] == null)
+					throw new SQLException("shard " + shard + " is down", "08006");
+				Row row = new Row("name", "value");
+				for (String[] values : rows[shard])
+					handler.handle(row.next((Object[]) values));
+				return rows[shard].length;
+			}
+		};
+	}
+
+	static List<String> collect(ShardedReports reports, String mode, int arg) throws Exception {
+		final List<String> out = new ArrayList<String>();
+		RowHandler handler = new RowHandler() {
+			public void handle(Row row) throws Exception {
+				out.add(row.getString(1) + "=" + row.getString(2));
+			}
+		};
+		if (mode.equals("merge"))
+			reports.merge("q", arg, handler);
+		else
+			reports.topK("q", arg, handler);
+		return out;
+	}
+
+	static void orderedMerge() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(3);
+		try {
+			String[][][] rows = {
+				{ { "a", "90" }, { "b", "50" }, { "c", "10" } },
+				{ { "d", "70" }, { "e", "50" } },
+				{},
+			};
+			Check.equal(Arrays.asList("a=90", "d=70", "b=50", "e=50", "c=10"), collect(reports(shards, rows, 1), "merge", 2),
+				"highest first, ties in shard order, an empty shard, one-row queues");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void appendingMerge() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(2);
+		try {
+			String[][][] rows = { { { "x", "1" }, { "y", "9" } }, { { "z", "5" } } };
+			Check.equal(Arrays.asList("x=1", "y=9", "z=5"), collect(reports(shards, rows, 4), "merge", 0),
+				"shard results appended in shard order");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void topKSumsAcrossShards() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(3);
+		try {
+			final String[][][] rows = {
+				{ { "V1", "2000", "Ford", "T", "3" }, { "V2", "1999", "Fiat", "P", "5" } },
+				{ { "V1", "2000", "Ford", "T", "4" }, { "V3", "1990", "Opel", "K", "6" } },
+				{ { "V2", "1999", "Fiat", "P", "1" } },
+			};
+			ShardedReports reports = new ShardedReports(null, shards, 2) {
+				long stream(int shard, String query, RowHandler handler, Object... params) throws Exception {
+					Row row = new Row("car_vin", "year", "make", "model", "count");
+					for (String[] values : rows[shard])
+						handler.handle(row.next((Object[]) values));
+					return rows[shard].length;
+				}
+			};
+			final List<String> out = new ArrayList<String>();
+			long n = reports.topK("q", 2, new RowHandler() {
+				public void handle(Row row) throws Exception {
+					out.add(row.getString(1) + "=" + row.getLong(5));
+				}
+			});
+			Check.equal(Arrays.asList("V1=7", "V2=6"), out, "counts summed over shards, top 2, tie in shard order");
+			Check.equal(2, n, "rows handed over");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void shardFailure() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(2);
+		try {
+			String[][][] rows = { { { "a", "3" } }, null };
+			final ShardedReports reports = reports(shards, rows, 1);
+			SQLException e = Check.fails(SQLException.class, new Check.Body() {
+				public void run() throws Exception {
+					collect(reports, "merge", 2);
+				}
+			}, "a failed shard fails the merge");
+			Check.equal("08006", e.getSQLState(), "the shard's own error");
+		} finally {
+			shards.close();
+		}
+	}
+
+	/*
+	 * A handler that gives up must not leave shard workers blocked on full
+	 * queues: the next report on the same router still runs.
+	 */
+	static void handlerFailureStopsTheShards() throws Exception {
+		ShardRouter shards = RequestBitmapTest.router(2);
+		try {
+			String[][] many = new String[1000][];
+			for (int i = 0; i < many.length; ++i)
+				many[i] = new String[] { "r" + i, String.valueOf(1000 - i) };
+			final ShardedReports reports = reports(shards, new String[][][] { many, many }, 1);
+			for (int attempt = 0; attempt < 3; ++attempt)
+				Check.fails(IllegalStateException.class, new Check.Body() {
+					public void run() throws Exception {
+						reports.merge("q", 2, new RowHandler() {
+							public void handle(Row row) {
+								throw new IllegalStateException("enough");
+							}
+						});
+					}
+				}, "the handler's exception reaches the caller");
+			Check.equal(2000, collect(reports, "merge", 2).size(), "the router still serves a full merge");
+		} finally {
+			shards.close();
+		}
+	}
+
+	static void withoutLimit() {
+		Check.equal("SELECT x FROM t ORDER BY x DESC", ShardedReports.withoutLimit("SELECT x FROM t ORDER BY x DESC LIMIT ?"),
+			"LIMIT removed");
+		Check.fails(IllegalArgumentException.class, new Check.Body() {
+			public void run() {
+				ShardedReports.withoutLimit("SELECT x FROM t");
+			}
+		}, "a query without LIMIT is refused");
+	}
+}
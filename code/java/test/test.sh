@@ -0,0 +1,26 @@
+#! /bin/bash
+# Builds the client and runs the unit tests under test/src; no database needed.
+#
+# Every *Test class is a plain main() that throws on the first failed check.
+# Example: ./test.sh              runs every test
+#          ./test.sh JsonTest     runs one
+cd "$(dirname "$0")"
+set -e
+CP="../lib/postgresql-42.1.4.jar"
+rm -rf target && mkdir -p target/classes
+javac -encoding UTF-8 -cp "$CP" ../src/*.java src/*.java -d target/classes
+if [ $# -gt 0 ]; then
+	TESTS="$*"
+else
+	TESTS=$(cd src && ls *Test.java | sed 's/\.java$//')
+fi
+FAILED=0
+for t in $TESTS; do
+	if java -ea -cp "$CP:target/classes" "$t"; then
+		echo "PASS $t"
+	else
+		echo "FAIL $t"
+		FAILED=1
+	fi
+done
+exit $FAILED
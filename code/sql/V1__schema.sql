@@ -0,0 +1,66 @@
+-- Mechanic shop schema, version 1: the six shop tables.
+-- Column order matches the CSV files in code/data.
+
+CREATE TABLE Customer
+(
+	id INTEGER NOT NULL,
+	fname CHAR(32) NOT NULL,
+	lname CHAR(32) NOT NULL,
+	phone CHAR(13) NOT NULL,
+	address CHAR(256) NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE Mechanic
+(
+	id INTEGER NOT NULL,
+	fname CHAR(32) NOT NULL,
+	lname CHAR(32) NOT NULL,
+	experience INTEGER NOT NULL CHECK (experience >= 0 AND experience < 100),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE Car
+(
+	vin VARCHAR(16) NOT NULL,
+	make VARCHAR(32) NOT NULL,
+	model VARCHAR(32) NOT NULL,
+	year INTEGER NOT NULL CHECK (year >= 1970),
+	PRIMARY KEY (vin)
+);
+
+CREATE TABLE Owns
+(
+	ownership_id INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	PRIMARY KEY (ownership_id),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+CREATE TABLE Service_Request
+(
+	rid INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	date DATE NOT NULL,
+	odometer INTEGER NOT NULL CHECK (odometer > 0),
+	complain TEXT,
+	PRIMARY KEY (rid),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+);
+
+CREATE TABLE Closed_Request
+(
+	wid INTEGER NOT NULL,
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	date DATE NOT NULL,
+	comment TEXT,
+	bill INTEGER NOT NULL CHECK (bill > 0),
+	PRIMARY KEY (wid),
+	FOREIGN KEY (rid) REFERENCES Service_Request(rid),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+);
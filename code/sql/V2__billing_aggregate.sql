@@ -0,0 +1,28 @@
+-- Version 2: aggregates maintained by CloseServiceRequest (see BillingAggregate.java).
+-- The client also creates these on startup, so IF NOT EXISTS keeps both paths in step.
+
+CREATE TABLE IF NOT EXISTS Customer_Bill_Summary
+(
+	customer_id INTEGER PRIMARY KEY,
+	total_bill BIGINT NOT NULL,
+	closed_count INTEGER NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS Customer_Low_Bill
+(
+	wid INTEGER PRIMARY KEY,
+	customer_id INTEGER NOT NULL,
+	bill INTEGER NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS customer_low_bill_bill_idx ON Customer_Low_Bill (bill DESC);
+
+INSERT INTO Customer_Bill_Summary (customer_id, total_bill, closed_count)
+SELECT sr.customer_id, SUM(cr.bill), COUNT(*) FROM Service_Request sr, Closed_Request cr
+WHERE sr.rid = cr.rid GROUP BY sr.customer_id
+ON CONFLICT (customer_id) DO NOTHING;
+
+INSERT INTO Customer_Low_Bill (wid, customer_id, bill)
+SELECT cr.wid, sr.customer_id, cr.bill FROM Service_Request sr, Closed_Request cr
+WHERE sr.rid = cr.rid AND cr.bill < 100
+ON CONFLICT (wid) DO NOTHING;
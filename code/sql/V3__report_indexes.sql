@@ -0,0 +1,29 @@
+-- Version 3: indexes for the menu queries (options 4-10 and the aggregate rebuild).
+-- Each index lists the columns its query reads so the planner can use an
+-- index-only scan where the visibility map allows it.
+
+-- option 7: COUNT(o.customer_id) per customer
+CREATE INDEX IF NOT EXISTS owns_customer_id_idx ON Owns (customer_id);
+
+-- option 8: c.year < 1995, returning vin, make, model without visiting Car
+CREATE INDEX IF NOT EXISTS car_year_covering_idx ON Car (year, vin, make, model);
+
+-- option 8 join on sr.car_vin with the sr.odometer filter and sort key;
+-- option 9 and the ServiceCounter seed count requests per sr.car_vin
+CREATE INDEX IF NOT EXISTS service_request_car_vin_odometer_idx ON Service_Request (car_vin, odometer);
+
+-- option 8: only requests past 50000 miles, already in report order
+CREATE INDEX IF NOT EXISTS service_request_high_odometer_idx ON Service_Request (odometer DESC, car_vin)
+	WHERE odometer > 50000;
+
+-- sr.customer_id joins and the per-customer aggregate rebuild
+CREATE INDEX IF NOT EXISTS service_request_customer_id_idx ON Service_Request (customer_id, rid);
+
+-- sr.rid = cr.rid lookups that need the customer (aggregate maintenance on close)
+CREATE INDEX IF NOT EXISTS service_request_rid_customer_idx ON Service_Request (rid, customer_id);
+
+-- cr.rid joins and the "already closed" check, carrying the bill
+CREATE INDEX IF NOT EXISTS closed_request_rid_bill_idx ON Closed_Request (rid, bill);
+
+-- option 10: read the summary in descending bill order
+CREATE INDEX IF NOT EXISTS customer_bill_summary_total_idx ON Customer_Bill_Summary (total_bill DESC, customer_id);
@@ -0,0 +1,5 @@
+-- Version 4: a service request is closed at most once.  CloseServiceRequest
+-- relies on this index for INSERT ... ON CONFLICT (rid) DO NOTHING instead of
+-- a separate COUNT check before the insert.
+
+CREATE UNIQUE INDEX IF NOT EXISTS closed_request_rid_key ON Closed_Request (rid);
@@ -0,0 +1,110 @@
+-- Version 5: Service_Request and Closed_Request become TIMESTAMP columns
+-- range partitioned by month, so date-bounded reports scan only the months
+-- they ask for.
+--
+-- A partitioned table cannot enforce uniqueness on a column set that leaves
+-- out the partition key, so two guarantees move off the request tables:
+--   * Closed_Rid holds one row per closed rid and takes over from the V4
+--     closed_request_rid_key index (CloseServiceRequest's ON CONFLICT target).
+--   * Closed_Rid.rid, not Closed_Request.rid, is what the clients check a
+--     close against; the Closed_Request -> Service_Request foreign key cannot
+--     be declared on (rid) alone and is dropped.
+-- rid and wid still come from their sequences, so the (rid, date) and
+-- (wid, date) primary keys stay unique per id in practice.
+
+-- Creates one partition per month between two dates, both months included.
+-- Partitions that already exist are left alone.  Run it ahead of time for
+-- the coming months, e.g.
+--   SELECT create_month_partitions('service_request', now()::date, (now() + interval '12 months')::date);
+-- Rows for months without a partition land in the table's default partition.
+CREATE OR REPLACE FUNCTION create_month_partitions(parent TEXT, first_day DATE, last_day DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	month DATE := date_trunc('month', first_day)::date;
+	created INTEGER := 0;
+	name TEXT;
+BEGIN
+	WHILE month <= last_day LOOP
+		name := lower(parent) || '_' || to_char(month, '"y"YYYY"m"MM');
+		IF to_regclass(name) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I PARTITION OF %I FOR VALUES FROM (%L) TO (%L)',
+				name, lower(parent), month::timestamp, (month + interval '1 month')::timestamp);
+			created := created + 1;
+		END IF;
+		month := (month + interval '1 month')::date;
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TABLE Service_Request_Part
+(
+	rid INTEGER NOT NULL,
+	customer_id INTEGER NOT NULL,
+	car_vin VARCHAR(16) NOT NULL,
+	date TIMESTAMP NOT NULL,
+	odometer INTEGER NOT NULL CHECK (odometer > 0),
+	complain TEXT,
+	CONSTRAINT service_request_part_pkey PRIMARY KEY (rid, date),
+	FOREIGN KEY (customer_id) REFERENCES Customer(id),
+	FOREIGN KEY (car_vin) REFERENCES Car(vin)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE Closed_Request_Part
+(
+	wid INTEGER NOT NULL,
+	rid INTEGER NOT NULL,
+	mid INTEGER NOT NULL,
+	date TIMESTAMP NOT NULL,
+	comment TEXT,
+	bill INTEGER NOT NULL CHECK (bill > 0),
+	CONSTRAINT closed_request_part_pkey PRIMARY KEY (wid, date),
+	FOREIGN KEY (mid) REFERENCES Mechanic(id)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE service_request_default PARTITION OF Service_Request_Part DEFAULT;
+CREATE TABLE closed_request_default PARTITION OF Closed_Request_Part DEFAULT;
+
+ALTER TABLE Service_Request RENAME TO Service_Request_Old;
+ALTER TABLE Closed_Request RENAME TO Closed_Request_Old;
+ALTER TABLE Service_Request_Part RENAME TO Service_Request;
+ALTER TABLE Closed_Request_Part RENAME TO Closed_Request;
+
+-- monthly partitions for the history already stored and the year ahead
+
+SELECT create_month_partitions('service_request',
+	COALESCE((SELECT min(date) FROM Service_Request_Old), now()::date), (now() + interval '12 months')::date);
+SELECT create_month_partitions('closed_request',
+	COALESCE((SELECT min(date) FROM Closed_Request_Old), now()::date), (now() + interval '12 months')::date);
+
+-- existing DATE values become midnight of the same day
+INSERT INTO Service_Request (rid, customer_id, car_vin, date, odometer, complain)
+	SELECT rid, customer_id, car_vin, date::timestamp, odometer, complain FROM Service_Request_Old;
+INSERT INTO Closed_Request (wid, rid, mid, date, comment, bill)
+	SELECT wid, rid, mid, date::timestamp, comment, bill FROM Closed_Request_Old;
+
+CREATE TABLE Closed_Rid
+(
+	rid INTEGER NOT NULL,
+	wid INTEGER NOT NULL,
+	PRIMARY KEY (rid)
+);
+INSERT INTO Closed_Rid (rid, wid) SELECT rid, wid FROM Closed_Request_Old;
+
+DROP TABLE Closed_Request_Old;
+DROP TABLE Service_Request_Old;
+
+ALTER TABLE Service_Request RENAME CONSTRAINT service_request_part_pkey TO service_request_pkey;
+ALTER TABLE Closed_Request RENAME CONSTRAINT closed_request_part_pkey TO closed_request_pkey;
+
+-- the V3 request indexes, now created on every partition
+CREATE INDEX service_request_car_vin_odometer_idx ON Service_Request (car_vin, odometer);
+CREATE INDEX service_request_high_odometer_idx ON Service_Request (odometer DESC, car_vin)
+	WHERE odometer > 50000;
+CREATE INDEX service_request_customer_id_idx ON Service_Request (customer_id, rid);
+CREATE INDEX service_request_rid_customer_idx ON Service_Request (rid, customer_id);
+CREATE INDEX closed_request_rid_bill_idx ON Closed_Request (rid, bill);
+
+ANALYZE Service_Request;
+ANALYZE Closed_Request;
+ANALYZE Closed_Rid;
@@ -0,0 +1,46 @@
+-- Version 6: create_month_partitions moves rows out of the default partition.
+--
+-- Rows dated in a month without a partition land in the table's default
+-- partition, and a partition cannot be created over a range the default
+-- partition still holds rows for.  Each month is now created as a plain
+-- table, the month's rows are moved into it from the default partition, and
+-- it is then attached.  The client runs this for the current month and the
+-- months ahead on every start and after --migrate (mechanicshop.partitions.ahead).
+
+CREATE OR REPLACE FUNCTION create_month_partitions(parent TEXT, first_day DATE, last_day DATE)
+RETURNS INTEGER AS $$
+DECLARE
+	month DATE := date_trunc('month', first_day)::date;
+	created INTEGER := 0;
+	name TEXT;
+	fallback TEXT := lower(parent) || '_default';
+BEGIN
+	-- clients starting together would otherwise race to create the same month
+	PERFORM pg_advisory_xact_lock(hashtext('create_month_partitions'), hashtext(lower(parent)));
+	WHILE month <= last_day LOOP
+		name := lower(parent) || '_' || to_char(month, '"y"YYYY"m"MM');
+		IF to_regclass(name) IS NULL THEN
+			EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)',
+				name, lower(parent));
+			IF to_regclass(fallback) IS NOT NULL THEN
+				EXECUTE format('WITH moved AS (DELETE FROM %I WHERE date >= %L AND date < %L RETURNING *) ' ||
+					'INSERT INTO %I SELECT * FROM moved',
+					fallback, month::timestamp, (month + interval '1 month')::timestamp, name);
+			END IF;
+			EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+				lower(parent), name, month::timestamp, (month + interval '1 month')::timestamp);
+			created := created + 1;
+		END IF;
+		month := (month + interval '1 month')::date;
+	END LOOP;
+	RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- months that filled up the default partition since V5
+SELECT create_month_partitions('service_request',
+	COALESCE((SELECT min(date) FROM service_request_default), now()::date),
+	GREATEST(COALESCE((SELECT max(date) FROM service_request_default), now()), now() + interval '12 months')::date);
+SELECT create_month_partitions('closed_request',
+	COALESCE((SELECT min(date) FROM closed_request_default), now()::date),
+	GREATEST(COALESCE((SELECT max(date) FROM closed_request_default), now()), now() + interval '12 months')::date);